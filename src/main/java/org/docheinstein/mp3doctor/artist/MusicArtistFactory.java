@@ -5,14 +5,14 @@ import org.docheinstein.mp3doctor.artist.base.*;
 import org.docheinstein.mp3doctor.artist.impl.MusicArtistImpl;
 import org.docheinstein.mp3doctor.artist.impl.MusicGroupImpl;
 import org.docheinstein.mp3doctor.artist.impl.SoloMusicArtistImpl;
+import org.docheinstein.mp3doctor.cache.CacheReader;
+import org.docheinstein.mp3doctor.cache.CacheWriter;
 import org.docheinstein.mp3doctor.commons.logger.Logger;
 import org.docheinstein.mp3doctor.commons.utils.Asserts;
 import org.docheinstein.mp3doctor.commons.utils.CollectionsUtil;
-import org.docheinstein.mp3doctor.commons.utils.FileUtil;
 import org.docheinstein.mp3doctor.commons.utils.StringUtil;
 
 import java.io.File;
-import java.io.PrintWriter;
 import java.time.LocalDate;
 import java.util.*;
 import java.util.function.Function;
@@ -157,10 +157,10 @@ public class MusicArtistFactory {
                 return null;
             }
 
-            Scanner scanner = FileUtil.getScanner(f);
+            CacheReader reader = CacheReader.open(f);
 
-            if (scanner == null) {
-                L.error("Can't retrieve a scanner for file: " + f.getAbsolutePath());
+            if (reader == null) {
+                L.error("Can't retrieve a reader for file: " + f.getAbsolutePath());
                 return null;
             }
 
@@ -169,8 +169,8 @@ public class MusicArtistFactory {
             HashMap<String, String> keyvals = new HashMap<>();
 
             L.debug("Going parse file for create a MusicArtist");
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
                 L.verbose("Scanning line: "  + line);
                 Pair<String, String> keyval = getKeyValueForLine(line);
                 if (keyval != null) {
@@ -179,7 +179,7 @@ public class MusicArtistFactory {
                 }
             }
 
-            scanner.close();
+            reader.close();
 
             MusicArtistType artistType =
                 MusicArtistType.fromIdentifier(keyvals.get(ARTIST_TYPE));
@@ -366,10 +366,10 @@ public class MusicArtistFactory {
 
             Asserts.assertNotNull(artistFile, "Can't save an artist to a null file");
 
-            PrintWriter writer = FileUtil.getWriter(artistFile);
+            CacheWriter writer = CacheWriter.open(artistFile, false);
 
             if (writer == null) {
-                L.error("Can't retrieve a print writer for file " + artistFile.getAbsolutePath());
+                L.error("Can't retrieve a writer for file " + artistFile.getAbsolutePath());
                 return;
             }
 
@@ -377,6 +377,7 @@ public class MusicArtistFactory {
 
             if (artistType == null) {
                 L.error("Unknown artist type, aborting save");
+                writer.close();
                 return;
             }
 
@@ -418,13 +419,13 @@ public class MusicArtistFactory {
          * @param key the key
          * @param value the string
          */
-        private static void writeString(PrintWriter writer, String key, String value) {
+        private static void writeString(CacheWriter writer, String key, String value) {
             if (!StringUtil.isValid(value))
                 return;
 
             L.verbose("Writing to file (K ; V) := (" + key + " ; " + value + ")");
-            writer.println(key + " " + CONTENT_START  + value + CONTENT_END);
-            writer.println();
+            writer.writeLine(key + " " + CONTENT_START  + value + CONTENT_END);
+            writer.writeLine("");
         }
 
         /**
@@ -433,7 +434,7 @@ public class MusicArtistFactory {
          * @param key the key
          * @param date the date
          */
-        private static void writeDate(PrintWriter writer, String key, LocalDate date) {
+        private static void writeDate(CacheWriter writer, String key, LocalDate date) {
             if (date != null)
                 writeString(writer, key, date.toString());
         }
@@ -447,7 +448,7 @@ public class MusicArtistFactory {
          *                        to its string representation
          * @param <E> the type of the elements of the array
          */
-        private static <E> void writeArray(PrintWriter writer,
+        private static <E> void writeArray(CacheWriter writer,
                                            String key,
                                            E[] elements,
                                            Function<? super E, ? extends String> mappingFunction) {
@@ -0,0 +1,165 @@
+package org.docheinstein.mp3doctor.benchmark;
+
+import org.docheinstein.mp3doctor.cache.CacheReader;
+import org.docheinstein.mp3doctor.cache.CacheWriter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+
+/**
+ * Compares the {@link CacheReader} with a {@link Scanner}, which was used
+ * for read the cache files before, and with a {@link BufferedReader}, both
+ * for the read lines and for the read time.
+ * <p>
+ * Usage: <code>CacheReaderBenchmark [lines] [runs]</code>; a cache file with
+ * the given number of song paths (some of those not ASCII) is written by the
+ * {@link CacheWriter} in a temporary file.
+ */
+public class CacheReaderBenchmark {
+
+    /** Number of lines of the cache file, if not given. */
+    private static final int DEFAULT_LINE_COUNT = 1000000;
+
+    /** Number of timed runs, if not given. */
+    private static final int DEFAULT_RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_LINE_COUNT;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+
+        File file = File.createTempFile("cache-benchmark", ".txt");
+        file.deleteOnExit();
+
+        long writeStart = System.nanoTime();
+        writeCacheFile(file, lineCount);
+        long writeEnd = System.nanoTime();
+
+        System.out.printf("Lines: %d, size: %d bytes, written in %.1f ms%n",
+            lineCount, file.length(), (writeEnd - writeStart) / 1e6);
+
+        System.out.println("Mismatches: " + countMismatches(file));
+
+        for (int run = 0; run < runs; run++) {
+            long start = System.nanoTime();
+            int scannerLines = readWithScanner(file);
+            long scannerEnd = System.nanoTime();
+            int bufferedReaderLines = readWithBufferedReader(file);
+            long bufferedReaderEnd = System.nanoTime();
+            int cacheReaderLines = readWithCacheReader(file);
+            long cacheReaderEnd = System.nanoTime();
+
+            System.out.printf(
+                "Run %d: Scanner %.1f ms (%d lines), BufferedReader %.1f ms (%d lines), " +
+                    "CacheReader %.1f ms (%d lines)%n",
+                run + 1,
+                (scannerEnd - start) / 1e6, scannerLines,
+                (bufferedReaderEnd - scannerEnd) / 1e6, bufferedReaderLines,
+                (cacheReaderEnd - bufferedReaderEnd) / 1e6, cacheReaderLines);
+        }
+    }
+
+    /**
+     * Writes the given number of song paths to the given file.
+     * @param file the file
+     * @param lineCount the number of lines
+     */
+    private static void writeCacheFile(File file, int lineCount) {
+        try (CacheWriter writer = CacheWriter.open(file, false)) {
+            for (int i = 0; i < lineCount; i++) {
+                writer.writeLine("/home/user/Music/Artist " + (i % 500) +
+                    "/Album " + (i % 3000) + "/" + i +
+                    (i % 10 == 0 ? " - S\u00f6ng title.mp3" : " - Song title.mp3"));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of lines read by the {@link CacheReader} that
+     * differ from the ones read by a {@link BufferedReader}.
+     * @param file the file
+     * @return the number of mismatches
+     * @throws Exception if the file can't be read
+     */
+    private static int countMismatches(File file) throws Exception {
+        int mismatches = 0;
+
+        CacheReader cacheReader = CacheReader.open(file);
+
+        try (BufferedReader bufferedReader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            while (true) {
+                String expected = bufferedReader.readLine();
+                String actual = cacheReader.readLine();
+
+                if (expected == null && actual == null)
+                    break;
+
+                if (expected == null || !expected.equals(actual))
+                    mismatches++;
+            }
+        } finally {
+            cacheReader.close();
+        }
+
+        return mismatches;
+    }
+
+    /**
+     * Reads the lines of the given file with a {@link Scanner}.
+     * @param file the file
+     * @return the number of read lines
+     * @throws Exception if the file can't be read
+     */
+    private static int readWithScanner(File file) throws Exception {
+        int lineCount = 0;
+
+        try (Scanner scanner = new Scanner(file, StandardCharsets.UTF_8.name())) {
+            while (scanner.hasNextLine()) {
+                scanner.nextLine();
+                lineCount++;
+            }
+        }
+
+        return lineCount;
+    }
+
+    /**
+     * Reads the lines of the given file with a {@link BufferedReader}.
+     * @param file the file
+     * @return the number of read lines
+     * @throws Exception if the file can't be read
+     */
+    private static int readWithBufferedReader(File file) throws Exception {
+        int lineCount = 0;
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            while (reader.readLine() != null)
+                lineCount++;
+        }
+
+        return lineCount;
+    }
+
+    /**
+     * Reads the lines of the given file with a {@link CacheReader}.
+     * @param file the file
+     * @return the number of read lines
+     */
+    private static int readWithCacheReader(File file) {
+        int lineCount = 0;
+
+        CacheReader reader = CacheReader.open(file);
+
+        while (reader.readLine() != null)
+            lineCount++;
+
+        reader.close();
+
+        return lineCount;
+    }
+}
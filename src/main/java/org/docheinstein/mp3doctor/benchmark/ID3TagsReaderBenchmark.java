@@ -0,0 +1,283 @@
+package org.docheinstein.mp3doctor.benchmark;
+
+import org.docheinstein.mp3doctor.song.SongTags;
+import org.docheinstein.mp3doctor.song.loader.ID3TagsReader;
+import org.jaudiotagger.audio.AudioFile;
+import org.jaudiotagger.audio.AudioFileIO;
+import org.jaudiotagger.audio.AudioHeader;
+import org.jaudiotagger.tag.FieldKey;
+import org.jaudiotagger.tag.Tag;
+import org.jaudiotagger.tag.TagOptionSingleton;
+import org.jaudiotagger.tag.id3.ID3v24Tag;
+import org.jaudiotagger.tag.images.Artwork;
+import org.jaudiotagger.tag.images.ArtworkFactory;
+import org.jaudiotagger.tag.reference.ID3V2Version;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.LogManager;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares the {@link ID3TagsReader} with jaudiotagger, both for the read
+ * values and for the read time.
+ * <p>
+ * Usage: <code>ID3TagsReaderBenchmark [directory] [runs]</code>; the .mp3
+ * files of the directory are read, or, if no directory is given, a set of
+ * synthetic files (ID3v2.3, ID3v2.4 and untagged; CBR, Xing VBR and MPEG 2/2.5
+ * mono; some with lyrics and cover) is created in a temporary directory.
+ */
+public class ID3TagsReaderBenchmark {
+
+    /** Number of timed runs, if not given. */
+    private static final int DEFAULT_RUNS = 5;
+
+    /** Number of synthetic files created for each kind of tag and stream. */
+    private static final int SYNTHETIC_FILES_PER_KIND = 25;
+
+    /** Number of MPEG frames of each synthetic file. */
+    private static final int SYNTHETIC_FRAME_COUNT = 200;
+
+    /** Size of the covers of the synthetic files. */
+    private static final int SYNTHETIC_COVER_SIZE = 300 * 1024;
+
+    /**
+     * Streams of the synthetic files: MPEG version, bit rate index,
+     * sample rate index, channel mode, bit rate, sample rate and whether
+     * the stream has a Xing header.
+     */
+    private static final int[][] SYNTHETIC_STREAMS = {
+        { 3, 9, 0, 1, 128, 44100, 0 },
+        { 3, 11, 1, 3, 192, 48000, 1 },
+        { 2, 8, 0, 3, 64, 22050, 0 },
+        { 0, 8, 0, 0, 64, 11025, 1 },
+    };
+
+    public static void main(String[] args) throws Exception {
+        // jaudiotagger logs each file read
+        LogManager.getLogManager().reset();
+
+        List<File> files = args.length > 0 ?
+            findMP3Files(new File(args[0])) :
+            createSyntheticFiles(Files.createTempDirectory("id3-benchmark").toFile());
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+
+        System.out.println("Files: " + files.size());
+
+        int unhandled = 0, mismatches = 0;
+
+        for (File file : files) {
+            SongTags tags = ID3TagsReader.read(file, true);
+
+            if (tags == null) {
+                unhandled++;
+                continue;
+            }
+
+            String expected = describe(AudioFileIO.read(file));
+            String actual = describe(tags);
+
+            if (!expected.equals(actual)) {
+                mismatches++;
+                System.out.println("Mismatch for " + file +
+                    "\n  jaudiotagger: " + expected + "\n  fast reader:  " + actual);
+            }
+        }
+
+        System.out.println("Left to jaudiotagger: " + unhandled + "; mismatches: " + mismatches);
+
+        for (int run = 0; run < runs; run++) {
+            long start = System.nanoTime();
+            for (File file : files)
+                ID3TagsReader.read(file, true);
+            long fastEnd = System.nanoTime();
+            for (File file : files)
+                AudioFileIO.read(file).getAudioHeader();
+            long end = System.nanoTime();
+
+            System.out.printf("Run %d: fast reader %.1f ms, jaudiotagger %.1f ms%n",
+                run + 1, (fastEnd - start) / 1e6, (end - fastEnd) / 1e6);
+        }
+    }
+
+    /**
+     * Returns the .mp3 files within the given directory.
+     * @param directory the directory
+     * @return the files
+     * @throws IOException if an I/O error occurs
+     */
+    private static List<File> findMP3Files(File directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            return paths
+                .filter(p -> p.toString().toLowerCase().endsWith(".mp3"))
+                .map(Path::toFile)
+                .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Creates the synthetic files in the given directory.
+     * @param directory the directory
+     * @return the created files
+     * @throws Exception if the files can't be written
+     */
+    private static List<File> createSyntheticFiles(File directory) throws Exception {
+        List<File> files = new ArrayList<>();
+
+        for (int tagVersion : new int[] { 3, 4, 0 }) {
+            for (int[] stream : SYNTHETIC_STREAMS) {
+                // A single untagged file is enough for each stream
+                int count = tagVersion == 0 ? 1 : SYNTHETIC_FILES_PER_KIND;
+
+                for (int i = 0; i < count; i++) {
+                    File file = new File(directory, "song" + files.size() + ".mp3");
+                    file.deleteOnExit();
+
+                    try (OutputStream out = new FileOutputStream(file)) {
+                        out.write(createStream(stream));
+                    }
+
+                    if (tagVersion != 0)
+                        writeTag(file, tagVersion, i);
+
+                    files.add(file);
+                }
+            }
+        }
+
+        return files;
+    }
+
+    /**
+     * Returns the MPEG frames of a synthetic stream.
+     * @param stream the description of the stream (see {@link #SYNTHETIC_STREAMS})
+     * @return the frames
+     */
+    private static byte[] createStream(int[] stream) {
+        int version = stream[0], bitRateIndex = stream[1], sampleRateIndex = stream[2];
+        int channelMode = stream[3], bitRate = stream[4], sampleRate = stream[5];
+        boolean xing = stream[6] != 0;
+
+        int frameLength = (version == 3 ? 144 : 72) * bitRate * 1000 / sampleRate;
+        byte[] frames = new byte[frameLength * SYNTHETIC_FRAME_COUNT];
+
+        for (int i = 0; i < SYNTHETIC_FRAME_COUNT; i++) {
+            int pos = i * frameLength;
+            frames[pos] = (byte) 0xFF;
+            frames[pos + 1] = (byte) (0xE0 | (version << 3) | (1 << 1) | 1);
+            frames[pos + 2] = (byte) ((bitRateIndex << 4) | (sampleRateIndex << 2));
+            frames[pos + 3] = (byte) (channelMode << 6);
+        }
+
+        if (xing) {
+            int xingPos = version == 3 ?
+                (channelMode == 3 ? 21 : 36) :
+                (channelMode == 3 ? 13 : 21);
+            System.arraycopy("Xing".getBytes(), 0, frames, xingPos, 4);
+            // Frame count and audio size
+            frames[xingPos + 7] = 3;
+            putInt(frames, xingPos + 8, SYNTHETIC_FRAME_COUNT * 3);
+            putInt(frames, xingPos + 12, frames.length * 2);
+        }
+
+        return frames;
+    }
+
+    /**
+     * Writes the tag of a synthetic file with jaudiotagger.
+     * @param file the file
+     * @param version the major version of the ID3v2 tag
+     * @param index the index of the file, used for vary the tags
+     * @throws Exception if the tag can't be written
+     */
+    private static void writeTag(File file, int version, int index) throws Exception {
+        TagOptionSingleton.getInstance().setID3V2Version(
+            version == 3 ? ID3V2Version.ID3_V23 : ID3V2Version.ID3_V24);
+
+        AudioFile audioFile = AudioFileIO.read(file);
+        Tag tag = audioFile.getTagOrCreateAndSetDefault();
+
+        tag.setField(FieldKey.ARTIST, "Artist " + index);
+        tag.setField(FieldKey.TITLE, "Title " + index);
+        tag.setField(FieldKey.ALBUM, "Album");
+        tag.setField(FieldKey.YEAR, "1999");
+        tag.setField(FieldKey.GENRE, index % 2 == 0 ? "Rock" : "Shoegaze");
+        tag.setField(FieldKey.TRACK, String.valueOf(index % 12 + 1));
+        tag.setField(FieldKey.TRACK_TOTAL, "12");
+
+        if (index % 3 == 0)
+            tag.setField(FieldKey.LYRICS, "Lyrics of song " + index);
+
+        if (index % 4 == 0) {
+            Artwork cover = ArtworkFactory.getNew();
+            cover.setBinaryData(new byte[SYNTHETIC_COVER_SIZE]);
+            cover.setMimeType("image/jpeg");
+            tag.setField(cover);
+        }
+
+        audioFile.commit();
+    }
+
+    /**
+     * Returns a description of the tags read by jaudiotagger.
+     * @param audioFile the file read by jaudiotagger
+     * @return the description of the tags
+     */
+    private static String describe(AudioFile audioFile) {
+        Tag tag = audioFile.getTag();
+        AudioHeader header = audioFile.getAudioHeader();
+
+        if (tag == null)
+            tag = new ID3v24Tag();
+
+        return describe(
+            tag.getFirst(FieldKey.ARTIST), tag.getFirst(FieldKey.TITLE),
+            tag.getFirst(FieldKey.ALBUM), tag.getFirst(FieldKey.YEAR),
+            tag.getFirst(FieldKey.GENRE), tag.getFirst(FieldKey.TRACK),
+            !tag.getFirst(FieldKey.LYRICS).isEmpty(), tag.getFirstArtwork() != null,
+            header.getBitRate(), header.getSampleRate(), header.getChannels());
+    }
+
+    /**
+     * Returns a description of the tags read by the {@link ID3TagsReader}.
+     * @param tags the tags
+     * @return the description of the tags
+     */
+    private static String describe(SongTags tags) {
+        return describe(
+            tags.getArtist(), tags.getTitle(), tags.getAlbum(),
+            tags.getYear(), tags.getGenre(), tags.getTrackNumber(),
+            tags.hasLyrics(), tags.hasCover(),
+            tags.getBitRate(), tags.getSampleRate(), tags.getChannels());
+    }
+
+    /**
+     * Returns a description of the given tags.
+     * @param values the values of the tags
+     * @return the description of the tags
+     */
+    private static String describe(Object... values) {
+        return Arrays.toString(values);
+    }
+
+    /**
+     * Writes the given int in big endian order.
+     * @param bytes the destination
+     * @param pos the position of the int
+     * @param value the int
+     */
+    private static void putInt(byte[] bytes, int pos, int value) {
+        bytes[pos] = (byte) (value >> 24);
+        bytes[pos + 1] = (byte) (value >> 16);
+        bytes[pos + 2] = (byte) (value >> 8);
+        bytes[pos + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,101 @@
+package org.docheinstein.mp3doctor.benchmark;
+
+import javafx.beans.InvalidationListener;
+import org.docheinstein.mp3doctor.song.Song;
+import org.docheinstein.mp3doctor.song.SongFingerprint;
+import org.docheinstein.mp3doctor.song.SongTags;
+
+import java.io.File;
+
+/**
+ * Measures the heap retained by each {@link Song} of the library, including
+ * its file and its tags, as the difference of the used heap before and
+ * after the songs are created.
+ * <p>
+ * The songs are measured both as those are kept by the library (tags
+ * restored from the cache and a listener) and after every property has been
+ * requested, as it happens for the songs shown by a table; the latter is
+ * the footprint every song had when the properties were created eagerly.
+ * <p>
+ * Usage: <code>SongFootprintBenchmark [songs]</code>; the result depends
+ * on the JVM, e.g. on whether the ordinary object pointers are compressed
+ * (see -XX:-UseCompressedOops).
+ */
+public class SongFootprintBenchmark {
+
+    /** Number of measured songs, if not given. */
+    private static final int DEFAULT_SONG_COUNT = 100000;
+
+    /** Artists of the songs, which are shared as in a real library. */
+    private static final String[] ARTISTS = { "Queen", "Pink Floyd", "Led Zeppelin" };
+
+    public static void main(String[] args) throws Exception {
+        int songCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SONG_COUNT;
+
+        System.out.println("Songs: " + songCount);
+
+        Song[] songs = new Song[songCount];
+        InvalidationListener listener = observable -> {};
+
+        long baseline = usedHeap();
+
+        for (int i = 0; i < songCount; i++) {
+            Song song = new Song(new File("/music/library/song" + i + ".mp3"));
+            song.restoreTags(
+                new SongTags(ARTISTS[i % ARTISTS.length], "Title " + i, "Album",
+                    "1999", "Rock", "3", false, false, "128", "44100", "Joint Stereo"),
+                new SongFingerprint(i, i));
+            song.addListener(listener);
+            songs[i] = song;
+        }
+
+        long restored = usedHeap();
+
+        for (Song song : songs)
+            requestProperties(song);
+
+        long withProperties = usedHeap();
+
+        System.out.println("Bytes per song, as kept by the library: " +
+            (restored - baseline) / songCount);
+        System.out.println("Bytes per song, with every property: " +
+            (withProperties - baseline) / songCount);
+
+        // Keeps the songs reachable till the last measure
+        System.out.println("Measured songs: " + songs.length);
+    }
+
+    /**
+     * Requests every property of the given song, which creates those.
+     * @param song the song
+     */
+    private static void requestProperties(Song song) {
+        song.getFilenameProperty();
+        song.getPathProperty();
+        song.getArtistProperty();
+        song.getTitleProperty();
+        song.getAlbumProperty();
+        song.getYearProperty();
+        song.getGenreProperty();
+        song.getTrackNumberProperty();
+        song.getBitRateProperty();
+        song.getSampleRateProperty();
+        song.getChannelsProperty();
+    }
+
+    /**
+     * Returns the used heap, after having requested a few garbage collections.
+     * @return the used heap, in bytes
+     * @throws InterruptedException if interrupted while waiting the collections
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -17,9 +17,21 @@ public class CacheHierarchy {
     /** Cache file entry for the songs. */
     private final FEntry mSongsEntry = new FEntry(Config.Paths.Cache.SONGS_FOLDER_NAME);
 
+    /** Cache file entry for the journal of the changes to the songs. */
+    private final FEntry mSongsJournalEntry = new FEntry(Config.Paths.Cache.SONGS_JOURNAL_FILE_NAME);
+
+    /** Cache file entry for the tags of the songs. */
+    private final FEntry mSongTagsEntry = new FEntry(Config.Paths.Cache.SONG_TAGS_FILE_NAME);
+
+    /** Cache file entry for the directories imported in the library. */
+    private final FEntry mLibraryRootsEntry = new FEntry(Config.Paths.Cache.LIBRARY_ROOTS_FILE_NAME);
+
     /** Cache directory entry for the playlists. */
     private final DEntry mPlaylistsEntry = new DEntry(Config.Paths.Cache.PLAYLISTS_FOLDER_NAME);
 
+    /** Cache file entry for the smart playlists. */
+    private final FEntry mSmartPlaylistsEntry = new FEntry(Config.Paths.Cache.SMART_PLAYLISTS_FILE_NAME);
+
     /** Cache directory entry for the artists. */
     private final DEntry mArtistsEntry = new DEntry(Config.Paths.Cache.ARTISTS_FOLDER_NAME);
 
@@ -27,7 +39,11 @@ public class CacheHierarchy {
     private final DEntry mRoot = DEntry.createNormalizedHierarchyForPath(
         Config.Paths.Cache.ROOT_PATH, Config.Paths.Cache.ROOT_FOLDER_NAME,
         mSongsEntry,
+        mSongsJournalEntry,
+        mSongTagsEntry,
+        mLibraryRootsEntry,
         mPlaylistsEntry,
+        mSmartPlaylistsEntry,
         mArtistsEntry
     );
 
@@ -55,6 +71,30 @@ public class CacheHierarchy {
         return mSongsEntry;
     }
 
+    /**
+     * Returns the songs journal entry of the disk cache.
+     * @return the songs journal entry of the disk cache.
+     */
+    public FEntry getSongsJournalEntry() {
+        return mSongsJournalEntry;
+    }
+
+    /**
+     * Returns the song tags entry of the disk cache.
+     * @return the song tags entry of the disk cache.
+     */
+    public FEntry getSongTagsEntry() {
+        return mSongTagsEntry;
+    }
+
+    /**
+     * Returns the library roots entry of the disk cache.
+     * @return the library roots entry of the disk cache.
+     */
+    public FEntry getLibraryRootsEntry() {
+        return mLibraryRootsEntry;
+    }
+
     /**
      * Returns the playlists entry of the disk cache.
      * @return the playlists entry of the disk cache.
@@ -63,6 +103,14 @@ public class CacheHierarchy {
         return mPlaylistsEntry;
     }
 
+    /**
+     * Returns the smart playlists entry of the disk cache.
+     * @return the smart playlists entry of the disk cache.
+     */
+    public FEntry getSmartPlaylistsEntry() {
+        return mSmartPlaylistsEntry;
+    }
+
     /**
      * Returns the artists entry of the disk cache.
      * @return the artists entry of the disk cache.
@@ -0,0 +1,267 @@
+package org.docheinstein.mp3doctor.cache;
+
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.commons.utils.Asserts;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reader of the lines of the text files of the cache.
+ * <p>
+ * The file is read via its {@link FileChannel} directly into an array, a
+ * window at a time, where the line boundaries are found and the lines are
+ * decoded from UTF-8; there is no intermediate stream, decoder or regex,
+ * and the memory used doesn't depend on the size of the file.
+ * <p>
+ * Both "\n" and "\r\n" are accepted as line terminators.
+ * <p>
+ * The files written by the previous versions of the application are in
+ * the platform charset, thus a line that isn't valid UTF-8 is decoded
+ * with the platform charset instead; such a file is written in UTF-8 the
+ * next time it is saved.
+ * <p>
+ * The file stays open till the reader is closed via {@link #close()}.
+ *
+ * @see CacheWriter
+ */
+public class CacheReader implements Closeable {
+
+    private static final Logger L = Logger.createForClass(CacheReader.class);
+
+    /** Initial size of the window. */
+    private static final int WINDOW_SIZE = 1 << 16;
+
+    /** Channel of the file, or null if the reader has been closed. */
+    private FileChannel mChannel;
+
+    /** Whether the end of the file has been reached. */
+    private boolean mEndReached = false;
+
+    /**
+     * Bytes of the file read from {@link #mChannel}, so that those can be
+     * scanned without the per byte checks of a buffer; it grows if a line
+     * is longer than the window.
+     */
+    private byte[] mWindow = new byte[WINDOW_SIZE];
+
+    /** Position of the next line in the window. */
+    private int mWindowPosition = 0;
+
+    /** Number of valid bytes in the window. */
+    private int mWindowLimit = 0;
+
+    /** Whether the last line returned by {@link #readLine()} was terminated. */
+    private boolean mLineTerminated = true;
+
+    /** Decoder that detects the lines that are not valid UTF-8. */
+    private final CharsetDecoder mUtf8Decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+    /**
+     * Creates a reader over the given channel.
+     * @param channel the channel of the file
+     */
+    private CacheReader(FileChannel channel) {
+        mChannel = channel;
+    }
+
+    /**
+     * Opens a reader for the given file.
+     * @param file the file
+     * @return the reader, or null if the file doesn't exist or can't be read
+     */
+    public static CacheReader open(File file) {
+        Asserts.assertNotNull(file, "Can't read a null file", L);
+
+        if (!file.isFile())
+            return null;
+
+        try {
+            return new CacheReader(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+        } catch (IOException e) {
+            L.error("Error occurred while opening cache file: " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the next line, without the terminator.
+     * @return the next line, or null if the end of the file has been reached
+     */
+    public String readLine() {
+        if (mChannel == null)
+            return null;
+
+        int lineStart = mWindowPosition;
+        int scanFrom = lineStart;
+
+        while (true) {
+            for (int i = scanFrom; i < mWindowLimit; i++) {
+                if (mWindow[i] == '\n') {
+                    mWindowPosition = i + 1;
+                    mLineTerminated = true;
+                    return decode(lineStart, i);
+                }
+            }
+
+            // No terminator in the window: moves the partial line at the
+            // beginning of the window and refills the rest
+            int partialLength = mWindowLimit - lineStart;
+
+            if (mEndReached) {
+                mWindowPosition = mWindowLimit;
+
+                if (partialLength == 0)
+                    return null;
+
+                mLineTerminated = false;
+                return decode(lineStart, mWindowLimit);
+            }
+
+            if (partialLength == mWindow.length)
+                mWindow = Arrays.copyOf(mWindow, mWindow.length * 2);
+            else
+                System.arraycopy(mWindow, lineStart, mWindow, 0, partialLength);
+
+            int refill = fill(partialLength);
+
+            lineStart = 0;
+            scanFrom = partialLength;
+            mWindowLimit = partialLength + refill;
+        }
+    }
+
+    /**
+     * Counts the remaining non empty lines, without decoding those; the
+     * reader is at the end of the file afterwards.
+     * @return the number of non empty lines
+     */
+    public int countLines() {
+        if (mChannel == null)
+            return 0;
+
+        int count = 0;
+        // Whether the current line contains something but the terminator
+        boolean lineFilled = false;
+
+        while (true) {
+            for (int i = mWindowPosition; i < mWindowLimit; i++) {
+                byte b = mWindow[i];
+                if (b == '\n') {
+                    if (lineFilled)
+                        count++;
+                    lineFilled = false;
+                }
+                else if (b != '\r') {
+                    lineFilled = true;
+                }
+            }
+
+            if (mEndReached)
+                break;
+
+            mWindowPosition = 0;
+            mWindowLimit = fill(0);
+        }
+
+        mWindowPosition = mWindowLimit;
+
+        return lineFilled ? count + 1 : count;
+    }
+
+    /**
+     * Reads the file into the window from the given position till the
+     * window is full or the end of the file is reached.
+     * <p>
+     * An error is handled as the end of the file.
+     * @param offset the position of the window where the read bytes go
+     * @return the number of read bytes
+     */
+    private int fill(int offset) {
+        ByteBuffer target = ByteBuffer.wrap(mWindow, offset, mWindow.length - offset);
+
+        try {
+            while (target.hasRemaining()) {
+                if (mChannel.read(target) < 0) {
+                    mEndReached = true;
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            L.error("Error occurred while reading cache file", e);
+            mEndReached = true;
+        }
+
+        return target.position() - offset;
+    }
+
+    /**
+     * Decodes the line between the given positions of the window,
+     * dropping the trailing '\r', if any.
+     * <p>
+     * The line is decoded from UTF-8, or from the platform charset if it
+     * isn't valid UTF-8.
+     * @param start the position of the first byte of the line
+     * @param end the position after the last byte of the line
+     * @return the line
+     */
+    private String decode(int start, int end) {
+        if (end > start && mWindow[end - 1] == '\r')
+            end--;
+
+        int length = end - start;
+
+        // ASCII is the same in every charset, no need to validate it
+        boolean ascii = true;
+        for (int i = start; i < end && ascii; i++)
+            ascii = mWindow[i] >= 0;
+
+        if (ascii)
+            return new String(mWindow, start, length, StandardCharsets.US_ASCII);
+
+        try {
+            return mUtf8Decoder.decode(ByteBuffer.wrap(mWindow, start, length)).toString();
+        } catch (CharacterCodingException e) {
+            L.verbose("Decoding cache line with the platform charset: " + Charset.defaultCharset());
+            return new String(mWindow, start, length, Charset.defaultCharset());
+        }
+    }
+
+    /**
+     * Returns whether the last line returned by {@link #readLine()} was
+     * followed by a line terminator; the last line of a file that has been
+     * truncated while being written is not.
+     * @return whether the last line was terminated
+     */
+    public boolean isLineTerminated() {
+        return mLineTerminated;
+    }
+
+    /** Closes the file and releases the window. */
+    @Override
+    public void close() {
+        if (mChannel == null)
+            return;
+
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            L.warn("Error occurred while closing cache file", e);
+        }
+
+        mChannel = null;
+        mWindow = null;
+    }
+}
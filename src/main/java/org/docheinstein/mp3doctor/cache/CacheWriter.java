@@ -0,0 +1,184 @@
+package org.docheinstein.mp3doctor.cache;
+
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.commons.utils.Asserts;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered writer of the lines of the text files of the cache, which can
+ * be read by {@link CacheReader}.
+ * <p>
+ * The lines are encoded in UTF-8 directly into a byte buffer, which is
+ * written to the file only when full; the lines are terminated by "\n".
+ * <p>
+ * The writer doesn't throw: the first error is logged, the following
+ * writes are ignored and the failure is reported by {@link #close()}.
+ */
+public class CacheWriter implements Closeable {
+
+    private static final Logger L = Logger.createForClass(CacheWriter.class);
+
+    /** Size of the buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Written file. */
+    private final File mFile;
+
+    /** Stream of the file, or null if an error occurred. */
+    private FileOutputStream mOutput;
+
+    /** Bytes not written to the file yet. */
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    /** Number of bytes in the buffer. */
+    private int mCount = 0;
+
+    /**
+     * Creates a writer over the given stream.
+     * @param file the file
+     * @param output the stream of the file
+     */
+    private CacheWriter(File file, FileOutputStream output) {
+        mFile = file;
+        mOutput = output;
+    }
+
+    /**
+     * Opens a writer for the given file, which is created if it doesn't exist.
+     * @param file the file
+     * @param append whether the lines have to be appended to the file
+     *               instead of replacing its content
+     * @return the writer, or null if the file can't be opened
+     */
+    public static CacheWriter open(File file, boolean append) {
+        Asserts.assertNotNull(file, "Can't write a null file", L);
+
+        try {
+            return new CacheWriter(file, new FileOutputStream(file, append));
+        } catch (IOException e) {
+            L.error("Error occurred while opening cache file: " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the given line, followed by the line terminator.
+     * @param line the line
+     */
+    public void writeLine(String line) {
+        int length = line.length();
+        int i = 0;
+
+        // Fast path for the ASCII prefix
+        while (i < length) {
+            char c = line.charAt(i);
+            if (c >= 0x80)
+                break;
+            if (mCount == BUFFER_SIZE)
+                drain();
+            mBuffer[mCount++] = (byte) c;
+            i++;
+        }
+
+        if (i < length)
+            writeBytes(line.substring(i).getBytes(StandardCharsets.UTF_8));
+
+        if (mCount == BUFFER_SIZE)
+            drain();
+        mBuffer[mCount++] = '\n';
+    }
+
+    /**
+     * Writes the buffered lines to the file and forces those to the disk.
+     * @return whether every line has been written so far
+     */
+    public boolean sync() {
+        drain();
+
+        if (mOutput == null)
+            return false;
+
+        try {
+            mOutput.getChannel().force(false);
+            return true;
+        } catch (IOException e) {
+            fail(e);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the buffered lines to the file and closes it.
+     * @return whether every line has been written
+     */
+    public boolean closeAndCheck() {
+        drain();
+
+        if (mOutput == null)
+            return false;
+
+        try {
+            mOutput.close();
+            mOutput = null;
+            return true;
+        } catch (IOException e) {
+            fail(e);
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        closeAndCheck();
+    }
+
+    /**
+     * Writes the given bytes through the buffer.
+     * @param bytes the bytes
+     */
+    private void writeBytes(byte[] bytes) {
+        int offset = 0;
+
+        while (offset < bytes.length) {
+            if (mCount == BUFFER_SIZE)
+                drain();
+
+            int n = Math.min(bytes.length - offset, BUFFER_SIZE - mCount);
+            System.arraycopy(bytes, offset, mBuffer, mCount, n);
+            mCount += n;
+            offset += n;
+        }
+    }
+
+    /** Writes the content of the buffer to the file. */
+    private void drain() {
+        if (mOutput != null && mCount > 0) {
+            try {
+                mOutput.write(mBuffer, 0, mCount);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        mCount = 0;
+    }
+
+    /**
+     * Reports the given error and stops writing.
+     * @param e the error
+     */
+    private void fail(IOException e) {
+        L.error("Error occurred while writing cache file: " + mFile, e);
+
+        try {
+            mOutput.close();
+        } catch (IOException ignored) {}
+
+        mOutput = null;
+    }
+}
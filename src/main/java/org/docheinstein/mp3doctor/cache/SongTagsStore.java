@@ -0,0 +1,616 @@
+package org.docheinstein.mp3doctor.cache;
+
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.commons.utils.CollectionsUtil;
+import org.docheinstein.mp3doctor.song.Song;
+import org.docheinstein.mp3doctor.song.SongFingerprint;
+import org.docheinstein.mp3doctor.song.SongTags;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent store of the tags of the songs of the library.
+ * <p>
+ * The store is a compact binary file, next to the songs cache, made up of
+ * a sequence of records: each record either puts the snapshot of the tags
+ * (and the fingerprint of the file) for a path or removes the snapshot of
+ * a path. The records are only appended, thus the store can be written
+ * incrementally each time the tags of a song are loaded or changed; the
+ * last record of a path wins when the store is read.
+ * <p>
+ * When the records of the paths that have been overwritten or removed
+ * outnumber the live ones, the store is compacted by
+ * {@link #compact(Collection)}.
+ */
+public class SongTagsStore {
+
+    private static final Logger L = Logger.createForClass(SongTagsStore.class);
+
+    /** Identifies the file as a tags store. */
+    private static final int MAGIC = 0x4D503354; // MP3T
+
+    /** Version of the format of the store. */
+    private static final int VERSION = 1;
+
+    /** Type of record that puts the snapshot of a path. */
+    private static final byte RECORD_PUT = 1;
+
+    /** Type of record that removes the snapshot of a path. */
+    private static final byte RECORD_REMOVE = 2;
+
+    /** Flag of a put record that tells that the song has the lyrics. */
+    private static final int FLAG_LYRICS = 1;
+
+    /** Flag of a put record that tells that the song has a cover. */
+    private static final int FLAG_COVER = 1 << 1;
+
+    /**
+     * Flag of a put record that tells that the audio header of the song
+     * has not been loaded; the header fields of the record are empty.
+     */
+    private static final int FLAG_NO_AUDIO_HEADER = 1 << 2;
+
+    /** Rough size of a put record, used for estimate the number of records. */
+    private static final int AVERAGE_RECORD_SIZE = 128;
+
+    /** Size of the buffers used for read and write the store. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Unique instance of this class. */
+    private static final SongTagsStore INSTANCE = new SongTagsStore();
+
+    /**
+     * Returns the unique instance of this class.
+     * @return the unique instance of this class
+     */
+    public static SongTagsStore instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Represents the content of the store for a path: the tags and the
+     * fingerprint of the file at the time those have been read.
+     */
+    public static class Snapshot {
+
+        /** Fingerprint of the file. */
+        private final SongFingerprint mFingerprint;
+
+        /** Tags of the file. */
+        private final SongTags mTags;
+
+        /**
+         * Creates a new snapshot.
+         * @param fingerprint the fingerprint of the file
+         * @param tags the tags of the file
+         */
+        private Snapshot(SongFingerprint fingerprint, SongTags tags) {
+            mFingerprint = fingerprint;
+            mTags = tags;
+        }
+
+        /**
+         * Returns the fingerprint of the file the tags have been read from.
+         * @return the fingerprint
+         */
+        public SongFingerprint getFingerprint() {
+            return mFingerprint;
+        }
+
+        /**
+         * Returns the tags.
+         * @return the tags
+         */
+        public SongTags getTags() {
+            return mTags;
+        }
+    }
+
+    /** Stream used for append the records; opened lazily. */
+    // Guarded by this
+    private DataOutputStream mOutput;
+
+    /** Number of records in the store, live or not. */
+    // Guarded by this
+    private int mRecordCount = 0;
+
+    /** Creates a new store. */
+    private SongTagsStore() {}
+
+    /**
+     * Reads the whole store.
+     * <p>
+     * The file is read at once and the records are decoded directly from
+     * the memory, which is much faster than decode those from a stream.
+     * <p>
+     * If the store ends with a truncated record (e.g. because the application
+     * crashed while writing it), the truncated record is discarded.
+     * @return a map between the paths and their snapshot
+     */
+    public synchronized Map<String, Snapshot> load() {
+        closeOutput();
+
+        File file = getFile();
+
+        if (file.length() == 0) {
+            L.debug("Tags store is empty");
+            return new HashMap<>();
+        }
+
+        byte[] bytes;
+
+        try {
+            bytes = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            L.error("Error occurred while reading tags store", e);
+            return new HashMap<>();
+        }
+
+        // Sized for the expected number of records, avoids the rehashes
+        Map<String, Snapshot> snapshots = new HashMap<>(
+            Math.max(16, bytes.length / AVERAGE_RECORD_SIZE * 4 / 3));
+
+        RecordReader in = new RecordReader(bytes);
+
+        // Length of the records read successfully
+        int validLength = 0;
+        mRecordCount = 0;
+
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                L.warn("Tags store has an unknown format, discarding it");
+            } else {
+                validLength = in.getPosition();
+
+                while (in.hasRemaining()) {
+                    byte type = in.readByte();
+                    String path = in.readUTF();
+
+                    if (type == RECORD_PUT) {
+                        long lastModified = in.readLong();
+                        long size = in.readLong();
+                        int flags = in.readByte();
+
+                        String artist = in.readUTF();
+                        String title = in.readUTF();
+                        String album = in.readUTF();
+                        String year = in.readUTF();
+                        String genre = in.readUTF();
+                        String trackNumber = in.readUTF();
+                        String bitRate = in.readUTF();
+                        String sampleRate = in.readUTF();
+                        String channels = in.readUTF();
+
+                        if ((flags & FLAG_NO_AUDIO_HEADER) != 0)
+                            bitRate = sampleRate = channels = null;
+
+                        snapshots.put(path, new Snapshot(
+                            new SongFingerprint(lastModified, size),
+                            new SongTags(
+                                artist, title, album, year, genre, trackNumber,
+                                (flags & FLAG_LYRICS) != 0, (flags & FLAG_COVER) != 0,
+                                bitRate, sampleRate, channels)
+                        ));
+                    } else if (type == RECORD_REMOVE) {
+                        snapshots.remove(path);
+                    } else {
+                        L.warn("Unknown record type in tags store: " + type);
+                        break;
+                    }
+
+                    validLength = in.getPosition();
+                    mRecordCount++;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            L.warn("Tags store ends with a truncated record, discarding it");
+        }
+
+        // New records can't be appended after a corrupted one
+        if (validLength < bytes.length)
+            truncate(file, validLength);
+
+        L.info("Tags store loaded; records: " + mRecordCount +
+            ", snapshots: " + snapshots.size());
+
+        return snapshots;
+    }
+
+    /**
+     * Appends the current tags of the given song to the store.
+     * <p>
+     * The record is buffered, {@link #flush()} must be called for ensure
+     * it is written to the disk.
+     * @param song the song
+     */
+    public synchronized void put(Song song) {
+        SongFingerprint fingerprint = song.getFingerprint();
+        SongTags tags = song.getTags();
+
+        if (fingerprint == null || tags == null)
+            return;
+
+        try {
+            DataOutputStream out = getOutput();
+            out.writeByte(RECORD_PUT);
+            out.writeUTF(song.getPath());
+            out.writeLong(fingerprint.getLastModified());
+            out.writeLong(fingerprint.getSize());
+            out.writeByte(
+                (tags.hasLyrics() ? FLAG_LYRICS : 0) |
+                (tags.hasCover() ? FLAG_COVER : 0) |
+                (tags.hasAudioHeader() ? 0 : FLAG_NO_AUDIO_HEADER));
+            out.writeUTF(nonNull(tags.getArtist()));
+            out.writeUTF(nonNull(tags.getTitle()));
+            out.writeUTF(nonNull(tags.getAlbum()));
+            out.writeUTF(nonNull(tags.getYear()));
+            out.writeUTF(nonNull(tags.getGenre()));
+            out.writeUTF(nonNull(tags.getTrackNumber()));
+            out.writeUTF(nonNull(tags.getBitRate()));
+            out.writeUTF(nonNull(tags.getSampleRate()));
+            out.writeUTF(nonNull(tags.getChannels()));
+            mRecordCount++;
+        } catch (IOException e) {
+            L.error("Error occurred while writing tags of song: " + song, e);
+        }
+    }
+
+    /**
+     * Appends the current tags of the given songs to the store
+     * and flushes those to the disk.
+     * @param songs the songs
+     */
+    public synchronized void putAll(Collection<? extends Song> songs) {
+        if (!CollectionsUtil.isFilled(songs))
+            return;
+
+        songs.forEach(this::put);
+        flush();
+    }
+
+    /**
+     * Removes the tags of the given songs from the store
+     * and flushes the change to the disk.
+     * @param songs the songs
+     */
+    public synchronized void removeAll(Collection<? extends Song> songs) {
+        if (!CollectionsUtil.isFilled(songs))
+            return;
+
+        try {
+            DataOutputStream out = getOutput();
+            for (Song song : songs) {
+                out.writeByte(RECORD_REMOVE);
+                out.writeUTF(song.getPath());
+                mRecordCount++;
+            }
+        } catch (IOException e) {
+            L.error("Error occurred while removing tags from store", e);
+        }
+
+        flush();
+    }
+
+    /** Writes the buffered records to the disk. */
+    public synchronized void flush() {
+        if (mOutput == null)
+            return;
+
+        try {
+            mOutput.flush();
+        } catch (IOException e) {
+            L.error("Error occurred while flushing tags store", e);
+        }
+    }
+
+    /**
+     * Rewrites the store so that it contains only the tags of the given
+     * songs, if the store contains too many records that are not live anymore.
+     * @param songs the songs of the library
+     */
+    public synchronized void compact(Collection<? extends Song> songs) {
+        int liveCount = 0;
+        for (Song song : songs)
+            if (song.areTagsLoaded())
+                liveCount++;
+
+        if (mRecordCount <= 2 * liveCount) {
+            L.verbose("Tags store doesn't need compaction");
+            return;
+        }
+
+        L.info("Compacting tags store; records: " + mRecordCount + ", live: " + liveCount);
+
+        closeOutput();
+
+        File file = getFile();
+        File tmp = new File(file.getPath() + ".tmp");
+
+        try {
+            mOutput = createOutput(tmp, false);
+            mRecordCount = 0;
+            songs.forEach(this::put);
+            closeOutput();
+
+            try {
+                Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            L.error("Error occurred while compacting tags store", e);
+            closeOutput();
+        }
+    }
+
+    /**
+     * Returns the stream used for append the records, opening it if needed.
+     * @return the output stream
+     * @throws IOException if the store can't be opened
+     */
+    private DataOutputStream getOutput() throws IOException {
+        if (mOutput == null)
+            mOutput = createOutput(getFile(), true);
+        return mOutput;
+    }
+
+    /**
+     * Creates a stream that writes the records to the given file.
+     * @param file the file
+     * @param append whether the records have to be appended to the file
+     * @return the output stream
+     * @throws IOException if the file can't be opened
+     */
+    private static DataOutputStream createOutput(File file, boolean append)
+        throws IOException {
+        boolean writeHeader = !append || file.length() == 0;
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(file, append), BUFFER_SIZE));
+
+        if (writeHeader) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        return out;
+    }
+
+    /** Closes the stream used for append the records, if opened. */
+    private void closeOutput() {
+        if (mOutput == null)
+            return;
+
+        try {
+            mOutput.close();
+        } catch (IOException e) {
+            L.error("Error occurred while closing tags store", e);
+        }
+
+        mOutput = null;
+    }
+
+    /**
+     * Returns the file of the store.
+     * @return the file of the store
+     */
+    private static File getFile() {
+        return CacheHierarchy.instance().getSongTagsEntry().getWrappedFile();
+    }
+
+    /**
+     * Truncates the given file to the given length.
+     * @param file the file
+     * @param length the new length of the file
+     */
+    private static void truncate(File file, long length) {
+        L.warn("Truncating tags store to " + length + " bytes");
+        try (FileChannel channel = FileChannel.open(
+                file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        } catch (IOException e) {
+            L.error("Error occurred while truncating tags store", e);
+        }
+    }
+
+    /**
+     * Returns the given string, or an empty string if it is null.
+     * <p>
+     * Since the tags values are short, those are also truncated so that
+     * they can be encoded by {@link DataOutput#writeUTF(String)}.
+     * @param s a string
+     * @return a non null string
+     */
+    private static String nonNull(String s) {
+        if (s == null)
+            return "";
+        // writeUTF can't encode more than 65535 bytes
+        return s.length() > 16383 ? s.substring(0, 16383) : s;
+    }
+
+    /**
+     * Decoder of the records of the store from a byte array, that is
+     * compatible with the encoding of {@link DataOutputStream}.
+     * <p>
+     * Reading past the end of the array throws an {@link IndexOutOfBoundsException}.
+     */
+    private static class RecordReader {
+
+        /** Size of the cache of the decoded strings; must be a power of 2. */
+        private static final int STRING_CACHE_SIZE = 1 << 14;
+
+        /** Maximum length of a string that can be cached. */
+        private static final int STRING_CACHE_MAX_LENGTH = 64;
+
+        /** Content of the store. */
+        private final byte[] mBytes;
+
+        /** Position of the next byte to read. */
+        private int mPosition = 0;
+
+        /** Buffer reused for decode the non ASCII strings. */
+        private char[] mChars = new char[256];
+
+        /**
+         * Cache of the last decoded short ASCII strings, indexed by the hash
+         * of their bytes.
+         * <p>
+         * Artists, albums, genres and headers repeat across the whole
+         * library: the cache avoids to allocate the same string over and over
+         * and makes the restored songs share the same instances.
+         */
+        private final String[] mStringCache = new String[STRING_CACHE_SIZE];
+
+        /**
+         * Creates a new reader for the given content.
+         * @param bytes the content of the store
+         */
+        private RecordReader(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        /**
+         * Returns the position of the next byte to read.
+         * @return the position
+         */
+        private int getPosition() {
+            return mPosition;
+        }
+
+        /**
+         * Returns whether there are bytes left to read.
+         * @return whether there are bytes left to read
+         */
+        private boolean hasRemaining() {
+            return mPosition < mBytes.length;
+        }
+
+        /**
+         * Reads a byte.
+         * @return the byte
+         */
+        private byte readByte() {
+            return mBytes[mPosition++];
+        }
+
+        /**
+         * Reads a big endian int.
+         * @return the int
+         */
+        private int readInt() {
+            checkRemaining(4);
+            int v = ((mBytes[mPosition] & 0xFF) << 24) |
+                    ((mBytes[mPosition + 1] & 0xFF) << 16) |
+                    ((mBytes[mPosition + 2] & 0xFF) << 8) |
+                    (mBytes[mPosition + 3] & 0xFF);
+            mPosition += 4;
+            return v;
+        }
+
+        /**
+         * Reads a big endian long.
+         * @return the long
+         */
+        private long readLong() {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        /**
+         * Reads a string encoded by {@link DataOutputStream#writeUTF(String)}.
+         * @return the string
+         */
+        private String readUTF() {
+            checkRemaining(2);
+            int length = ((mBytes[mPosition] & 0xFF) << 8) | (mBytes[mPosition + 1] & 0xFF);
+            mPosition += 2;
+            checkRemaining(length);
+
+            int start = mPosition;
+            int end = start + length;
+
+            // Fast path: most of the tags are plain ASCII
+            int i = start;
+            while (i < end && mBytes[i] > 0)
+                i++;
+
+            if (i == end) {
+                mPosition = end;
+                return length <= STRING_CACHE_MAX_LENGTH ?
+                    decodeCachedASCII(start, length) :
+                    new String(mBytes, start, length, StandardCharsets.ISO_8859_1);
+            }
+
+            if (mChars.length < length)
+                mChars = new char[length];
+
+            int charCount = 0;
+            i = start;
+
+            while (i < end) {
+                int c = mBytes[i] & 0xFF;
+
+                if (c < 0x80) {
+                    mChars[charCount++] = (char) c;
+                    i++;
+                } else if ((c & 0xE0) == 0xC0) {
+                    mChars[charCount++] = (char) (((c & 0x1F) << 6) | (mBytes[i + 1] & 0x3F));
+                    i += 2;
+                } else {
+                    mChars[charCount++] = (char) (((c & 0x0F) << 12) |
+                        ((mBytes[i + 1] & 0x3F) << 6) | (mBytes[i + 2] & 0x3F));
+                    i += 3;
+                }
+            }
+
+            mPosition = end;
+            return new String(mChars, 0, charCount);
+        }
+
+        /**
+         * Returns the ASCII string encoded by the given bytes, taking it
+         * from the cache if it has already been decoded.
+         * @param start the position of the first byte of the string
+         * @param length the number of bytes of the string
+         * @return the string
+         */
+        private String decodeCachedASCII(int start, int length) {
+            int hash = length;
+            for (int i = start; i < start + length; i++)
+                hash = 31 * hash + mBytes[i];
+
+            int slot = (hash ^ (hash >>> 16)) & (STRING_CACHE_SIZE - 1);
+            String cached = mStringCache[slot];
+
+            if (cached != null && cached.length() == length) {
+                int i = 0;
+                while (i < length && cached.charAt(i) == mBytes[start + i])
+                    i++;
+                if (i == length)
+                    return cached;
+            }
+
+            String s = new String(mBytes, start, length, StandardCharsets.ISO_8859_1);
+            mStringCache[slot] = s;
+            return s;
+        }
+
+        /**
+         * Ensures that at least the given amount of bytes can be read.
+         * @param count the number of bytes
+         */
+        private void checkRemaining(int count) {
+            if (mPosition + count > mBytes.length)
+                throw new IndexOutOfBoundsException("Truncated record");
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package org.docheinstein.mp3doctor.cache;
+
+import org.docheinstein.mp3doctor.commons.constants.Config;
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.commons.utils.CollectionsUtil;
+import org.docheinstein.mp3doctor.commons.utils.ThreadUtil;
+import org.docheinstein.mp3doctor.song.Song;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent list of the paths of the songs of the library.
+ * <p>
+ * The list is made up of a snapshot, the songs cache, which contains a
+ * path per line, and of a journal of the songs added to and removed from
+ * the library since the snapshot has been written; the journal contains
+ * a record per line, made up of {@link #RECORD_ADD} or {@link #RECORD_REMOVE}
+ * followed by the path.
+ * <p>
+ * The records written together are followed by a {@link #RECORD_COMMIT}
+ * line and are replayed only if it is there, thus each commit is applied
+ * atomically, either entirely or not at all.
+ * <p>
+ * The records are not written immediately: those are buffered and
+ * appended to the journal together (and synced to the disk) at most
+ * {@link Config.Library#SONGS_JOURNAL_COMMIT_MILLIS} after the first one,
+ * or as soon as {@link Config.Library#SONGS_JOURNAL_COMMIT_SIZE} records
+ * are buffered; thus a crash loses at most the last commit window.
+ * <p>
+ * When the journal grows too much, it is merged into a new snapshot
+ * (see {@link #compact(Collection)}). Every write happens on the thread
+ * of the journal, in order; since the thread doesn't prevent the application
+ * from exiting, the journal must be closed (see {@link #close()}) before.
+ */
+public class SongsJournal {
+
+    private static final Logger L = Logger.createForClass(SongsJournal.class);
+
+    /** Prefix of a record that adds a path. */
+    private static final char RECORD_ADD = '+';
+
+    /** Prefix of a record that removes a path. */
+    private static final char RECORD_REMOVE = '-';
+
+    /** Record that terminates the records written together. */
+    private static final String RECORD_COMMIT = "=";
+
+    /** Unique instance of this class. */
+    private static final SongsJournal INSTANCE = new SongsJournal();
+
+    /**
+     * Returns the unique instance of this class.
+     * @return the unique instance of this class
+     */
+    public static SongsJournal instance() {
+        return INSTANCE;
+    }
+
+    /** Thread that writes the journal and the snapshots. */
+    private final ScheduledExecutorService mWriter =
+        Executors.newSingleThreadScheduledExecutor(
+            ThreadUtil.daemonThreadFactory("songs-journal"));
+
+    /** Records not committed yet. */
+    // Guarded by this
+    private List<String> mPendingRecords = new ArrayList<>();
+
+    /** Paths of the snapshot that has to be written, or null if none. */
+    // Guarded by this
+    private List<String> mPendingSnapshot;
+
+    /**
+     * Records not committed yet that are reflected by the pending snapshot;
+     * those are kept till the snapshot is in place, so that those can be
+     * appended to the journal if the snapshot can't be written.
+     */
+    // Guarded by this
+    private List<String> mSnapshotRecords = new ArrayList<>();
+
+    /**
+     * Number of records reflected by the snapshot being written, either
+     * committed or not, or 0 if no snapshot is being written.
+     */
+    // Guarded by this
+    private int mSnapshotRecordCount = 0;
+
+    /** Whether a commit has been scheduled. */
+    // Guarded by this
+    private boolean mCommitScheduled = false;
+
+    /** Number of records in the journal, either committed or not. */
+    // Guarded by this
+    private int mRecordCount = 0;
+
+    /** Whether the journal has been closed. */
+    // Guarded by this
+    private boolean mClosed = false;
+
+    /** Creates the journal. */
+    private SongsJournal() {}
+
+    /**
+     * Reads the snapshot and replays the journal over it.
+     * <p>
+     * The records of a commit that has been interrupted by a crash,
+     * at the end of the journal, are ignored.
+     * @return the paths of the songs of the library, in order of addition
+     */
+    public synchronized Collection<String> load() {
+        Set<String> paths = new LinkedHashSet<>();
+
+        CacheReader snapshotReader = CacheReader.open(getSnapshotFile());
+
+        if (snapshotReader != null) {
+            String line;
+            while ((line = snapshotReader.readLine()) != null) {
+                if (!line.isEmpty())
+                    paths.add(line);
+            }
+
+            snapshotReader.close();
+        }
+
+        int snapshotSize = paths.size();
+        int recordCount = 0;
+
+        CacheReader journalReader = CacheReader.open(getJournalFile());
+
+        if (journalReader != null) {
+            // Records of the commit being read, applied when it is complete
+            List<String> commitRecords = new ArrayList<>();
+
+            String line;
+            while ((line = journalReader.readLine()) != null) {
+                if (!journalReader.isLineTerminated())
+                    break;
+
+                if (line.equals(RECORD_COMMIT)) {
+                    recordCount += replay(commitRecords, paths);
+                    commitRecords.clear();
+                }
+                else if (!line.isEmpty()) {
+                    commitRecords.add(line);
+                }
+            }
+
+            if (!commitRecords.isEmpty() || !journalReader.isLineTerminated())
+                L.warn("Ignoring incomplete commit at the end of songs journal");
+
+            journalReader.close();
+        }
+
+        mRecordCount = recordCount;
+
+        L.debug("Songs snapshot size: " + snapshotSize +
+            "; replayed journal records: " + recordCount);
+
+        return paths;
+    }
+
+    /**
+     * Applies the given records to the given paths.
+     * @param records the records
+     * @param paths the paths
+     * @return the number of valid records
+     */
+    private static int replay(List<String> records, Set<String> paths) {
+        int recordCount = 0;
+
+        for (String record : records) {
+            char type = record.charAt(0);
+            String path = record.substring(1);
+
+            if (type == RECORD_ADD)
+                paths.add(path);
+            else if (type == RECORD_REMOVE)
+                paths.remove(path);
+            else {
+                L.warn("Skipping invalid songs journal record");
+                continue;
+            }
+
+            recordCount++;
+        }
+
+        return recordCount;
+    }
+
+    /**
+     * Records the addition of the given songs.
+     * @param songs the songs added to the library
+     */
+    public void add(Collection<? extends Song> songs) {
+        append(RECORD_ADD, songs);
+    }
+
+    /**
+     * Records the removal of the given songs.
+     * @param songs the songs removed from the library
+     */
+    public void remove(Collection<? extends Song> songs) {
+        append(RECORD_REMOVE, songs);
+    }
+
+    /**
+     * Returns whether the journal should be merged into a new snapshot,
+     * that is when its records outnumber the songs of the library.
+     * @param songCount the number of songs of the library
+     * @return whether {@link #compact(Collection)} should be called
+     */
+    public synchronized boolean needsCompaction(int songCount) {
+        // A compaction is already in progress
+        if (mSnapshotRecordCount > 0)
+            return false;
+
+        return mRecordCount > Math.max(songCount, Config.Library.SONGS_JOURNAL_MIN_COMPACTION_SIZE);
+    }
+
+    /**
+     * Writes, in background, a new snapshot made up of the given songs and
+     * empties the journal.
+     * <p>
+     * The given songs must reflect every record added so far; those records
+     * are forgotten only when the snapshot is in place.
+     * @param songs the songs of the library
+     */
+    public void compact(Collection<? extends Song> songs) {
+        // Copied in the calling thread, since the list can't be
+        // accessed from the writer
+        List<String> paths = new ArrayList<>(songs.size());
+        songs.forEach(s -> paths.add(s.getPath()));
+
+        synchronized (this) {
+            L.info("Compacting songs journal; records: " + mRecordCount +
+                ", songs: " + paths.size());
+
+            // The records buffered so far are already part of the snapshot,
+            // but are still needed if the snapshot can't be written
+            mPendingSnapshot = paths;
+            mSnapshotRecords.addAll(mPendingRecords);
+            mSnapshotRecordCount = mRecordCount;
+            mPendingRecords = new ArrayList<>();
+
+            scheduleCommit(0);
+        }
+    }
+
+    /**
+     * Commits the pending records (and the pending snapshot, if any) without
+     * delay and waits till those have been written.
+     */
+    public void flush() {
+        Future<?> commit;
+
+        synchronized (this) {
+            if (mClosed)
+                return;
+
+            commit = mWriter.submit(this::commit);
+        }
+
+        awaitCommit(commit);
+    }
+
+    /**
+     * Commits the pending records (and the pending snapshot, if any), waits
+     * till those have been written and stops the thread of the journal.
+     * <p>
+     * The records added afterwards are not written anymore.
+     */
+    public void close() {
+        Future<?> commit;
+
+        synchronized (this) {
+            if (mClosed)
+                return;
+
+            L.debug("Closing songs journal");
+
+            // Nothing can be scheduled after the last commit
+            mClosed = true;
+            commit = mWriter.submit(this::commit);
+        }
+
+        mWriter.shutdown();
+        awaitCommit(commit);
+    }
+
+    /**
+     * Waits till the given commit has been done.
+     * @param commit the commit
+     */
+    private static void awaitCommit(Future<?> commit) {
+        try {
+            commit.get();
+        } catch (InterruptedException e) {
+            L.warn("Interrupted while waiting the songs journal commit", e);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            L.error("Error occurred while committing songs journal", e);
+        }
+    }
+
+    /**
+     * Buffers a record of the given type for each given song.
+     * @param type the type of the records
+     * @param songs the songs
+     */
+    private void append(char type, Collection<? extends Song> songs) {
+        if (!CollectionsUtil.isFilled(songs))
+            return;
+
+        synchronized (this) {
+            for (Song song : songs)
+                mPendingRecords.add(type + song.getPath());
+
+            mRecordCount += songs.size();
+
+            scheduleCommit(
+                mPendingRecords.size() >= Config.Library.SONGS_JOURNAL_COMMIT_SIZE ?
+                    0 : Config.Library.SONGS_JOURNAL_COMMIT_MILLIS);
+        }
+    }
+
+    /**
+     * Schedules a commit after the given delay, unless a commit is already
+     * scheduled; a commit without delay is always scheduled.
+     * @param delayMillis the delay of the commit
+     */
+    private synchronized void scheduleCommit(long delayMillis) {
+        if (mClosed) {
+            L.warn("Songs journal has been closed, records won't be written");
+            return;
+        }
+
+        if (mCommitScheduled && delayMillis > 0)
+            return;
+
+        mCommitScheduled = true;
+        mWriter.schedule(this::commit, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the pending snapshot, if any, and appends the pending
+     * records to the journal.
+     */
+    private void commit() {
+        List<String> snapshot;
+        List<String> snapshotRecords;
+        int snapshotRecordCount;
+        List<String> records;
+
+        // Taken together, so that the records can't be written
+        // to a journal that is about to be emptied
+        synchronized (this) {
+            snapshot = mPendingSnapshot;
+            snapshotRecords = mSnapshotRecords;
+            snapshotRecordCount = mSnapshotRecordCount;
+            records = mPendingRecords;
+
+            mPendingSnapshot = null;
+            mSnapshotRecords = new ArrayList<>();
+            mPendingRecords = new ArrayList<>();
+            mCommitScheduled = false;
+        }
+
+        if (snapshot != null) {
+            boolean written = writeSnapshot(snapshot);
+
+            synchronized (this) {
+                if (written)
+                    mRecordCount -= snapshotRecordCount;
+                mSnapshotRecordCount = 0;
+            }
+
+            if (!written) {
+                // The journal is kept, thus it still needs the records
+                // reflected by the snapshot, which come first
+                snapshotRecords.addAll(records);
+                records = snapshotRecords;
+            }
+        }
+
+        if (records.isEmpty())
+            return;
+
+        L.verbose("Committing " + records.size() + " songs journal records");
+
+        CacheWriter writer = CacheWriter.open(getJournalFile(), true);
+
+        if (writer == null)
+            return;
+
+        records.forEach(writer::writeLine);
+        writer.writeLine(RECORD_COMMIT);
+
+        if (!writer.sync())
+            L.error("Songs journal records might have been lost");
+
+        writer.close();
+    }
+
+    /**
+     * Replaces the snapshot with the given paths and empties the journal.
+     * @param paths the paths of the snapshot
+     * @return whether the snapshot has been replaced; if not, the journal
+     *         is kept as well
+     */
+    private boolean writeSnapshot(List<String> paths) {
+        File snapshotFile = getSnapshotFile();
+        File tmp = new File(snapshotFile.getPath() + ".tmp");
+
+        CacheWriter writer = CacheWriter.open(tmp, false);
+
+        if (writer == null)
+            return false;
+
+        paths.forEach(writer::writeLine);
+
+        if (!writer.sync() || !writer.closeAndCheck()) {
+            L.error("Songs snapshot can't be written, keeping the journal");
+            return false;
+        }
+
+        try {
+            try {
+                Files.move(tmp.toPath(), snapshotFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            L.error("Error occurred while writing songs snapshot, keeping the journal", e);
+            return false;
+        }
+
+        try {
+            new FileOutputStream(getJournalFile()).close();
+        } catch (IOException e) {
+            // The journal is replayed over the new snapshot, which is
+            // harmless since the snapshot already reflects every record
+            L.error("Error occurred while emptying songs journal", e);
+        }
+
+        L.debug("Songs snapshot written; songs: " + paths.size());
+
+        return true;
+    }
+
+    /**
+     * Returns the file of the snapshot.
+     * @return the file of the snapshot
+     */
+    private static File getSnapshotFile() {
+        return CacheHierarchy.instance().getSongsEntry().getWrappedFile();
+    }
+
+    /**
+     * Returns the file of the journal.
+     * @return the file of the journal
+     */
+    private static File getJournalFile() {
+        return CacheHierarchy.instance().getSongsJournalEntry().getWrappedFile();
+    }
+}
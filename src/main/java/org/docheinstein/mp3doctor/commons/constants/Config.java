@@ -24,7 +24,11 @@ public class Config {
             public static final String ROOT_PATH = ".";
             public static final String ROOT_FOLDER_NAME = "mp3doctor";
             public static final String SONGS_FOLDER_NAME = "songs";
+            public static final String SONGS_JOURNAL_FILE_NAME = "songs_journal";
+            public static final String SONG_TAGS_FILE_NAME = "song_tags";
+            public static final String LIBRARY_ROOTS_FILE_NAME = "library_roots";
             public static final String PLAYLISTS_FOLDER_NAME = "playlists";
+            public static final String SMART_PLAYLISTS_FILE_NAME = "smart_playlists";
             public static final String ARTISTS_FOLDER_NAME = "artists";
 
         }
@@ -37,6 +41,69 @@ public class Config {
         }
     }
 
+    /** Contains the tuning of the songs library. */
+    public static class Library {
+        /** Number of threads used for walk the imported directories. */
+        public static final int WALKER_PARALLELISM =
+            Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+        /** Maximum number of songs added to the library at once while importing. */
+        public static final int IMPORT_CHUNK_SIZE = 1000;
+
+        /** Number of threads used for load the tags of the songs. */
+        public static final int TAGS_LOADER_WORKERS =
+            Math.max(2, Runtime.getRuntime().availableProcessors());
+
+        /**
+         * Time without file system events after which the changes to the
+         * library's directories are applied.
+         */
+        public static final long WATCHER_QUIET_PERIOD_MILLIS = 500;
+
+        /**
+         * Maximum time the changes to the library's directories are held
+         * while the events keep coming.
+         */
+        public static final long WATCHER_MAX_DELAY_MILLIS = 5000;
+
+        /**
+         * Maximum time the changes to the songs list are buffered before
+         * being committed to the songs journal.
+         */
+        public static final long SONGS_JOURNAL_COMMIT_MILLIS = 500;
+
+        /** Number of buffered records that triggers a commit of the songs journal. */
+        public static final int SONGS_JOURNAL_COMMIT_SIZE = 4096;
+
+        /** Number of records below which the songs journal is never compacted. */
+        public static final int SONGS_JOURNAL_MIN_COMPACTION_SIZE = 10000;
+
+        /** Number of stale entries below which the search index is never compacted. */
+        public static final int SEARCH_INDEX_MIN_COMPACTION_SIZE = 10000;
+
+        /** Length of the words of a typo tolerant search from which one edit is tolerated. */
+        public static final int SEARCH_ONE_EDIT_MIN_WORD_LENGTH = 4;
+
+        /** Length of the words of a typo tolerant search from which two edits are tolerated. */
+        public static final int SEARCH_TWO_EDITS_MIN_WORD_LENGTH = 8;
+    }
+
+    /** Contains the tuning of the playlists. */
+    public static class Playlists {
+        /**
+         * Fraction of the heap still in use after a garbage collection
+         * above which the songs of the playlists that are not in use
+         * are released.
+         */
+        public static final double RELEASE_HEAP_USAGE_THRESHOLD = 0.8;
+
+        /**
+         * Number of superfluous lines of the file of a playlist
+         * below which the file is never rewritten.
+         */
+        public static final int MIN_COMPACTION_LINES = 1000;
+    }
+
     /** Contains common user interface preference s */
     public static class UI {
         public static final int MIN_WIDTH = 600;
@@ -49,5 +116,11 @@ public class Config {
         public static final Image DEFAULT_COVER_IMAGE =
             FXUtil.createImage(Config.class, "unknown-cover.jpg");
 
+        /** Interval between the refreshes of the progress of the imports. */
+        public static final long IMPORT_PROGRESS_REFRESH_MILLIS = 500;
+
+        /** Time without keystrokes in the search bar after which the songs are searched. */
+        public static final long SEARCH_DEBOUNCE_MILLIS = 150;
+
     }
 }
@@ -3,6 +3,7 @@ package org.docheinstein.mp3doctor.commons.utils;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.text.Normalizer;
 
 /** Contains utilities for strings. */
 public class StringUtil {
@@ -47,14 +48,58 @@ public class StringUtil {
     }
 
     /**
-     * Returns whether a string contains another string without
-     * evaluating the case of those.
-     * @param outer the outer string
-     * @param inner the inner string which must be contained inside the outer
-     * @return whether the outer string contains the inner string, case insensitive
+     * Returns the search key of the given string, that is the string case
+     * folded and without accents (e.g. "Beyonc&eacute;" becomes "beyonce").
+     * <p>
+     * The search keys are meant to be computed once and then compared
+     * without allocating.
+     * @param s a string
+     * @return the search key of the string, or null if the string is null
      */
-    public static boolean containsIgnoreCase(String outer, String inner) {
-        return outer.toLowerCase().contains(inner.toLowerCase());
+    public static String toSearchKey(String s) {
+        if (s == null)
+            return null;
+
+        // Plain lower case ASCII is already a key, which is the common case
+        boolean isKey = true;
+
+        for (int i = 0; i < s.length() && isKey; i++) {
+            char c = s.charAt(i);
+            isKey = c < 0x80 && (c < 'A' || c > 'Z');
+        }
+
+        if (isKey)
+            return s;
+
+        // Splits the accented letters into the base letter and the accents
+        String decomposed = Normalizer.normalize(s, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+
+        for (int i = 0; i < decomposed.length(); ) {
+            int c = decomposed.codePointAt(i);
+            i += Character.charCount(c);
+
+            if (Character.getType(c) == Character.NON_SPACING_MARK)
+                continue;
+
+            // Upper then lower case, so that the variants of the same letter
+            // (e.g. the final sigma) are folded together
+            c = Character.toLowerCase(Character.toUpperCase(c));
+
+            // Letters that don't decompose
+            switch (c) {
+                case '\u00DF': sb.append("ss"); break; // sharp s
+                case '\u00E6': sb.append("ae"); break; // ae
+                case '\u0153': sb.append("oe"); break; // oe
+                case '\u00F8': sb.append('o'); break;  // o with stroke
+                case '\u0142': sb.append('l'); break;  // l with stroke
+                case '\u0111': sb.append('d'); break;  // d with stroke
+                case '\u0131': sb.append('i'); break;  // dotless i
+                default: sb.appendCodePoint(c);
+            }
+        }
+
+        return sb.toString();
     }
 
     /**
@@ -0,0 +1,24 @@
+package org.docheinstein.mp3doctor.commons.utils;
+
+import java.util.concurrent.ThreadFactory;
+
+/** Contains utilities for threads. */
+public class ThreadUtil {
+
+    /**
+     * Returns a factory of daemon threads with the given name, which don't
+     * prevent the application from exiting.
+     * <p>
+     * This is meant for the background workers (e.g. executors) that
+     * don't have to be stopped explicitly.
+     * @param name the name of the created threads
+     * @return the thread factory
+     */
+    public static ThreadFactory daemonThreadFactory(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -3,29 +3,41 @@ package org.docheinstein.mp3doctor.playlist;
 import javafx.application.Platform;
 import javafx.beans.InvalidationListener;
 import javafx.beans.Observable;
+import javafx.collections.ObservableList;
+import org.docheinstein.mp3doctor.cache.CacheReader;
+import org.docheinstein.mp3doctor.cache.CacheWriter;
+import org.docheinstein.mp3doctor.commons.constants.Config;
 import org.docheinstein.mp3doctor.commons.logger.Logger;
 import org.docheinstein.mp3doctor.commons.adt.FileWrapper;
 import org.docheinstein.mp3doctor.commons.adt.ObservableListListener;
 import org.docheinstein.mp3doctor.commons.adt.ObservableListManager;
 import org.docheinstein.mp3doctor.commons.utils.Asserts;
-import org.docheinstein.mp3doctor.commons.utils.CollectionsUtil;
 import org.docheinstein.mp3doctor.commons.utils.FileUtil;
 import org.docheinstein.mp3doctor.song.Song;
 import org.docheinstein.mp3doctor.song.SongsManager;
 import org.docheinstein.mp3doctor.ui.commons.alert.AlertInstance;
 
 import java.io.File;
-import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.stream.Collectors;
 
 /**
  * Represents a playlist, which essentially is a list of song with a name.
  * <p>
+ * A playlist starts out as a descriptor that knows only its name and the
+ * number of entries of its file: the songs are resolved from the file
+ * the first time the list is requested via {@link #getList()} (e.g. when
+ * the playlist is shown or queued) and can be released again via
+ * {@link #unload()} when the playlist is not in use, that is when it
+ * hasn't been retained via {@link #retain()}.
+ * <p>
+ * The songs are kept in the order they have been added and each song
+ * appears just once. The file of the playlist contains the path of each
+ * song, one per line, in order; the changes are appended to it instead of
+ * rewriting it: an added song is appended as a path, a removed one as
+ * a {@link #RECORD_REMOVE} followed by the path. The file is rewritten
+ * only when such records outnumber the songs of the playlist.
+ * <p>
  * This class implements the {@link Observable} interface which makes it easy
  * to be listened for changes and the {@link FileWrapper} interface since a
  * playlist is mapped to a custom file on the disk.
@@ -36,6 +48,9 @@ public class Playlist
 
     private static final Logger L = Logger.createForClass(Playlist.class);
 
+    /** Prefix of a line of the file that removes a path. */
+    private static final char RECORD_REMOVE = '-';
+
     /** Name of the playlist. */
     private final String mName;
 
@@ -45,8 +60,31 @@ public class Playlist
     /** Listeners of the changes of the playlist. */
     private final Set<InvalidationListener> mListeners = new CopyOnWriteArraySet<>();
 
+    /** Songs of the playlist, for check whether a song belongs to it. */
+    // Accessed only from the JavaFX thread
+    private final Set<Song> mSongSet = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** Number of lines of the file of the playlist, once loaded. */
+    // Accessed only from the JavaFX thread
+    private int mFileLineCount = 0;
+
+    /** Whether the songs of the playlist have been resolved from its file. */
+    // Accessed only from the JavaFX thread
+    private boolean mLoaded = false;
+
+    /** Number of songs of the playlist, known even if it is not loaded. */
+    // Accessed only from the JavaFX thread
+    private int mSongCount;
+
+    /** Number of users that need the songs of the playlist to stay loaded. */
+    // Accessed only from the JavaFX thread
+    private int mRetainCount = 0;
+
     /**
      * Creates a new playlist and maps it to a custom file on the disk.
+     * <p>
+     * The songs are not loaded until needed; only the entries of the
+     * file are counted.
      * @param playlistFile the underlying file where the playlist details should
      *                     be saved to
      */
@@ -59,10 +97,9 @@ public class Playlist
         mFile = playlistFile;
         mName = FileUtil.getFileNameWithoutExtension(mFile);
 
-        loadPlaylistFromCache();
+        mSongCount = countPlaylistEntries();
 
-        // Already done in loadPlaylistFromCache
-        // startListObservation();
+        startListObservation();
 
         SongsManager.instance().addListener(new ObservableListListener<Song>() {
             @Override
@@ -73,11 +110,24 @@ public class Playlist
 
             @Override
             public void onElementsRemoved(List<? extends Song> songs) {
+                // A playlist that is not loaded is cleaned up when loaded
+                if (!mLoaded)
+                    return;
+
                 // Ensure that the songs in the playlist exist in the library
-                // by reloading the playlist
+                Set<Song> removedSongs = Collections.newSetFromMap(new IdentityHashMap<>());
+
+                for (Song song : songs) {
+                    if (mSongSet.contains(song))
+                        removedSongs.add(song);
+                }
+
+                if (removedSongs.isEmpty())
+                    return;
+
                 L.debug("Some songs in the SongsManager have been removed:" +
-                    " the playlist is going to be reloaded from its file");
-                loadPlaylistFromCache();
+                    " removing those from the playlist too, # " + removedSongs.size());
+                mList.removeIf(removedSongs::contains);
             }
         });
     }
@@ -91,6 +141,112 @@ public class Playlist
         return mName;
     }
 
+    /**
+     * Returns the songs of the playlist, loading those from the file
+     * of the playlist if they are not loaded.
+     * @return the list of the songs
+     */
+    @Override
+    public ObservableList<Song> getList() {
+        if (!mLoaded)
+            loadPlaylistFromCache();
+        return mList;
+    }
+
+    /**
+     * Appends the given songs to the playlist, skipping the ones that
+     * already belong to it.
+     * @param songs the songs to add
+     * @return the number of songs actually added
+     */
+    public int addSongs(Collection<? extends Song> songs) {
+        Asserts.assertNotNull(songs, "Can't add null songs to a playlist", L);
+
+        List<Song> newSongs = new ArrayList<>();
+        Set<Song> newSongSet = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (Song song : songs) {
+            if (song != null && !getSongSet().contains(song) && newSongSet.add(song))
+                newSongs.add(song);
+        }
+
+        if (!newSongs.isEmpty())
+            mList.addAll(newSongs);
+
+        return newSongs.size();
+    }
+
+    /**
+     * Returns the number of songs of the playlist without loading those.
+     * <p>
+     * For a playlist that is not loaded this is the number of lines
+     * of its file, which might include songs not in library anymore and
+     * removals not compacted yet.
+     * @return the number of songs
+     */
+    public int getSongCount() {
+        return mLoaded ? mList.size() : mSongCount;
+    }
+
+    /**
+     * Returns whether the songs of the playlist are loaded.
+     * @return whether the playlist is loaded
+     */
+    public boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * Marks the playlist as in use, so that it is not released by
+     * {@link #unload()}, and loads its songs.
+     * <p>
+     * Each call must be balanced by a call to {@link #release()}.
+     */
+    public void retain() {
+        mRetainCount++;
+        getList();
+    }
+
+    /**
+     * Marks the playlist as no longer in use by a user that
+     * previously called {@link #retain()}.
+     */
+    public void release() {
+        if (mRetainCount <= 0) {
+            L.warn("Releasing playlist " + mName + " that is not retained");
+            return;
+        }
+
+        mRetainCount--;
+    }
+
+    /**
+     * Releases the songs of the playlist, if it is not in use; those will
+     * be loaded again from its file when needed.
+     * @return whether the playlist has been unloaded
+     */
+    boolean unload() {
+        if (!mLoaded || mRetainCount > 0)
+            return false;
+
+        L.debug("Unloading playlist " + mName);
+
+        // Leave a file whose lines can be counted
+        if (mFileLineCount != mList.size())
+            savePlaylistToCache();
+
+        mSongCount = mList.size();
+
+        stopListObservation();
+        mList.clear();
+        mSongSet.clear();
+        startListObservation();
+
+        mLoaded = false;
+
+        return true;
+    }
+
     @Override
     public String toString() {
         return mName;
@@ -114,28 +270,55 @@ public class Playlist
 
     @Override
     public void onElementsAdded(List<? extends Song> songs) {
-        L.debug("Detected playlist change: added songs. Removing duplicates and saving to cache");
+        L.debug("Detected playlist change: added songs. Appending those to cache");
+
+        List<String> lines = new ArrayList<>(songs.size());
+        int duplicatedSongCount = 0;
+
+        for (Song song : songs) {
+            if (mSongSet.add(song))
+                lines.add(song.getPath());
+            else
+                duplicatedSongCount++;
+        }
+
+        appendToPlaylistFile(lines);
+
+        if (duplicatedSongCount == 0) {
+            mListeners.forEach(l -> l.invalidated(this));
+            return;
+        }
+
+        // Songs added directly to the list, instead of via addSongs()
 
         // Modification to the list can't be done on change, these must be done
         // using Platform.runLater: https://bugs.openjdk.java.net/browse/JDK-8088022
-        Platform.runLater(() -> {
-            int listSize = mList.size();
-            CollectionsUtil.sortAndRemoveDuplicates(mList, Song::compareTo);
-            int duplicatedSongCount = listSize - mList.size();
-            if (duplicatedSongCount > 0) {
-                L.warn("Duplicated songs have been found, those have been skipped");
-                AlertInstance.DuplicatedSongs.show(duplicatedSongCount);
-            }
+        L.warn("Duplicated songs have been found, those will be skipped");
 
-            savePlaylistToCache();
+        Platform.runLater(() -> {
+            removeDuplicatedSongs();
             mListeners.forEach(l -> l.invalidated(this));
         });
     }
 
     @Override
     public void onElementsRemoved(List<? extends Song> songs) {
-        L.debug("Detected playlist change: removed songs. Saving to cache");
-        savePlaylistToCache();
+        L.debug("Detected playlist change: removed songs. Appending those to cache");
+
+        List<String> lines = new ArrayList<>(songs.size());
+
+        for (Song song : songs) {
+            if (mSongSet.remove(song))
+                lines.add(RECORD_REMOVE + song.getPath());
+        }
+
+        // The removals and the entries they cancel are just waste
+        if (mFileLineCount + lines.size() - mList.size() >
+                Math.max(mList.size(), Config.Playlists.MIN_COMPACTION_LINES))
+            savePlaylistToCache();
+        else
+            appendToPlaylistFile(lines);
+
         mListeners.forEach(l -> l.invalidated(this));
     }
 
@@ -144,6 +327,62 @@ public class Playlist
         L.debug("Detected playlist change: modified songs. Doing nothing");
     }
 
+    /**
+     * Returns the set of the songs of the playlist, loading those if needed.
+     * @return the set of the songs
+     */
+    private Set<Song> getSongSet() {
+        getList();
+        return mSongSet;
+    }
+
+    /**
+     * Removes the further occurrences of the songs that appear more than
+     * once in the list, keeping the first one in place.
+     * <p>
+     * The file of the playlist is not touched since it never contains
+     * the duplicates.
+     */
+    private void removeDuplicatedSongs() {
+        Set<Song> seenSongs = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Song> uniqueSongs = new ArrayList<>(mList.size());
+
+        for (Song song : mList) {
+            if (seenSongs.add(song))
+                uniqueSongs.add(song);
+        }
+
+        int duplicatedSongCount = mList.size() - uniqueSongs.size();
+
+        if (duplicatedSongCount == 0)
+            return;
+
+        stopListObservation();
+        mList.setAll(uniqueSongs);
+        startListObservation();
+
+        AlertInstance.DuplicatedSongs.show(duplicatedSongCount);
+    }
+
+    /**
+     * Counts the entries of the playlist's file, without resolving those.
+     * @return the number of entries
+     */
+    private int countPlaylistEntries() {
+        CacheReader reader = CacheReader.open(mFile);
+
+        if (reader == null) {
+            L.error("Can't initialize a valid reader for file: " + mFile.getName());
+            return 0;
+        }
+
+        int entryCount = reader.countLines();
+
+        reader.close();
+
+        return entryCount;
+    }
+
     /**
      * Loads the playlist's songs from the cache by
      * parsing the underlying file and adding a song for each entry.
@@ -163,51 +402,79 @@ public class Playlist
             return;
         }
 
-        Scanner scanner = FileUtil.getScanner(mFile);
+        CacheReader reader = CacheReader.open(mFile);
 
-        if (scanner == null) {
-            L.error("Can't initialize a valid scanner for file: " + mFile.getName());
+        if (reader == null) {
+            L.error("Can't initialize a valid reader for file: " + mFile.getName());
             return;
         }
 
-        List<File> playlistSongList = new ArrayList<>();
+        // Paths of the playlist, in order, with the removals applied
+        Set<String> songPaths = new LinkedHashSet<>();
+        int lineCount = 0;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty())
+                continue;
 
-        while (scanner.hasNext()) {
-            String songPath = scanner.nextLine();
-            L.debug("Found song " + songPath + " for playlist " + mName);
-            playlistSongList.add(new File(songPath));
+            lineCount++;
+
+            if (line.charAt(0) == RECORD_REMOVE)
+                songPaths.remove(line.substring(1));
+            else
+                songPaths.add(line);
         }
 
+        reader.close();
+
+        SongsManager library = SongsManager.instance();
+
         // Only the songs in library can be added
-        List<Song> validSongs = SongsManager.instance().getList()
-            .stream()
-            .filter(librarySong -> {
-                for (File playlistSong : playlistSongList)
-                    if (playlistSong.getName().equals(librarySong.getFilename()))
-                        return true;
-                return false;
-            })
-            .collect(Collectors.toList());
-
-        scanner.close();
+        List<Song> validSongs = new ArrayList<>(songPaths.size());
+
+        for (String songPath : songPaths) {
+            Song song = library.getSong(new File(songPath));
+
+            if (song != null)
+                validSongs.add(song);
+            else
+                L.verbose("Song " + songPath + " of playlist " + mName + " is not in library");
+        }
 
         // The addition of songs from this loader should not be notified,
         // suspended till the end of the method
         stopListObservation();
 
-        mList.clear();
-        mList.addAll(validSongs);
+        mList.setAll(validSongs);
+        mSongSet.clear();
+        mSongSet.addAll(validSongs);
+
+        mFileLineCount = lineCount;
 
         // Clear playlist file from zombies
-        if (validSongs.size() != playlistSongList.size()) {
+        if (validSongs.size() != songPaths.size()) {
             L.warn("SKipping zombie songs found in the playlist file but not in the " +
-                "library anymore, # " + (playlistSongList.size() - validSongs.size()));
+                "library anymore, # " + (songPaths.size() - validSongs.size()));
             L.debug("Saving playlist again without the zombies");
             savePlaylistToCache();
         }
+        else if (lineCount != validSongs.size()) {
+            L.debug("Saving playlist again without the removals");
+            savePlaylistToCache();
+        }
+
+        int previousSongCount = mSongCount;
+
+        mLoaded = true;
+        mSongCount = validSongs.size();
 
         // Continue to listen the songs list
         startListObservation();
+
+        // The entries of the file might include songs not in library anymore
+        if (mSongCount != previousSongCount)
+            mListeners.forEach(l -> l.invalidated(this));
     }
 
     /**
@@ -226,18 +493,47 @@ public class Playlist
             return;
         }
 
-        PrintWriter writer = FileUtil.getWriter(mFile);
+        CacheWriter writer = CacheWriter.open(mFile, false);
 
         if (writer == null) {
-            L.error("Can't initialize a valid scanner for file: " + mFile.getName());
+            L.error("Can't initialize a valid writer for file: " + mFile.getName());
             return;
         }
 
         L.debug("New playlist size: " + mList.size());
 
-        mList.forEach(s -> writer.println(s.getPath()));
+        mList.forEach(s -> writer.writeLine(s.getPath()));
+
+        if (writer.closeAndCheck())
+            mFileLineCount = mList.size();
+    }
+
+    /**
+     * Appends the given lines to the playlist's file.
+     * @param lines the lines to append
+     */
+    private void appendToPlaylistFile(List<String> lines) {
+        if (lines.isEmpty())
+            return;
+
+        L.debug("Appending " + lines.size() + " lines to playlist file: " + mFile.getPath());
+
+        if (!mFile.isFile()) {
+            L.error("Playlist file: " + mFile.getName() + " is not a simple file");
+            return;
+        }
+
+        CacheWriter writer = CacheWriter.open(mFile, true);
+
+        if (writer == null) {
+            L.error("Can't initialize a valid writer for file: " + mFile.getName());
+            return;
+        }
+
+        lines.forEach(writer::writeLine);
 
-        writer.close();
+        if (writer.closeAndCheck())
+            mFileLineCount += lines.size();
     }
 
 }
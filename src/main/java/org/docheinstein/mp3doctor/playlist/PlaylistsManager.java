@@ -1,10 +1,17 @@
 package org.docheinstein.mp3doctor.playlist;
 
+import javafx.application.Platform;
 import org.docheinstein.mp3doctor.cache.CacheHierarchy;
+import org.docheinstein.mp3doctor.commons.constants.Config;
 import org.docheinstein.mp3doctor.commons.logger.Logger;
 import org.docheinstein.mp3doctor.commons.adt.ObservableFileListManager;
 
+import javax.management.NotificationEmitter;
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 
 /**
  * Manager responsible for keep in memory the existing playlists on the disk.
@@ -12,6 +19,10 @@ import java.io.File;
  * Since this manager is a {@link ObservableFileListManager}, it handles the
  * changes to the playlists by save them to the disk and load
  * the saved files when needed.
+ * <p>
+ * The playlists are loaded lazily (see {@link Playlist}); when the heap is
+ * still almost full after a garbage collection, the songs of the playlists
+ * that are not in use are released.
  */
 public class PlaylistsManager extends ObservableFileListManager<Playlist> {
 
@@ -30,6 +41,81 @@ public class PlaylistsManager extends ObservableFileListManager<Playlist> {
         return INSTANCE;
     }
 
+    /** Creates the manager and starts to watch the usage of the heap. */
+    private PlaylistsManager() {
+        watchMemoryPressure();
+    }
+
+    /**
+     * Releases the songs of the playlists that are not in use.
+     * <p>
+     * This must be called from the JavaFX thread.
+     * @return the number of playlists that have been unloaded
+     */
+    public int unloadUnusedPlaylists() {
+        int unloadedCount = 0;
+
+        for (Playlist playlist : mList) {
+            if (playlist.unload())
+                unloadedCount++;
+        }
+
+        L.debug("Unloaded playlists: " + unloadedCount);
+
+        return unloadedCount;
+    }
+
+    /**
+     * Asks to be notified when the usage of the tenured heap pool after a
+     * garbage collection exceeds
+     * {@link Config.Playlists#RELEASE_HEAP_USAGE_THRESHOLD}, and unloads
+     * the playlists that are not in use when that happens.
+     */
+    private void watchMemoryPressure() {
+        MemoryPoolMXBean tenuredPool = getTenuredPool();
+
+        if (tenuredPool == null) {
+            L.warn("Heap usage can't be watched, playlists won't be unloaded");
+            return;
+        }
+
+        L.debug("Watching usage of heap pool: " + tenuredPool.getName());
+
+        // The young pools are emptied by every collection, thus only the
+        // tenured one tells whether the heap is actually almost full
+        tenuredPool.setCollectionUsageThreshold(
+            (long) (tenuredPool.getUsage().getMax() *
+                Config.Playlists.RELEASE_HEAP_USAGE_THRESHOLD));
+
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(
+            (notification, handback) -> {
+                if (!MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED
+                        .equals(notification.getType()))
+                    return;
+
+                L.warn("Heap is almost full, unloading playlists not in use");
+                Platform.runLater(this::unloadUnusedPlaylists);
+            }, null, null);
+    }
+
+    /**
+     * Returns the heap pool of the long lived objects (e.g. "G1 Old Gen" or
+     * "Tenured Gen"), which is the one that supports a usage threshold,
+     * unlike the eden and survivor pools.
+     * @return the tenured pool, or null if there is no such pool
+     */
+    private static MemoryPoolMXBean getTenuredPool() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP &&
+                pool.isUsageThresholdSupported() &&
+                pool.isCollectionUsageThresholdSupported() &&
+                pool.getUsage().getMax() > 0)
+                return pool;
+        }
+
+        return null;
+    }
+
     @Override
     public File getBaseDirectory() {
         return CacheHierarchy.instance().getPlaylistsEntry().getWrappedFile();
@@ -0,0 +1,219 @@
+package org.docheinstein.mp3doctor.playlist;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import org.docheinstein.mp3doctor.commons.adt.ObservableListManager;
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.commons.utils.Asserts;
+import org.docheinstein.mp3doctor.song.Song;
+import org.docheinstein.mp3doctor.song.SongsSearchIndex;
+import org.docheinstein.mp3doctor.song.filter.SongQueryParser;
+import org.docheinstein.mp3doctor.song.filter.SongSearchFilter;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Represents a playlist whose songs are the songs of the library that
+ * satisfy a rule, which is a query (see {@link SongQueryParser}),
+ * e.g. <code>genre:rock year:1990..1999 has:cover</code>; the texts without
+ * a field are searched in the title and in the artist.
+ * <p>
+ * The library is scanned only when the playlist is built; afterwards the
+ * playlist is kept up to date by the {@link SmartPlaylistsManager}, which
+ * hands it just the songs that have been added to, removed from or changed
+ * in the library, so that only those are checked against the rule.
+ * <p>
+ * Every method must be called from the JavaFX thread.
+ */
+public class SmartPlaylist
+    extends ObservableListManager<Song>
+    implements Observable {
+
+    private static final Logger L = Logger.createForClass(SmartPlaylist.class);
+
+    /** Fields the texts of the rule without a field are searched in. */
+    private static final List<SongsSearchIndex.Field> DEFAULT_FIELDS =
+        Arrays.asList(SongsSearchIndex.Field.Title, SongsSearchIndex.Field.Artist);
+
+    /** Name of the playlist. */
+    private final String mName;
+
+    /** Query the rule of the playlist is parsed from. */
+    private final String mQuery;
+
+    /** Rule the songs of the playlist satisfy. */
+    private final SongSearchFilter mRule;
+
+    /** Songs of the playlist, for check whether a song belongs to it. */
+    private final Set<Song> mSongSet = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** Listeners of the changes of the playlist. */
+    private final Set<InvalidationListener> mListeners = new CopyOnWriteArraySet<>();
+
+    /**
+     * Creates a new smart playlist.
+     * <p>
+     * The playlist is empty until it is added to the {@link SmartPlaylistsManager}.
+     * @param name the name of the playlist
+     * @param query the query the songs of the playlist must satisfy
+     */
+    public SmartPlaylist(String name, String query) {
+        Asserts.assertNotNull(name, "Can't create a smart playlist without a name", L);
+        Asserts.assertNotNull(query, "Can't create a smart playlist without a rule", L);
+        mName = name;
+        mQuery = query;
+        mRule = SongQueryParser.parse(query, DEFAULT_FIELDS);
+    }
+
+    /**
+     * Returns whether the given query is a valid rule, that is whether it
+     * has at least a term that is not ignored.
+     * @param query the query
+     * @return whether the query can be the rule of a smart playlist
+     */
+    public static boolean isValidRule(String query) {
+        return !SongQueryParser.parse(query, DEFAULT_FIELDS).getFilters().isEmpty();
+    }
+
+    /**
+     * Returns the name of the playlist.
+     * @return the name of the playlist
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns the query the rule of the playlist is parsed from.
+     * @return the query of the playlist
+     */
+    public String getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * Returns the rule the songs of the playlist satisfy.
+     * @return the rule of the playlist
+     */
+    public SongSearchFilter getRule() {
+        return mRule;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+
+    @Override
+    public void addListener(InvalidationListener listener) {
+        if (listener != null)
+            mListeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(InvalidationListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Fills the playlist with the songs of the given library that satisfy
+     * the rule, in the order of the library.
+     * <p>
+     * The listeners of the playlist are not notified: this happens while
+     * the playlist is being added to the {@link SmartPlaylistsManager},
+     * whose listeners are notified about the addition instead.
+     * @param library the songs of the library
+     */
+    void rebuild(Collection<? extends Song> library) {
+        List<Song> songs = new ArrayList<>();
+
+        for (Song song : library) {
+            if (mRule.check(song))
+                songs.add(song);
+        }
+
+        L.debug("Smart playlist " + mName + " built; songs: " + songs.size());
+
+        mSongSet.clear();
+        mSongSet.addAll(songs);
+        mList.setAll(songs);
+    }
+
+    /**
+     * Appends the given songs added to the library that satisfy the rule.
+     * @param songs the songs added to the library
+     */
+    void onSongsAdded(Collection<? extends Song> songs) {
+        List<Song> matchingSongs = new ArrayList<>();
+
+        for (Song song : songs) {
+            if (!mSongSet.contains(song) && mRule.check(song)) {
+                mSongSet.add(song);
+                matchingSongs.add(song);
+            }
+        }
+
+        if (matchingSongs.isEmpty())
+            return;
+
+        mList.addAll(matchingSongs);
+
+        notifyChanged();
+    }
+
+    /**
+     * Removes the given songs removed from the library, if those belong
+     * to the playlist.
+     * @param songs the songs removed from the library
+     */
+    void onSongsRemoved(Collection<? extends Song> songs) {
+        Set<Song> removedSongs = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (Song song : songs) {
+            if (mSongSet.remove(song))
+                removedSongs.add(song);
+        }
+
+        if (removedSongs.isEmpty())
+            return;
+
+        mList.removeIf(removedSongs::contains);
+
+        notifyChanged();
+    }
+
+    /**
+     * Checks the given changed songs of the library against the rule again,
+     * adding the ones that now satisfy it and removing the ones that
+     * don't anymore.
+     * @param songs the songs of the library that have changed
+     */
+    void onSongsChanged(Collection<? extends Song> songs) {
+        List<Song> matchingSongs = new ArrayList<>();
+        Set<Song> unmatchingSongs = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (Song song : songs) {
+            boolean matches = mRule.check(song);
+
+            if (matches && mSongSet.add(song))
+                matchingSongs.add(song);
+            else if (!matches && mSongSet.remove(song))
+                unmatchingSongs.add(song);
+        }
+
+        if (!unmatchingSongs.isEmpty())
+            mList.removeIf(unmatchingSongs::contains);
+
+        if (!matchingSongs.isEmpty())
+            mList.addAll(matchingSongs);
+
+        if (!unmatchingSongs.isEmpty() || !matchingSongs.isEmpty())
+            notifyChanged();
+    }
+
+    /** Notifies the listeners about a change of the songs of the playlist. */
+    private void notifyChanged() {
+        mListeners.forEach(l -> l.invalidated(this));
+    }
+}
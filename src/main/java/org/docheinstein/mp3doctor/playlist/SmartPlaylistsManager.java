@@ -0,0 +1,222 @@
+package org.docheinstein.mp3doctor.playlist;
+
+import javafx.application.Platform;
+import org.docheinstein.mp3doctor.cache.CacheHierarchy;
+import org.docheinstein.mp3doctor.cache.CacheReader;
+import org.docheinstein.mp3doctor.cache.CacheWriter;
+import org.docheinstein.mp3doctor.commons.adt.ObservableListListener;
+import org.docheinstein.mp3doctor.commons.adt.ObservableListManager;
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.commons.utils.StringUtil;
+import org.docheinstein.mp3doctor.song.Song;
+import org.docheinstein.mp3doctor.song.SongsManager;
+import org.docheinstein.mp3doctor.song.loader.SongTagsLoader;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Manager responsible for keep the {@link SmartPlaylist}s up to date.
+ * <p>
+ * The manager listens to the songs library and forwards to every smart
+ * playlist only the songs that have been added, removed or changed. The
+ * songs whose tags are loaded by the {@link SongTagsLoader} (which doesn't
+ * notify the library) count as changed; those are collected from the
+ * workers and forwarded in batches on the JavaFX thread.
+ * <p>
+ * The smart playlists are saved to the disk, a line per playlist made up
+ * of its name and its query separated by {@link #FIELD_SEPARATOR}, and are
+ * loaded when the manager is created.
+ * <p>
+ * The list of the manager must be modified from the JavaFX thread.
+ */
+public class SmartPlaylistsManager extends ObservableListManager<SmartPlaylist> {
+
+    private static final Logger L = Logger.createForClass(SmartPlaylistsManager.class);
+
+    /** Separator between the name and the query of a smart playlist. */
+    private static final char FIELD_SEPARATOR = '\t';
+
+    /** The unique instance of this class. */
+    private static final SmartPlaylistsManager INSTANCE = new SmartPlaylistsManager();
+
+    /**
+     * Returns the unique instance of this class.
+     * @return the unique instance of this class
+     */
+    public static SmartPlaylistsManager instance() {
+        return INSTANCE;
+    }
+
+    /** Songs whose tags have been loaded, not forwarded yet. */
+    private final Queue<Song> mLoadedSongs = new ConcurrentLinkedQueue<>();
+
+    /** Whether the forwarding of the loaded songs has been scheduled. */
+    private final AtomicBoolean mLoadedSongsDrainScheduled = new AtomicBoolean(false);
+
+    /**
+     * Creates the manager, loads the smart playlists from the disk and starts
+     * to listen to the library.
+     */
+    private SmartPlaylistsManager() {
+        // Observe the underlying list after the playlists have been loaded
+        super(false);
+
+        SongsManager.instance().addListener(new ObservableListListener<Song>() {
+            @Override
+            public void onElementsAdded(List<? extends Song> songs) {
+                mList.forEach(p -> p.onSongsAdded(songs));
+            }
+
+            @Override
+            public void onElementsRemoved(List<? extends Song> songs) {
+                mList.forEach(p -> p.onSongsRemoved(songs));
+            }
+
+            @Override
+            public void onElementsChanged(List<? extends Song> songs) {
+                mList.forEach(p -> p.onSongsChanged(songs));
+            }
+        });
+
+        SongTagsLoader.instance().addListener(new SongTagsLoader.SongTagsLoaderListener() {
+            @Override
+            public void onSongLoaded(Song song) {
+                mLoadedSongs.add(song);
+
+                if (mLoadedSongsDrainScheduled.compareAndSet(false, true))
+                    Platform.runLater(SmartPlaylistsManager.this::forwardLoadedSongs);
+            }
+
+            @Override
+            public void onSongNotLoaded(Song song) {}
+
+            @Override
+            public void onLoadingFinished() {}
+        });
+
+        loadFromCache();
+        startListObservation();
+    }
+
+    /**
+     * Returns whether the given string can be the name of a smart playlist,
+     * which must be saved on a single line.
+     * @param name the name
+     * @return whether the name is valid
+     */
+    public static boolean isValidName(String name) {
+        return StringUtil.isValid(name) &&
+            name.indexOf(FIELD_SEPARATOR) < 0 && name.indexOf('\n') < 0 && name.indexOf('\r') < 0;
+    }
+
+    /**
+     * Returns the smart playlist with the given name.
+     * @param name the name
+     * @return the smart playlist, or null if there is no one with that name
+     */
+    public SmartPlaylist getPlaylist(String name) {
+        for (SmartPlaylist playlist : mList) {
+            if (playlist.getName().equals(name))
+                return playlist;
+        }
+
+        return null;
+    }
+
+    /**
+     * Builds the added smart playlists over the current library and saves
+     * the smart playlists to the disk.
+     * @param playlists the added smart playlists
+     */
+    @Override
+    public void onElementsAdded(List<? extends SmartPlaylist> playlists) {
+        List<Song> library = SongsManager.instance().getList();
+        playlists.forEach(p -> p.rebuild(library));
+        saveToCache();
+    }
+
+    /**
+     * Saves the remaining smart playlists to the disk.
+     * @param playlists the removed smart playlists
+     */
+    @Override
+    public void onElementsRemoved(List<? extends SmartPlaylist> playlists) {
+        saveToCache();
+    }
+
+    /** Loads the smart playlists from the disk and builds those over the library. */
+    private void loadFromCache() {
+        CacheReader reader = CacheReader.open(
+            CacheHierarchy.instance().getSmartPlaylistsEntry().getWrappedFile());
+
+        if (reader == null)
+            return;
+
+        List<SmartPlaylist> playlists = new ArrayList<>();
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int separatorPos = line.indexOf(FIELD_SEPARATOR);
+
+            if (separatorPos <= 0) {
+                if (!line.isEmpty())
+                    L.warn("Skipping invalid smart playlist line: " + line);
+                continue;
+            }
+
+            playlists.add(new SmartPlaylist(
+                line.substring(0, separatorPos), line.substring(separatorPos + 1)));
+        }
+
+        reader.close();
+
+        L.info("Smart playlists found in cache: " + playlists.size());
+
+        List<Song> library = SongsManager.instance().getList();
+        playlists.forEach(p -> p.rebuild(library));
+
+        mList.setAll(playlists);
+    }
+
+    /** Saves the smart playlists to the disk. */
+    private void saveToCache() {
+        CacheWriter writer = CacheWriter.open(
+            CacheHierarchy.instance().getSmartPlaylistsEntry().getWrappedFile(), false);
+
+        if (writer == null)
+            return;
+
+        mList.forEach(p -> writer.writeLine(p.getName() + FIELD_SEPARATOR + p.getQuery()));
+
+        if (!writer.closeAndCheck())
+            L.error("Smart playlists might have not been saved");
+    }
+
+    /**
+     * Forwards to the smart playlists, as changed, the songs whose tags
+     * have been loaded and that are still in the library.
+     */
+    private void forwardLoadedSongs() {
+        // Reset before draining, so that a song queued meanwhile
+        // is forwarded by a further call
+        mLoadedSongsDrainScheduled.set(false);
+
+        SongsManager library = SongsManager.instance();
+        Set<Song> loadedSongs = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        Song song;
+        while ((song = mLoadedSongs.poll()) != null) {
+            if (library.getSong(song.getWrappedFile()) == song)
+                loadedSongs.add(song);
+        }
+
+        if (loadedSongs.isEmpty() || mList.isEmpty())
+            return;
+
+        L.verbose("Forwarding " + loadedSongs.size() + " loaded songs to smart playlists");
+
+        mList.forEach(p -> p.onSongsChanged(loadedSongs));
+    }
+}
@@ -0,0 +1,93 @@
+package org.docheinstein.mp3doctor.playlist.format;
+
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.commons.utils.Asserts;
+import org.docheinstein.mp3doctor.song.Song;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Exporter of the songs of a playlist to a playlist file of one of the
+ * {@link PlaylistFormat}s.
+ * <p>
+ * The entries are written one at a time, in UTF-8. The songs under the
+ * directory of the exported file are written with a path relative to it,
+ * so that the file and the songs can be moved together; the other ones
+ * are written with their absolute path.
+ */
+public class PlaylistExporter {
+
+    private static final Logger L = Logger.createForClass(PlaylistExporter.class);
+
+    /** Exported file. */
+    private final File mTarget;
+
+    /** Format of the exported file. */
+    private final PlaylistFormat mFormat;
+
+    /**
+     * Creates an exporter to the given playlist file.
+     * @param target the playlist file to write
+     * @param format the format of the file
+     */
+    public PlaylistExporter(File target, PlaylistFormat format) {
+        Asserts.assertNotNull(target, "Can't export to a null playlist file", L);
+        Asserts.assertNotNull(format, "Can't export a playlist file without a format", L);
+        mTarget = target;
+        mFormat = format;
+    }
+
+    /**
+     * Writes the given songs to the playlist file, replacing its content.
+     * <p>
+     * This can be called from any thread, provided that the songs
+     * are not modified meanwhile.
+     * @param songs the songs of the playlist, in order
+     * @return whether the playlist file has been written
+     */
+    public boolean export(Iterable<? extends Song> songs) {
+        L.info("Exporting playlist file " + mTarget + " as " + mFormat);
+
+        Path baseDirectory = mTarget.getAbsoluteFile().getParentFile().toPath();
+        int entryCount = 0;
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(mTarget), StandardCharsets.UTF_8))) {
+
+            mFormat.writeHeader(writer);
+
+            for (Song song : songs) {
+                entryCount++;
+                mFormat.writeEntry(writer, entryCount, song,
+                    getLocation(song, baseDirectory));
+            }
+
+            mFormat.writeFooter(writer, entryCount);
+        } catch (IOException e) {
+            L.error("Error occurred while writing playlist file: " + mTarget, e);
+            return false;
+        }
+
+        L.info("Exported " + entryCount + " entries");
+
+        return true;
+    }
+
+    /**
+     * Returns the location of the given song as it has to be written.
+     * @param song the song
+     * @param baseDirectory the directory of the exported file
+     * @return the path of the song relative to the directory, if the song
+     *         is under it, or the absolute path of the song otherwise
+     */
+    private static String getLocation(Song song, Path baseDirectory) {
+        Path songPath = song.getWrappedFile().getAbsoluteFile().toPath();
+
+        if (songPath.startsWith(baseDirectory))
+            return baseDirectory.relativize(songPath).toString();
+
+        return songPath.toString();
+    }
+}
@@ -0,0 +1,212 @@
+package org.docheinstein.mp3doctor.playlist.format;
+
+import org.docheinstein.mp3doctor.commons.utils.FileUtil;
+import org.docheinstein.mp3doctor.commons.utils.StringUtil;
+import org.docheinstein.mp3doctor.song.Song;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Formats of the playlist files that can be imported and exported.
+ * <p>
+ * Each format is parsed and written one line at a time, thus a playlist
+ * file is never kept in memory as a whole.
+ */
+public enum PlaylistFormat {
+    /** Plain M3U: a location per line, the lines starting with '#' are comments. */
+    M3U("m3u") {
+        @Override
+        public String parseLocation(String line) {
+            return parseM3ULocation(line);
+        }
+
+        @Override
+        public void writeHeader(Writer writer) {}
+
+        @Override
+        public void writeEntry(Writer writer, int number, Song song, String location)
+            throws IOException {
+            writeLine(writer, location);
+        }
+
+        @Override
+        public void writeFooter(Writer writer, int entryCount) {}
+    },
+
+    /** Extended M3U in UTF-8: each location is preceded by its #EXTINF line. */
+    M3U8("m3u8") {
+        @Override
+        public String parseLocation(String line) {
+            return parseM3ULocation(line);
+        }
+
+        @Override
+        public void writeHeader(Writer writer) throws IOException {
+            writeLine(writer, "#EXTM3U");
+        }
+
+        @Override
+        public void writeEntry(Writer writer, int number, Song song, String location)
+            throws IOException {
+            // The duration is not known, -1 stands for unknown
+            writeLine(writer, "#EXTINF:-1," + getDisplayTitle(song));
+            writeLine(writer, location);
+        }
+
+        @Override
+        public void writeFooter(Writer writer, int entryCount) {}
+    },
+
+    /** PLS: an INI like [playlist] section with numbered FileN keys. */
+    PLS("pls") {
+        @Override
+        public String parseLocation(String line) {
+            // FileN=location
+            int separatorPos = line.indexOf('=');
+
+            if (separatorPos <= 4 || !line.regionMatches(true, 0, "File", 0, 4))
+                return null;
+
+            for (int i = 4; i < separatorPos; i++) {
+                if (!Character.isDigit(line.charAt(i)))
+                    return null;
+            }
+
+            String location = line.substring(separatorPos + 1).trim();
+            return location.isEmpty() ? null : location;
+        }
+
+        @Override
+        public void writeHeader(Writer writer) throws IOException {
+            writeLine(writer, "[playlist]");
+        }
+
+        @Override
+        public void writeEntry(Writer writer, int number, Song song, String location)
+            throws IOException {
+            writeLine(writer, "File" + number + "=" + location);
+            writeLine(writer, "Title" + number + "=" + getDisplayTitle(song));
+            writeLine(writer, "Length" + number + "=-1");
+        }
+
+        @Override
+        public void writeFooter(Writer writer, int entryCount) throws IOException {
+            // Allowed anywhere in the section; written last so that the
+            // entries don't have to be counted in advance
+            writeLine(writer, "NumberOfEntries=" + entryCount);
+            writeLine(writer, "Version=2");
+        }
+    }
+    ;
+
+    /** Cached values, for avoid to copy those at each call of values(). */
+    private static final PlaylistFormat[] VALUES = values();
+
+    /** Extension of the files of this format, without the dot. */
+    private final String mExtension;
+
+    /**
+     * Creates a format for the files with the given extension.
+     * @param extension the extension, without the dot
+     */
+    PlaylistFormat(String extension) {
+        mExtension = extension;
+    }
+
+    /**
+     * Returns the extension of the files of this format.
+     * @return the extension, without the dot
+     */
+    public String getExtension() {
+        return mExtension;
+    }
+
+    /**
+     * Returns the format of the given file, by its extension.
+     * @param file the file
+     * @return the format, or null if the file is not a playlist file
+     */
+    public static PlaylistFormat of(File file) {
+        String extension = FileUtil.getFileExtension(file);
+
+        for (PlaylistFormat format : VALUES) {
+            if (format.mExtension.equalsIgnoreCase(extension))
+                return format;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the location of a song contained in the given line, if any.
+     * @param line a line of a playlist file of this format
+     * @return the location as it appears in the file (a path, either
+     *         absolute or relative, or an URL), or null if the line
+     *         doesn't contain an entry
+     */
+    public abstract String parseLocation(String line);
+
+    /**
+     * Writes what precedes the entries of a playlist file of this format.
+     * @param writer the writer of the file
+     * @throws IOException if the writer fails
+     */
+    public abstract void writeHeader(Writer writer) throws IOException;
+
+    /**
+     * Writes an entry of a playlist file of this format.
+     * @param writer the writer of the file
+     * @param number the number of the entry, starting from 1
+     * @param song the song of the entry
+     * @param location the location of the song, as it has to be written
+     * @throws IOException if the writer fails
+     */
+    public abstract void writeEntry(Writer writer, int number, Song song, String location)
+        throws IOException;
+
+    /**
+     * Writes what follows the entries of a playlist file of this format.
+     * @param writer the writer of the file
+     * @param entryCount the number of entries that have been written
+     * @throws IOException if the writer fails
+     */
+    public abstract void writeFooter(Writer writer, int entryCount) throws IOException;
+
+    /**
+     * Returns the location contained in a line of an M3U file.
+     * @param line the line
+     * @return the location, or null for comments and blank lines
+     */
+    private static String parseM3ULocation(String line) {
+        String location = line.trim();
+        return location.isEmpty() || location.charAt(0) == '#' ? null : location;
+    }
+
+    /**
+     * Returns the title of the given song as shown by the players.
+     * @param song the song
+     * @return "artist - title", or the file name if the tags are unknown
+     */
+    private static String getDisplayTitle(Song song) {
+        String artist = song.getArtist();
+        String title = song.getTitle();
+
+        if (!StringUtil.isValid(title))
+            return FileUtil.getFileNameWithoutExtension(song.getWrappedFile());
+
+        return StringUtil.isValid(artist) ? artist + " - " + title : title;
+    }
+
+    /**
+     * Writes the given line followed by the line terminator.
+     * @param writer the writer
+     * @param line the line
+     * @throws IOException if the writer fails
+     */
+    private static void writeLine(Writer writer, String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+    }
+}
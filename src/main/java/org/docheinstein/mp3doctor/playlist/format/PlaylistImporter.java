@@ -0,0 +1,197 @@
+package org.docheinstein.mp3doctor.playlist.format;
+
+import org.docheinstein.mp3doctor.cache.CacheWriter;
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.commons.utils.Asserts;
+import org.docheinstein.mp3doctor.song.Song;
+import org.docheinstein.mp3doctor.song.SongsManager;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Importer of a playlist file of one of the {@link PlaylistFormat}s into
+ * the file of a playlist of the application.
+ * <p>
+ * The entries are read, resolved against the songs of the library and
+ * written to the playlist file one at a time, thus the memory needed
+ * doesn't depend on the size of the playlist. The entries that are not
+ * songs of the library are skipped.
+ * <p>
+ * The relative paths are resolved against the directory of the imported
+ * file; file: URLs are accepted, other URLs are skipped. The file is read
+ * as UTF-8, or as ISO-8859-1 if it is not valid UTF-8 (as the plain M3U
+ * files written by older players).
+ */
+public class PlaylistImporter {
+
+    private static final Logger L = Logger.createForClass(PlaylistImporter.class);
+
+    /** Imported file. */
+    private final File mSource;
+
+    /** Format of the imported file. */
+    private final PlaylistFormat mFormat;
+
+    /** Number of entries found in the imported file. */
+    private int mEntryCount = 0;
+
+    /** Number of entries that have been resolved to a song of the library. */
+    private int mImportedCount = 0;
+
+    /**
+     * Creates an importer for the given playlist file.
+     * @param source the playlist file to import
+     * @param format the format of the file
+     */
+    public PlaylistImporter(File source, PlaylistFormat format) {
+        Asserts.assertNotNull(source, "Can't import a null playlist file", L);
+        Asserts.assertNotNull(format, "Can't import a playlist file without a format", L);
+        mSource = source;
+        mFormat = format;
+    }
+
+    /**
+     * Returns the number of entries found in the imported file.
+     * @return the number of entries
+     */
+    public int getEntryCount() {
+        return mEntryCount;
+    }
+
+    /**
+     * Returns the number of entries that have been imported.
+     * @return the number of songs of the library found in the imported file
+     */
+    public int getImportedCount() {
+        return mImportedCount;
+    }
+
+    /**
+     * Imports the playlist file into the given playlist file, replacing
+     * its content.
+     * <p>
+     * This can be called from any thread.
+     * @param playlistFile the file of the playlist of the application
+     * @return whether the playlist file has been imported
+     */
+    public boolean importTo(File playlistFile) {
+        L.info("Importing playlist file " + mSource + " as " + mFormat);
+
+        try {
+            return importTo(playlistFile, StandardCharsets.UTF_8);
+        } catch (CharacterCodingException e) {
+            L.debug("Playlist file is not valid UTF-8, reading it as ISO-8859-1");
+        }
+
+        try {
+            return importTo(playlistFile, StandardCharsets.ISO_8859_1);
+        } catch (CharacterCodingException e) {
+            // ISO-8859-1 maps every byte
+            L.error("Can't decode playlist file: " + mSource, e);
+            return false;
+        }
+    }
+
+    /**
+     * Imports the playlist file, decoded with the given charset, into the
+     * given playlist file.
+     * @param playlistFile the file of the playlist of the application
+     * @param charset the charset of the imported file
+     * @return whether the playlist file has been imported
+     * @throws CharacterCodingException if the imported file is not valid
+     *                                  in the given charset
+     */
+    private boolean importTo(File playlistFile, Charset charset) throws CharacterCodingException {
+        mEntryCount = 0;
+        mImportedCount = 0;
+
+        CacheWriter writer = CacheWriter.open(playlistFile, false);
+
+        if (writer == null)
+            return false;
+
+        SongsManager library = SongsManager.instance();
+        File baseDirectory = mSource.getAbsoluteFile().getParentFile();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(mSource), charset.newDecoder()))) {
+
+            String line;
+            boolean firstLine = true;
+
+            while ((line = reader.readLine()) != null) {
+                // Byte order mark
+                if (firstLine && !line.isEmpty() && line.charAt(0) == '\uFEFF')
+                    line = line.substring(1);
+                firstLine = false;
+
+                String location = mFormat.parseLocation(line);
+
+                if (location == null)
+                    continue;
+
+                mEntryCount++;
+
+                File songFile = resolveLocation(location, baseDirectory);
+                Song song = songFile != null ? library.getSong(songFile) : null;
+
+                if (song == null) {
+                    L.verbose("Skipping playlist entry not in library: " + location);
+                    continue;
+                }
+
+                writer.writeLine(song.getPath());
+                mImportedCount++;
+            }
+        } catch (CharacterCodingException e) {
+            writer.close();
+            throw e;
+        } catch (IOException e) {
+            L.error("Error occurred while reading playlist file: " + mSource, e);
+            writer.close();
+            return false;
+        }
+
+        L.info("Imported " + mImportedCount + " entries out of " + mEntryCount);
+
+        return writer.closeAndCheck();
+    }
+
+    /**
+     * Returns the file the given location of an entry refers to.
+     * @param location the location of the entry
+     * @param baseDirectory the directory the relative paths are relative to
+     * @return the file, or null if the location doesn't refer to a local file
+     */
+    private static File resolveLocation(String location, File baseDirectory) {
+        if (location.regionMatches(true, 0, "file:", 0, 5)) {
+            try {
+                return new File(URI.create(location));
+            } catch (IllegalArgumentException e) {
+                L.verbose("Skipping invalid file URL: " + location);
+                return null;
+            }
+        }
+
+        // Other URLs (e.g. http://) are not local files
+        int schemeEnd = location.indexOf("://");
+        if (schemeEnd > 1)
+            return null;
+
+        // Playlists written on Windows
+        if (File.separatorChar == '/')
+            location = location.replace('\\', '/');
+
+        File file = new File(location);
+
+        if (!file.isAbsolute())
+            file = new File(baseDirectory, location);
+
+        // Relative paths may contain "." and ".."
+        return file.toPath().normalize().toFile();
+    }
+}
@@ -0,0 +1,327 @@
+package org.docheinstein.mp3doctor.song;
+
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.song.importer.SongFilesWalker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Handle of an import of songs in the library, returned by
+ * {@link SongsManager#addFromFiles(java.io.File[])}.
+ * <p>
+ * The job reports the number of discovered, parsed, duplicated and failed
+ * files, the size of the parsed files and the throughput; those can be
+ * polled from any thread while the import proceeds.
+ * <p>
+ * The job is finished when the discovery is over and the tags of every
+ * imported song have been loaded, or won't be (those songs are accounted
+ * as failed); the job can be cancelled
+ * at any time, which stops the discovery and removes from the library the
+ * imported songs whose tags have not been loaded yet.
+ */
+public class ImportJob {
+
+    private static final Logger L = Logger.createForClass(ImportJob.class);
+
+    /** Interface that lets listeners be notified when an import job ends. */
+    public interface ImportJobListener {
+
+        /**
+         * Called, from any thread, when the job finishes or is cancelled
+         * (see {@link ImportJob#isCancelled()}); it is called just once.
+         * @param job the job
+         */
+        void onImportFinished(ImportJob job);
+    }
+
+    /** Number of .mp3 files found. */
+    private final AtomicLong mDiscoveredFileCount = new AtomicLong();
+
+    /** Number of files whose tags have been loaded. */
+    private final AtomicLong mParsedFileCount = new AtomicLong();
+
+    /** Number of files whose tags couldn't be loaded. */
+    private final AtomicLong mFailedFileCount = new AtomicLong();
+
+    /** Number of files skipped since already in the library. */
+    private final AtomicLong mDuplicatedFileCount = new AtomicLong();
+
+    /** Total size of the files whose tags have been loaded. */
+    private final AtomicLong mParsedBytes = new AtomicLong();
+
+    /** Instant (in nanos) at which the job has been created. */
+    private final long mStartNanos = System.nanoTime();
+
+    /** Instant (in nanos) at which the job has ended, or 0 if it's running. */
+    private volatile long mEndNanos;
+
+    /** Imported songs whose tags have not been loaded yet. */
+    private final Set<Song> mPendingSongs = ConcurrentHashMap.newKeySet();
+
+    /** Listeners notified when the job ends. */
+    private final Set<ImportJobListener> mListeners = new CopyOnWriteArraySet<>();
+
+    /** Walker of the imported directories, if any. */
+    private volatile SongFilesWalker mWalker;
+
+    /** Whether every file to import has been discovered. */
+    private volatile boolean mDiscoveryFinished = false;
+
+    /** Whether the job has been cancelled. */
+    private volatile boolean mCancelled = false;
+
+    /** Whether the listeners have been notified about the end of the job. */
+    private final AtomicBoolean mEnded = new AtomicBoolean();
+
+    /** Creates a new job. */
+    ImportJob() {}
+
+    /**
+     * Adds a listener that will be notified when the job ends.
+     * <p>
+     * If the job has already ended, the listener is not notified.
+     * @param listener the listener
+     */
+    public void addListener(ImportJobListener listener) {
+        if (listener != null)
+            mListeners.add(listener);
+    }
+
+    /**
+     * Removes a previously added listener from the listener set.
+     * @param listener the listener that won't be notified anymore
+     */
+    public void removeListener(ImportJobListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Requests to cancel the job.
+     * <p>
+     * The cancellation is cooperative: the directories being read and the
+     * songs being loaded at the moment are completed anyway, while the
+     * rest of the import is dropped.
+     */
+    public void cancel() {
+        if (mCancelled || isFinished())
+            return;
+
+        L.info("Cancelling import; pending songs: " + mPendingSongs.size());
+
+        mCancelled = true;
+
+        SongFilesWalker walker = mWalker;
+        if (walker != null)
+            walker.cancel();
+
+        end();
+    }
+
+    /**
+     * Returns whether the job has been cancelled.
+     * @return whether the job has been cancelled
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Returns whether the job has ended, either because it's finished or
+     * because it has been cancelled.
+     * @return whether the job has ended
+     */
+    public boolean isFinished() {
+        return mEnded.get();
+    }
+
+    /**
+     * Returns whether every file to import has been discovered, thus whether
+     * the number of imported songs is final.
+     * @return whether the discovery is finished
+     */
+    public boolean isDiscoveryFinished() {
+        return mDiscoveryFinished;
+    }
+
+    /**
+     * Returns the number of .mp3 files found so far.
+     * @return the number of discovered files
+     */
+    public long getDiscoveredFileCount() {
+        return mDiscoveredFileCount.get();
+    }
+
+    /**
+     * Returns the number of files whose tags have been loaded so far.
+     * @return the number of parsed files
+     */
+    public long getParsedFileCount() {
+        return mParsedFileCount.get();
+    }
+
+    /**
+     * Returns the number of files whose tags couldn't be loaded.
+     * @return the number of failed files
+     */
+    public long getFailedFileCount() {
+        return mFailedFileCount.get();
+    }
+
+    /**
+     * Returns the number of files that have been skipped since those were
+     * already in the library.
+     * @return the number of duplicated files
+     */
+    public long getDuplicatedFileCount() {
+        return mDuplicatedFileCount.get();
+    }
+
+    /**
+     * Returns the number of songs added to the library by this job.
+     * @return the number of imported songs
+     */
+    public long getImportedSongCount() {
+        return mDiscoveredFileCount.get() - mDuplicatedFileCount.get();
+    }
+
+    /**
+     * Returns the total size of the files whose tags have been loaded so far.
+     * @return the size of the parsed files, in bytes
+     */
+    public long getParsedBytes() {
+        return mParsedBytes.get();
+    }
+
+    /**
+     * Returns the number of files processed (either parsed or failed) per
+     * second since the job has been created, till it has ended.
+     * @return the throughput, in files per second
+     */
+    public double getThroughput() {
+        long endNanos = mEndNanos;
+        double elapsedSeconds =
+            ((endNanos != 0 ? endNanos : System.nanoTime()) - mStartNanos) / 1e9;
+
+        return elapsedSeconds > 0 ?
+            (mParsedFileCount.get() + mFailedFileCount.get()) / elapsedSeconds : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "discovered: " + getDiscoveredFileCount() +
+            ", parsed: " + getParsedFileCount() +
+            ", failed: " + getFailedFileCount() +
+            ", duplicated: " + getDuplicatedFileCount() +
+            ", bytes: " + getParsedBytes() +
+            ", files/sec: " + String.format("%.1f", getThroughput());
+    }
+
+    // Hooks used by the SongsManager
+
+    /**
+     * Sets the walker of the imported directories, which is cancelled
+     * together with the job.
+     * @param walker the walker
+     */
+    void setWalker(SongFilesWalker walker) {
+        mWalker = walker;
+    }
+
+    /**
+     * Accounts the given songs as discovered.
+     * @param songs the songs that have been added to the library
+     * @param duplicatedCount the number of found files that have been
+     *                        skipped since already in the library
+     */
+    void onSongsDiscovered(Collection<Song> songs, int duplicatedCount) {
+        mPendingSongs.addAll(songs);
+        mDiscoveredFileCount.addAndGet(songs.size() + duplicatedCount);
+        mDuplicatedFileCount.addAndGet(duplicatedCount);
+    }
+
+    /**
+     * Marks the discovery as finished: the job ends as soon as the tags
+     * of the pending songs have been loaded.
+     */
+    void onDiscoveryFinished() {
+        mDiscoveryFinished = true;
+        endIfDone();
+    }
+
+    /**
+     * Accounts the given song as processed, if it has been imported by
+     * this job; the song is parsed if its tags are loaded, failed otherwise.
+     * @param song the song whose tags have been loaded
+     */
+    void onSongLoaded(Song song) {
+        if (!mPendingSongs.remove(song))
+            return;
+
+        if (song.areTagsLoaded()) {
+            mParsedFileCount.incrementAndGet();
+            mParsedBytes.addAndGet(song.getWrappedFile().length());
+        } else {
+            mFailedFileCount.incrementAndGet();
+        }
+
+        endIfDone();
+    }
+
+    /**
+     * Accounts the given song as failed, if it has been imported by this job,
+     * since its tags won't be loaded (e.g. an error occurred or the loading
+     * has been cancelled).
+     * @param song the song whose tags have not been loaded
+     */
+    void onSongNotLoaded(Song song) {
+        if (!mPendingSongs.remove(song))
+            return;
+
+        mFailedFileCount.incrementAndGet();
+
+        endIfDone();
+    }
+
+    /**
+     * Forgets the given songs, since those have been removed from the library
+     * before their tags have been loaded.
+     * @param songs the removed songs
+     */
+    void onSongsRemoved(Collection<? extends Song> songs) {
+        if (mPendingSongs.removeAll(songs))
+            endIfDone();
+    }
+
+    /**
+     * Returns the imported songs whose tags have not been loaded yet.
+     * @return the pending songs
+     */
+    List<Song> getPendingSongs() {
+        return new ArrayList<>(mPendingSongs);
+    }
+
+    /** Ends the job if every song has been discovered and processed. */
+    private void endIfDone() {
+        if (mDiscoveryFinished && mPendingSongs.isEmpty())
+            end();
+    }
+
+    /** Ends the job and notifies the listeners, just once. */
+    private void end() {
+        if (!mEnded.compareAndSet(false, true))
+            return;
+
+        mEndNanos = System.nanoTime();
+
+        L.info("Import " + (mCancelled ? "cancelled" : "finished") + "; " + this);
+
+        mListeners.forEach(l -> l.onImportFinished(this));
+    }
+}
@@ -10,11 +10,11 @@ import org.docheinstein.mp3doctor.commons.adt.FileWrapper;
 import org.docheinstein.mp3doctor.commons.utils.Asserts;
 import org.docheinstein.mp3doctor.commons.utils.FXUtil;
 import org.docheinstein.mp3doctor.commons.utils.StringUtil;
+import org.docheinstein.mp3doctor.song.loader.ID3TagsReader;
 import org.jaudiotagger.audio.AudioFile;
 import org.jaudiotagger.audio.AudioFileIO;
 import org.jaudiotagger.audio.AudioHeader;
 import org.jaudiotagger.audio.exceptions.CannotReadException;
-import org.jaudiotagger.audio.exceptions.CannotWriteException;
 import org.jaudiotagger.audio.exceptions.InvalidAudioFrameException;
 import org.jaudiotagger.audio.exceptions.ReadOnlyFileException;
 import org.jaudiotagger.tag.*;
@@ -23,9 +23,9 @@ import org.jaudiotagger.tag.images.Artwork;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * Represents a song, which wraps an .mp3 file on the disk and expose
@@ -33,6 +33,11 @@ import java.util.concurrent.CopyOnWriteArraySet;
  * <p>
  * This class implements the {@link Observable} interface which makes it easy
  * to be listened for changes to the tags.
+ * <p>
+ * Since a library may contain a lot of songs, the tags are kept in plain
+ * fields and the observable properties of the tags are created only when
+ * those are actually requested (e.g. by the cells of a table that shows
+ * the song); once created, a property is kept up to date with its tag.
  */
 public class Song implements Comparable<Song>, Observable, FileWrapper {
 
@@ -43,60 +48,128 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
     /** Underlying song's file. */
     private final File mFile;
 
-    /** Container of the song tags. */
-    private AudioFile mAudioFile;
-
-    /** Filename of the song. */
-    private final StringProperty mFilenameProperty;
+    /**
+     * Pending modification of the tags, opened by the first overwrite and
+     * closed by the commit; null if there is no pending modification.
+     */
+    private SongWriteSession mWriteSession;
 
     /** Path of the song on the disk. */
-    private final StringProperty mPathProperty;
+    private final String mPath;
 
     // Song's tags
 
-    // Those are kept as Property(s) for make listen to to changes
-    // possible (this is convenient for the structures that use
-    // the observable values to be up to date, such as JavaFX TableView)
+    // Those are kept as plain fields; the observable properties that make
+    // listen to changes possible (this is convenient for the structures that
+    // use the observable values to be up to date, such as JavaFX TableView)
+    // are created on demand, see getProperty(Field)
+
+    /**
+     * Observable properties of the song, indexed by {@link Field};
+     * null till the first property is requested.
+     */
+    // Guarded by this
+    private StringProperty[] mProperties;
 
     // Read/write tags
 
-    /** Artist tag. */
-    private final StringProperty mArtistProperty;
+    // The tags that repeat across the library are kept as ids of
+    // the TagDictionary
+
+    /** Id of the artist tag. */
+    private volatile int mArtistId;
 
     /** Title tag. */
-    private final StringProperty mTitleProperty;
+    private volatile String mTitle;
+
+    /** Search key of the title tag (see {@link StringUtil#toSearchKey(String)}). */
+    private volatile String mTitleSearchKey;
 
-    /** Album tag. */
-    private final StringProperty mAlbumProperty;
+    /** Id of the album tag. */
+    private volatile int mAlbumId;
 
-    /** Year tag. */
-    private final StringProperty mYearProperty;
+    /** Id of the year tag. */
+    private volatile int mYearId;
 
-    /** Genre tag. */
-    private final StringProperty mGenreProperty;
+    /** Id of the genre tag. */
+    private volatile int mGenreId;
 
     /** Track number tag. */
-    private final StringProperty mTrackNumberProperty;
+    private volatile String mTrackNumber;
+
+    // Heavy tags
+
+    // Those are loaded only when required and are kept via a soft
+    // reference, so that can be evicted under memory pressure
+
+    /** Lyrics and cover, or null if never loaded. */
+    private volatile SoftReference<HeavyTags> mHeavyTags;
+
+    /** Whether the song has the lyrics, known even if those are not loaded. */
+    private volatile boolean mHasLyrics;
 
-    /** Lyrics tag. */
-    private final StringProperty mLyricsProperty;
+    /** Whether the song has a cover, known even if it is not loaded. */
+    private volatile boolean mHasCover;
 
-    /** Cover. */
-    private Artwork mCover;
+    /** Fingerprint of the file at the time the tags have been loaded. */
+    private volatile SongFingerprint mFingerprint;
 
     // Read only header tags
 
+    // Those are loaded only when required too, but are not evicted
+    // since those are small
+
+    /** Whether the header tags have been loaded. */
+    private volatile boolean mAudioHeaderLoaded;
+
     /** Bit rate header. */
-    private final StringProperty mBitRateProperty;
+    private volatile String mBitRate;
 
     /** Sample rate header. */
-    private final StringProperty mSampleRateProperty;
+    private volatile String mSampleRate;
 
     /** Channels header. */
-    private final StringProperty mChannelsProperty;
+    private volatile String mChannels;
 
-    /** Listeners that listen to the changes to the song (tags). */
-    private final Set<InvalidationListener> mListeners = new CopyOnWriteArraySet<>();
+    /**
+     * Listeners that listen to the changes to the song (tags).
+     * <p>
+     * The array is replaced on each change (as a copy on write set would do,
+     * but without its overhead, which is significant for each song).
+     */
+    private volatile InvalidationListener[] mListeners = NO_LISTENERS;
+
+    /** Empty listeners array shared by the songs without listeners. */
+    private static final InvalidationListener[] NO_LISTENERS = new InvalidationListener[0];
+
+    /** The fields of a song that can be observed through a property. */
+    private enum Field {
+        Filename("filename"),
+        Path("path"),
+        Artist("artist"),
+        Title("title"),
+        Album("album"),
+        Year("year"),
+        Genre("genre"),
+        TrackNumber("trackNumber"),
+        BitRate("bitRate"),
+        SampleRate("sampleRate"),
+        Channels("channels");
+
+        /** Cached values(), which otherwise would be copied on each call. */
+        private static final Field[] VALUES = values();
+
+        /** Name of the property of the field. */
+        private final String mPropertyName;
+
+        /**
+         * Creates a new field.
+         * @param propertyName the name of the property of the field
+         */
+        Field(String propertyName) {
+            mPropertyName = propertyName;
+        }
+    }
 
     /**
      * Creates a song for the given underling file
@@ -110,21 +183,7 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      */
     public Song(File file, boolean loadTags) {
         mFile = file;
-
-        mFilenameProperty =  new SimpleStringProperty(file.getName());
-        mPathProperty = new SimpleStringProperty(file.getAbsolutePath());
-
-        mArtistProperty = new SimpleStringProperty();
-        mTitleProperty = new SimpleStringProperty();
-        mAlbumProperty = new SimpleStringProperty();
-        mYearProperty = new SimpleStringProperty();
-        mGenreProperty = new SimpleStringProperty();
-        mTrackNumberProperty = new SimpleStringProperty();
-        mLyricsProperty = new SimpleStringProperty();
-
-        mBitRateProperty = new SimpleStringProperty();
-        mSampleRateProperty = new SimpleStringProperty();
-        mChannelsProperty = new SimpleStringProperty();
+        mPath = file.getAbsolutePath();
 
         if (loadTags)
             loadTags();
@@ -153,14 +212,41 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
     }
 
     @Override
-    public void addListener(InvalidationListener listener) {
-        if (listener != null)
-            mListeners.add(listener);
+    public synchronized void addListener(InvalidationListener listener) {
+        if (listener == null)
+            return;
+
+        InvalidationListener[] listeners = mListeners;
+        for (InvalidationListener l : listeners) {
+            if (l.equals(listener))
+                return;
+        }
+
+        InvalidationListener[] newListeners =
+            Arrays.copyOf(listeners, listeners.length + 1);
+        newListeners[listeners.length] = listener;
+        mListeners = newListeners;
     }
 
     @Override
-    public void removeListener(InvalidationListener listener) {
-        mListeners.remove(listener);
+    public synchronized void removeListener(InvalidationListener listener) {
+        InvalidationListener[] listeners = mListeners;
+
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) {
+                if (listeners.length == 1) {
+                    mListeners = NO_LISTENERS;
+                } else {
+                    InvalidationListener[] newListeners =
+                        new InvalidationListener[listeners.length - 1];
+                    System.arraycopy(listeners, 0, newListeners, 0, i);
+                    System.arraycopy(listeners, i + 1, newListeners, i,
+                        listeners.length - i - 1);
+                    mListeners = newListeners;
+                }
+                return;
+            }
+        }
     }
 
     // Meta details
@@ -180,7 +266,7 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the filename of the song
      */
     public String getFilename() {
-        return mFilenameProperty.get();
+        return mFile.getName();
     }
 
     /**
@@ -188,7 +274,7 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the filename property
      */
     public StringProperty getFilenameProperty() {
-        return mFilenameProperty;
+        return getProperty(Field.Filename);
     }
 
     /**
@@ -196,7 +282,7 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the path of the song
      */
     public String getPath() {
-        return mPathProperty.get();
+        return mPath;
     }
 
     /**
@@ -204,7 +290,7 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the path property
      */
     public StringProperty getPathProperty() {
-        return mPathProperty;
+        return getProperty(Field.Path);
     }
 
     // Read/write tags
@@ -214,7 +300,25 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the artist
      */
     public String getArtist() {
-        return mArtistProperty.get();
+        return TagDictionary.instance().decode(mArtistId);
+    }
+
+    /**
+     * Returns the id of the artist tag of the song in the {@link TagDictionary}.
+     * @return the id of the artist
+     */
+    public int getArtistId() {
+        return mArtistId;
+    }
+
+    /**
+     * Returns the search key of the artist tag of the song.
+     * @return the case folded artist without accents
+     *
+     * @see StringUtil#toSearchKey(String)
+     */
+    public String getArtistSearchKey() {
+        return TagDictionary.instance().decodeSearchKey(mArtistId);
     }
 
     /**
@@ -222,7 +326,7 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the artist property
      */
     public StringProperty getArtistProperty() {
-        return mArtistProperty;
+        return getProperty(Field.Artist);
     }
 
     /**
@@ -230,7 +334,17 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the title
      */
     public String getTitle() {
-        return mTitleProperty.get();
+        return mTitle;
+    }
+
+    /**
+     * Returns the search key of the title tag of the song.
+     * @return the case folded title without accents
+     *
+     * @see StringUtil#toSearchKey(String)
+     */
+    public String getTitleSearchKey() {
+        return mTitleSearchKey;
     }
 
     /**
@@ -238,7 +352,7 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the title property
      */
     public StringProperty getTitleProperty() {
-        return mTitleProperty;
+        return getProperty(Field.Title);
     }
 
     /**
@@ -246,7 +360,25 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the album
      */
     public String getAlbum() {
-        return mAlbumProperty.get();
+        return TagDictionary.instance().decode(mAlbumId);
+    }
+
+    /**
+     * Returns the id of the album tag of the song in the {@link TagDictionary}.
+     * @return the id of the album
+     */
+    public int getAlbumId() {
+        return mAlbumId;
+    }
+
+    /**
+     * Returns the search key of the album tag of the song.
+     * @return the case folded album without accents
+     *
+     * @see StringUtil#toSearchKey(String)
+     */
+    public String getAlbumSearchKey() {
+        return TagDictionary.instance().decodeSearchKey(mAlbumId);
     }
 
     /**
@@ -254,7 +386,7 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the album property
      */
     public StringProperty getAlbumProperty() {
-        return mAlbumProperty;
+        return getProperty(Field.Album);
     }
 
     /**
@@ -262,7 +394,25 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the year
      */
     public String getYear() {
-        return mYearProperty.get();
+        return TagDictionary.instance().decode(mYearId);
+    }
+
+    /**
+     * Returns the id of the year tag of the song in the {@link TagDictionary}.
+     * @return the id of the year
+     */
+    public int getYearId() {
+        return mYearId;
+    }
+
+    /**
+     * Returns the search key of the year tag of the song.
+     * @return the case folded year without accents
+     *
+     * @see StringUtil#toSearchKey(String)
+     */
+    public String getYearSearchKey() {
+        return TagDictionary.instance().decodeSearchKey(mYearId);
     }
 
     /**
@@ -270,7 +420,7 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the year property
      */
     public StringProperty getYearProperty() {
-        return mYearProperty;
+        return getProperty(Field.Year);
     }
 
     /**
@@ -278,7 +428,25 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the genre
      */
     public String getGenre() {
-        return mGenreProperty.get();
+        return TagDictionary.instance().decode(mGenreId);
+    }
+
+    /**
+     * Returns the id of the genre tag of the song in the {@link TagDictionary}.
+     * @return the id of the genre
+     */
+    public int getGenreId() {
+        return mGenreId;
+    }
+
+    /**
+     * Returns the search key of the genre tag of the song.
+     * @return the case folded genre without accents
+     *
+     * @see StringUtil#toSearchKey(String)
+     */
+    public String getGenreSearchKey() {
+        return TagDictionary.instance().decodeSearchKey(mGenreId);
     }
 
     /**
@@ -286,7 +454,7 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the genre property
      */
     public StringProperty getGenreProperty() {
-        return mGenreProperty;
+        return getProperty(Field.Genre);
     }
 
     /**
@@ -294,7 +462,7 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the track number
      */
     public String getTrackNumber() {
-        return mTrackNumberProperty.get();
+        return mTrackNumber;
     }
 
     /**
@@ -302,31 +470,47 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the track number property
      */
     public StringProperty getTrackNumberProperty() {
-        return mTrackNumberProperty;
+        return getProperty(Field.TrackNumber);
     }
 
     /**
      * Returns the lyrics tag of the song
-     * @return the lyrics number
+     * <p>
+     * The lyrics are loaded from the file the first time this method is
+     * called and may be loaded again if evicted meanwhile.
+     * @return the lyrics
      */
     public String getLyrics() {
-        return mLyricsProperty.get();
+        HeavyTags heavyTags = getHeavyTags();
+        return heavyTags != null ? heavyTags.mLyrics : null;
     }
 
     /**
-     * Returns the lyrics tag of the song as an observable property
-     * @return the lyrics property
+     * Returns whether the song has the lyrics, without loading those.
+     * @return whether the song has the lyrics
      */
-    public StringProperty getLyricsProperty() {
-        return mLyricsProperty;
+    public boolean hasLyrics() {
+        return mHasLyrics;
     }
 
     /**
      * Returns the cover of the song
+     * <p>
+     * The cover is loaded from the file the first time this method is
+     * called and may be loaded again if evicted meanwhile.
      * @return the cover
      */
     public Artwork getCover() {
-        return mCover;
+        HeavyTags heavyTags = getHeavyTags();
+        return heavyTags != null ? heavyTags.mCover : null;
+    }
+
+    /**
+     * Returns whether the song has a cover, without loading it.
+     * @return whether the song has a cover
+     */
+    public boolean hasCover() {
+        return mHasCover;
     }
 
     /**
@@ -334,9 +518,10 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the cover as a JavaFX image
      */
     public Image getCoverAsImage() {
+        Artwork cover = getCover();
         try {
-            return mCover == null ? null :
-                FXUtil.awtBufferedImageToImage((BufferedImage) mCover.getImage());
+            return cover == null ? null :
+                FXUtil.awtBufferedImageToImage((BufferedImage) cover.getImage());
         } catch (IOException e) {
             L.error("Error occurred during conversion from artwork to JFX image");
             return null;
@@ -347,26 +532,33 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
 
     /**
      * Returns the bit rate header of the song
-     * @return the bit rate
+     * <p>
+     * The file is never read: the header tags are available only once
+     * loaded along with the other tags or via {@link #loadAudioHeader()}.
+     * @return the bit rate, or null if the header tags are not loaded
      */
     public String getBitRate() {
-        return mBitRateProperty.get();
+        return mAudioHeaderLoaded ? mBitRate : null;
     }
 
     /**
      * Returns the bit rate header of the song as an observable property
+     * <p>
+     * Note that the property is empty till the header tags are loaded
+     * (see {@link #getBitRate()}).
      * @return the bit rate property
      */
     public StringProperty getBitRateProperty() {
-        return mBitRateProperty;
+        return getProperty(Field.BitRate);
     }
 
     /**
      * Returns the sample rate header of the song
-     * @return the sample rate
+     * (see {@link #getBitRate()}).
+     * @return the sample rate, or null if the header tags are not loaded
      */
     public String getSampleRate() {
-        return mSampleRateProperty.get();
+        return mAudioHeaderLoaded ? mSampleRate : null;
     }
 
     /**
@@ -374,15 +566,16 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the sample rate property
      */
     public StringProperty getSampleRateProperty() {
-        return mSampleRateProperty;
+        return getProperty(Field.SampleRate);
     }
 
     /**
      * Returns the channels header of the song
-     * @return the channels
+     * (see {@link #getBitRate()}).
+     * @return the channels, or null if the header tags are not loaded
      */
     public String getChannels() {
-        return mChannelsProperty.get();
+        return mAudioHeaderLoaded ? mChannels : null;
     }
 
     /**
@@ -390,7 +583,7 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * @return the channels property
      */
     public StringProperty getChannelsProperty() {
-        return mChannelsProperty;
+        return getProperty(Field.Channels);
     }
 
     /**
@@ -412,7 +605,11 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
                 " - Committing: " + commit);
         Asserts.assertNotNull(tags, "Can't tolerate a null tags map", L);
 
-        Tag audioTag = mAudioFile.getTag();
+        SongWriteSession session = ensureWriteSession();
+        if (session == null)
+            return false;
+
+        Tag audioTag = session.getTag();
 
         for (Map.Entry<FieldKey, String> tag : tags.entrySet()) {
             try {
@@ -451,12 +648,16 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
         L.debug("Overwriting cover for song " + this +
                 " - Committing: " + commit);
 
+        SongWriteSession session = ensureWriteSession();
+        if (session == null)
+            return false;
+
         // Delete the cover if null is passed as parameter
         if (cover == null)
-            mAudioFile.getTag().deleteArtworkField();
+            session.getTag().deleteArtworkField();
         else {
             try {
-                mAudioFile.getTag().setField(cover);
+                session.getTag().setField(cover);
             } catch (FieldDataInvalidException e) {
                 L.error("Exception occurred while setting cover", e);
             }
@@ -493,37 +694,353 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
     /**
      * Loads the tags of the song from the underlying file (which must be an
      * .mp3 file).
+     * <p>
+     * Only the tags shown in the songs table and the header tags are read
+     * (by the {@link ID3TagsReader}), so that those are stored with the
+     * others; the lyrics and the cover are loaded the first time they are
+     * required. The files that reader can't handle are entirely read by
+     * jaudiotagger instead.
      */
     public void loadTags() {
         // Read file tags
         L.info("Loading tags for song " + this);
 
+        // Taken before the read, so that a change made during the read
+        // is detected the next time
+        SongFingerprint fingerprint = SongFingerprint.of(mFile);
+
+        SongTags tags = ID3TagsReader.read(mFile, true);
+
+        if (tags != null) {
+            restoreTags(tags, fingerprint);
+            return;
+        }
+
+        L.debug("Falling back to jaudiotagger for song: " + this);
+
+        AudioFile audioFile = readAudioFile();
+        if (audioFile != null)
+            loadTagsFromAudioFile(audioFile, fingerprint);
+    }
+
+    /**
+     * Reads the underlying file with jaudiotagger.
+     * @return the container of the tags, or null if the file can't be read
+     */
+    private AudioFile readAudioFile() {
         try {
-            mAudioFile = AudioFileIO.read(mFile);
+            return AudioFileIO.read(mFile);
         } catch (CannotReadException | InvalidAudioFrameException |
             ReadOnlyFileException | TagException | IOException e) {
             L.error("Error occurred while loading tags for song: " + this);
-            return;
+            return null;
         }
+    }
 
+    /**
+     * Loads every tag of the song, including the heavy ones and the
+     * header tags, from the given container.
+     * @param audioFile the container of the tags
+     * @param fingerprint the fingerprint of the file taken before the read
+     */
+    private void loadTagsFromAudioFile(AudioFile audioFile, SongFingerprint fingerprint) {
         // Read/write values container
-        Tag audioTag = mAudioFile.getTag();
+        Tag audioTag = audioFile.getTag();
+
+        setTags(
+            audioTag.getFirst(FieldKey.ARTIST),
+            audioTag.getFirst(FieldKey.TITLE),
+            audioTag.getFirst(FieldKey.ALBUM),
+            audioTag.getFirst(FieldKey.YEAR),
+            audioTag.getFirst(FieldKey.GENRE),
+            audioTag.getFirst(FieldKey.TRACK)
+        );
 
-        mArtistProperty.setValue(audioTag.getFirst(FieldKey.ARTIST));
-        mTitleProperty.setValue(audioTag.getFirst(FieldKey.TITLE));
-        mAlbumProperty.setValue(audioTag.getFirst(FieldKey.ALBUM));
-        mYearProperty.setValue(audioTag.getFirst(FieldKey.YEAR));
-        mGenreProperty.setValue(audioTag.getFirst(FieldKey.GENRE));
-        mTrackNumberProperty.setValue(audioTag.getFirst(FieldKey.TRACK));
-        mLyricsProperty.setValue(audioTag.getFirst(FieldKey.LYRICS));
-        mCover = audioTag.getFirstArtwork();
+        loadHeavyTags(audioTag);
 
         // Read/only values container
-        AudioHeader audioHeader = mAudioFile.getAudioHeader();
+        AudioHeader audioHeader = audioFile.getAudioHeader();
+
+        setAudioHeader(audioHeader.getBitRate(),
+            audioHeader.getSampleRate(), audioHeader.getChannels());
 
-        mBitRateProperty.set(audioHeader.getBitRate());
-        mSampleRateProperty.set(audioHeader.getSampleRate());
-        mChannelsProperty.set(audioHeader.getChannels());
+        mFingerprint = fingerprint;
+    }
+
+    /**
+     * Restores the tags of the song from a snapshot previously taken via
+     * {@link #getTags()}, without reading the underlying file.
+     * <p>
+     * The lyrics and the cover are not part of the snapshot, those are
+     * loaded from the file the first time they are required; the same
+     * applies to the header tags if the snapshot doesn't contain those.
+     * @param tags the snapshot of the tags
+     * @param fingerprint the fingerprint of the file the snapshot refers to
+     */
+    public void restoreTags(SongTags tags, SongFingerprint fingerprint) {
+        Asserts.assertNotNull(tags, "Can't restore null tags", L);
+
+        setTags(
+            tags.getArtist(), tags.getTitle(), tags.getAlbum(),
+            tags.getYear(), tags.getGenre(), tags.getTrackNumber()
+        );
+        mHasLyrics = tags.hasLyrics();
+        mHasCover = tags.hasCover();
+        mHeavyTags = null;
+
+        if (tags.hasAudioHeader())
+            setAudioHeader(tags.getBitRate(), tags.getSampleRate(), tags.getChannels());
+        else
+            mAudioHeaderLoaded = false;
+
+        mFingerprint = fingerprint;
+    }
+
+    /**
+     * Returns a snapshot of the current tags of the song, which can be used
+     * for restore those via {@link #restoreTags(SongTags, SongFingerprint)}.
+     * @return the snapshot of the tags, or null if the tags are not loaded
+     */
+    public SongTags getTags() {
+        if (!areTagsLoaded())
+            return null;
+
+        // The header tags are taken as they are, without load those
+        boolean audioHeaderLoaded = mAudioHeaderLoaded;
+
+        return new SongTags(
+            getArtist(), getTitle(), getAlbum(),
+            getYear(), getGenre(), getTrackNumber(),
+            mHasLyrics, mHasCover,
+            audioHeaderLoaded ? mBitRate : null,
+            audioHeaderLoaded ? mSampleRate : null,
+            audioHeaderLoaded ? mChannels : null
+        );
+    }
+
+    /**
+     * Returns whether the tags of the song have been loaded, either from
+     * the file or from a snapshot.
+     * @return whether the tags are loaded
+     */
+    public boolean areTagsLoaded() {
+        return mFingerprint != null;
+    }
+
+    /**
+     * Returns the fingerprint of the file at the time the tags have been loaded.
+     * @return the fingerprint, or null if the tags are not loaded
+     */
+    public SongFingerprint getFingerprint() {
+        return mFingerprint;
+    }
+
+    /**
+     * Returns the lyrics and the cover, loading those from the file if
+     * those exist but have not been loaded yet (or have been evicted).
+     * @return the heavy tags, or null if the song has neither the lyrics
+     *         nor the cover or those can't be loaded
+     */
+    private HeavyTags getHeavyTags() {
+        SoftReference<HeavyTags> heavyTagsRef = mHeavyTags;
+        HeavyTags heavyTags = heavyTagsRef != null ? heavyTagsRef.get() : null;
+
+        if (heavyTags != null || !(mHasLyrics || mHasCover))
+            return heavyTags;
+
+        L.debug("Loading heavy tags on demand for song: " + this);
+
+        AudioFile audioFile = readAudioFile();
+        if (audioFile == null)
+            return null;
+
+        // The container is not retained, only the heavy tags are
+        return loadHeavyTags(audioFile.getTag());
+    }
+
+    /**
+     * Loads the lyrics and the cover from the given tag.
+     * @param audioTag the tag
+     * @return the loaded heavy tags
+     */
+    private HeavyTags loadHeavyTags(Tag audioTag) {
+        HeavyTags heavyTags = audioTag != null ?
+            new HeavyTags(audioTag.getFirst(FieldKey.LYRICS), audioTag.getFirstArtwork()) :
+            new HeavyTags(null, null);
+
+        mHasLyrics = StringUtil.isValid(heavyTags.mLyrics);
+        mHasCover = heavyTags.mCover != null;
+        mHeavyTags = new SoftReference<>(heavyTags);
+
+        return heavyTags;
+    }
+
+    /**
+     * Loads the header tags from the file if those have not been loaded yet.
+     * <p>
+     * This reads the file on the calling thread, thus must not be called
+     * from the JavaFX thread.
+     */
+    public void loadAudioHeader() {
+        if (mAudioHeaderLoaded || !areTagsLoaded())
+            return;
+
+        L.debug("Loading header tags on demand for song: " + this);
+
+        SongTags tags = ID3TagsReader.read(mFile, true);
+
+        if (tags != null) {
+            setAudioHeader(tags.getBitRate(), tags.getSampleRate(), tags.getChannels());
+            return;
+        }
+
+        AudioFile audioFile = readAudioFile();
+        if (audioFile == null)
+            return;
+
+        AudioHeader audioHeader = audioFile.getAudioHeader();
+        setAudioHeader(audioHeader.getBitRate(),
+            audioHeader.getSampleRate(), audioHeader.getChannels());
+    }
+
+    /**
+     * Sets the header tags and marks those as loaded.
+     * @param bitRate the bit rate
+     * @param sampleRate the sample rate
+     * @param channels the channels
+     */
+    private synchronized void setAudioHeader(String bitRate, String sampleRate, String channels) {
+        mBitRate = bitRate;
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mAudioHeaderLoaded = true;
+
+        updateProperty(Field.BitRate, bitRate);
+        updateProperty(Field.SampleRate, sampleRate);
+        updateProperty(Field.Channels, channels);
+    }
+
+    /**
+     * Sets the read/write tags, updating their properties, if those exist.
+     * @param artist the artist
+     * @param title the title
+     * @param album the album
+     * @param year the year
+     * @param genre the genre
+     * @param trackNumber the track number
+     */
+    private synchronized void setTags(String artist, String title, String album,
+                                      String year, String genre, String trackNumber) {
+        TagDictionary dictionary = TagDictionary.instance();
+
+        mArtistId = dictionary.encode(artist);
+        mTitle = title;
+        mTitleSearchKey = StringUtil.toSearchKey(title);
+        mAlbumId = dictionary.encode(album);
+        mYearId = dictionary.encode(year);
+        mGenreId = dictionary.encode(genre);
+        mTrackNumber = trackNumber;
+
+        updateProperty(Field.Artist, getArtist());
+        updateProperty(Field.Title, title);
+        updateProperty(Field.Album, getAlbum());
+        updateProperty(Field.Year, getYear());
+        updateProperty(Field.Genre, getGenre());
+        updateProperty(Field.TrackNumber, trackNumber);
+
+        SongsIndex.instance().reindex(this);
+        SongsSearchIndex.instance().reindex(this);
+    }
+
+    /**
+     * Returns the observable property of the given field, creating it if
+     * it has never been requested.
+     * @param field the field
+     * @return the property of the field
+     */
+    private synchronized StringProperty getProperty(Field field) {
+        if (mProperties == null)
+            mProperties = new StringProperty[Field.VALUES.length];
+
+        StringProperty property = mProperties[field.ordinal()];
+
+        if (property == null) {
+            property = new SimpleStringProperty(this, field.mPropertyName, getValue(field));
+            mProperties[field.ordinal()] = property;
+        }
+
+        return property;
+    }
+
+    /**
+     * Updates the property of the given field, if it has been created.
+     * @param field the field
+     * @param value the new value of the field
+     */
+    // Must be called while holding the lock of this
+    private void updateProperty(Field field, String value) {
+        if (mProperties != null && mProperties[field.ordinal()] != null)
+            mProperties[field.ordinal()].set(value);
+    }
+
+    /**
+     * Returns the current value of the given field, without loading it.
+     * @param field the field
+     * @return the value of the field
+     */
+    private String getValue(Field field) {
+        switch (field) {
+            case Filename:
+                return getFilename();
+            case Path:
+                return mPath;
+            case Artist:
+                return getArtist();
+            case Title:
+                return mTitle;
+            case Album:
+                return getAlbum();
+            case Year:
+                return getYear();
+            case Genre:
+                return getGenre();
+            case TrackNumber:
+                return mTrackNumber;
+            case BitRate:
+                return mBitRate;
+            case SampleRate:
+                return mSampleRate;
+            case Channels:
+                return mChannels;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the pending modification of the tags, opening a new one
+     * if there is none.
+     * @return the write session, or null if the file can't be read or
+     *         has been modified since the tags have been loaded
+     */
+    private SongWriteSession ensureWriteSession() {
+        if (mWriteSession == null)
+            mWriteSession = SongWriteSession.open(mFile, mFingerprint);
+
+        if (mWriteSession == null)
+            L.error("Tags can't be overwritten for song: " + this);
+
+        return mWriteSession;
+    }
+
+    /**
+     * Returns whether the underlying file has been modified (e.g. by another
+     * application) since the tags of the song have been loaded.
+     * @return whether the file has changed on the disk
+     */
+    public boolean hasChangedOnDisk() {
+        SongFingerprint fingerprint = mFingerprint;
+        return fingerprint != null && !fingerprint.equals(SongFingerprint.of(mFile));
     }
 
     /**
@@ -533,28 +1050,58 @@ public class Song implements Comparable<Song>, Observable, FileWrapper {
      * <p>
      * This action cause this song to notify its listeners about the change
      * by calling {@link InvalidationListener#invalidated(Observable)}.
+     * <p>
+     * The commit fails if the file has been modified by someone else
+     * meanwhile (see {@link #hasChangedOnDisk()}).
      * @return true if the tags have been saved
      */
     public boolean commitTags()  {
-        try {
-            L.info("Overwriting tags of song: " + this);
+        L.info("Overwriting tags of song: " + this);
 
-            // Commit the changes to the underlying file
-            if (!mFile.exists()) {
-                L.error("Tags can't be written sing underlying file doesn't exist");
-                return false;
-            }
+        // The container is released whatever the outcome is
+        SongWriteSession session = mWriteSession;
+        mWriteSession = null;
 
-            mAudioFile.commit();
-            // Reload the new tags
-            loadTags();
-            // Notify the listeners about the change
-            mListeners.forEach(l -> l.invalidated(this));
+        if (session == null) {
+            L.error("There are no changes to commit for song: " + this);
+            return false;
+        }
+
+        // Commit the changes to the underlying file
+        if (!mFile.exists()) {
+            L.error("Tags can't be written sing underlying file doesn't exist");
+            return false;
+        }
 
-            return true;
-        } catch (CannotWriteException e) {
-            L.error("Exception occurred committing tags", e);
+        if (!session.commit())
             return false;
+
+        // Reload the new tags from the committed container
+        loadTagsFromAudioFile(session.getAudioFile(), SongFingerprint.of(mFile));
+        // Notify the listeners about the change
+        for (InvalidationListener l : mListeners)
+            l.invalidated(this);
+
+        return true;
+    }
+
+    /** Container of the heavy tags of a song. */
+    private static class HeavyTags {
+
+        /** Lyrics tag. */
+        private final String mLyrics;
+
+        /** Cover. */
+        private final Artwork mCover;
+
+        /**
+         * Creates a new container of heavy tags.
+         * @param lyrics the lyrics
+         * @param cover the cover
+         */
+        private HeavyTags(String lyrics, Artwork cover) {
+            mLyrics = lyrics;
+            mCover = cover;
         }
     }
 }
@@ -0,0 +1,90 @@
+package org.docheinstein.mp3doctor.song;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Represents the fingerprint of a song's file, made up of its last
+ * modification time and its size.
+ * <p>
+ * Two different fingerprints of the same file mean that the file has
+ * been changed and thus its tags have to be read again.
+ */
+public class SongFingerprint {
+
+    /** Last modification time of the file, in millis. */
+    private final long mLastModified;
+
+    /** Size of the file, in bytes. */
+    private final long mSize;
+
+    /**
+     * Creates a new fingerprint.
+     * @param lastModified the last modification time of the file, in millis
+     * @param size the size of the file, in bytes
+     */
+    public SongFingerprint(long lastModified, long size) {
+        mLastModified = lastModified;
+        mSize = size;
+    }
+
+    /**
+     * Returns the current fingerprint of the given file.
+     * <p>
+     * The attributes are read at once, which is cheaper than call both
+     * {@link File#lastModified()} and {@link File#length()}.
+     * @param file the file
+     * @return the fingerprint of the file, or null if the file doesn't exist
+     *         or can't be read
+     */
+    public static SongFingerprint of(File file) {
+        if (file == null)
+            return null;
+
+        try {
+            BasicFileAttributes attrs =
+                Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return new SongFingerprint(attrs.lastModifiedTime().toMillis(), attrs.size());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the last modification time of the file.
+     * @return the last modification time, in millis
+     */
+    public long getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * Returns the size of the file.
+     * @return the size, in bytes
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof SongFingerprint))
+            return false;
+        SongFingerprint other = (SongFingerprint) o;
+        return mLastModified == other.mLastModified && mSize == other.mSize;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(mLastModified) + Long.hashCode(mSize);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + mLastModified + " ; " + mSize + ")";
+    }
+}
@@ -0,0 +1,177 @@
+package org.docheinstein.mp3doctor.song;
+
+/**
+ * Represents an immutable snapshot of the tags extracted from a song's file.
+ * <p>
+ * The snapshot doesn't contain the heavy tags (i.e. the lyrics and the cover)
+ * but only whether those are present; this makes it cheap enough to be kept
+ * in the cache for every song of the library.
+ * <p>
+ * The audio header fields (bit rate, sample rate and channels) are null if
+ * the audio header has not been read (see {@link #hasAudioHeader()}).
+ *
+ * @see Song#getTags()
+ * @see Song#restoreTags(SongTags, SongFingerprint)
+ */
+public class SongTags {
+
+    /** Artist tag. */
+    private final String mArtist;
+
+    /** Title tag. */
+    private final String mTitle;
+
+    /** Album tag. */
+    private final String mAlbum;
+
+    /** Year tag. */
+    private final String mYear;
+
+    /** Genre tag. */
+    private final String mGenre;
+
+    /** Track number tag. */
+    private final String mTrackNumber;
+
+    /** Whether the song has the lyrics. */
+    private final boolean mHasLyrics;
+
+    /** Whether the song has a cover. */
+    private final boolean mHasCover;
+
+    /** Bit rate header. */
+    private final String mBitRate;
+
+    /** Sample rate header. */
+    private final String mSampleRate;
+
+    /** Channels header. */
+    private final String mChannels;
+
+    /**
+     * Creates a new snapshot of tags.
+     * @param artist the artist
+     * @param title the title
+     * @param album the album
+     * @param year the year
+     * @param genre the genre
+     * @param trackNumber the track number
+     * @param hasLyrics whether the song has the lyrics
+     * @param hasCover whether the song has a cover
+     * @param bitRate the bit rate
+     * @param sampleRate the sample rate
+     * @param channels the channels
+     */
+    public SongTags(String artist, String title, String album,
+                    String year, String genre, String trackNumber,
+                    boolean hasLyrics, boolean hasCover,
+                    String bitRate, String sampleRate, String channels) {
+        mArtist = artist;
+        mTitle = title;
+        mAlbum = album;
+        mYear = year;
+        mGenre = genre;
+        mTrackNumber = trackNumber;
+        mHasLyrics = hasLyrics;
+        mHasCover = hasCover;
+        mBitRate = bitRate;
+        mSampleRate = sampleRate;
+        mChannels = channels;
+    }
+
+    /**
+     * Returns the artist tag.
+     * @return the artist
+     */
+    public String getArtist() {
+        return mArtist;
+    }
+
+    /**
+     * Returns the title tag.
+     * @return the title
+     */
+    public String getTitle() {
+        return mTitle;
+    }
+
+    /**
+     * Returns the album tag.
+     * @return the album
+     */
+    public String getAlbum() {
+        return mAlbum;
+    }
+
+    /**
+     * Returns the year tag.
+     * @return the year
+     */
+    public String getYear() {
+        return mYear;
+    }
+
+    /**
+     * Returns the genre tag.
+     * @return the genre
+     */
+    public String getGenre() {
+        return mGenre;
+    }
+
+    /**
+     * Returns the track number tag.
+     * @return the track number
+     */
+    public String getTrackNumber() {
+        return mTrackNumber;
+    }
+
+    /**
+     * Returns whether the song has the lyrics.
+     * @return whether the song has the lyrics
+     */
+    public boolean hasLyrics() {
+        return mHasLyrics;
+    }
+
+    /**
+     * Returns whether the song has a cover.
+     * @return whether the song has a cover
+     */
+    public boolean hasCover() {
+        return mHasCover;
+    }
+
+    /**
+     * Returns whether the snapshot contains the audio header fields.
+     * @return whether the audio header has been read
+     */
+    public boolean hasAudioHeader() {
+        return mBitRate != null;
+    }
+
+    /**
+     * Returns the bit rate header.
+     * @return the bit rate
+     */
+    public String getBitRate() {
+        return mBitRate;
+    }
+
+    /**
+     * Returns the sample rate header.
+     * @return the sample rate
+     */
+    public String getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * Returns the channels header.
+     * @return the channels
+     */
+    public String getChannels() {
+        return mChannels;
+    }
+}
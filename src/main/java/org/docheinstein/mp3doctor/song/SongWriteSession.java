@@ -0,0 +1,121 @@
+package org.docheinstein.mp3doctor.song;
+
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.jaudiotagger.audio.AudioFile;
+import org.jaudiotagger.audio.AudioFileIO;
+import org.jaudiotagger.audio.exceptions.CannotReadException;
+import org.jaudiotagger.audio.exceptions.CannotWriteException;
+import org.jaudiotagger.audio.exceptions.InvalidAudioFrameException;
+import org.jaudiotagger.audio.exceptions.ReadOnlyFileException;
+import org.jaudiotagger.tag.Tag;
+import org.jaudiotagger.tag.TagException;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Represents a pending modification of the tags of a song's file.
+ * <p>
+ * The file is read by jaudiotagger when the session is opened and the
+ * read container is kept only till the session is committed, so that
+ * the songs don't have to retain their containers.
+ * <p>
+ * Concurrent modifications of the file are detected by comparing its
+ * fingerprint with the one of the tags the user is editing, both when
+ * the session is opened and when it is committed.
+ *
+ * @see Song#overwriteTags(java.util.Map, boolean)
+ * @see Song#commitTags()
+ */
+class SongWriteSession {
+
+    private static final Logger L = Logger.createForClass(SongWriteSession.class);
+
+    /** Underlying song's file. */
+    private final File mFile;
+
+    /** Container of the tags being modified. */
+    private final AudioFile mAudioFile;
+
+    /** Fingerprint of the file at the time the session has been opened. */
+    private final SongFingerprint mFingerprint;
+
+    /**
+     * Creates a new session.
+     * @param file the song's file
+     * @param audioFile the container of the tags
+     * @param fingerprint the fingerprint of the file taken before the read
+     */
+    private SongWriteSession(File file, AudioFile audioFile, SongFingerprint fingerprint) {
+        mFile = file;
+        mAudioFile = audioFile;
+        mFingerprint = fingerprint;
+    }
+
+    /**
+     * Opens a session for the given file.
+     * @param file the song's file
+     * @param expectedFingerprint the fingerprint of the file the edited tags
+     *                            have been loaded from, or null if unknown
+     * @return the session, or null if the file has been modified since the
+     *         tags have been loaded or can't be read
+     */
+    static SongWriteSession open(File file, SongFingerprint expectedFingerprint) {
+        SongFingerprint fingerprint = SongFingerprint.of(file);
+
+        if (fingerprint == null) {
+            L.error("Can't open write session since file doesn't exist: " + file);
+            return null;
+        }
+
+        if (expectedFingerprint != null && !expectedFingerprint.equals(fingerprint)) {
+            L.warn("File has been modified since its tags have been loaded: " + file);
+            return null;
+        }
+
+        try {
+            return new SongWriteSession(file, AudioFileIO.read(file), fingerprint);
+        } catch (CannotReadException | InvalidAudioFrameException |
+            ReadOnlyFileException | TagException | IOException e) {
+            L.error("Error occurred while opening write session for file: " + file);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the tag being modified, which is created if the file
+     * doesn't have one.
+     * @return the tag
+     */
+    Tag getTag() {
+        return mAudioFile.getTagOrCreateAndSetDefault();
+    }
+
+    /**
+     * Returns the container of the tags being modified.
+     * @return the container of the tags
+     */
+    AudioFile getAudioFile() {
+        return mAudioFile;
+    }
+
+    /**
+     * Writes the modified tags to the file.
+     * @return false if the file has been modified since the session has
+     *         been opened or the tags can't be written
+     */
+    boolean commit() {
+        if (!mFingerprint.equals(SongFingerprint.of(mFile))) {
+            L.warn("File has been modified during the write session: " + mFile);
+            return false;
+        }
+
+        try {
+            mAudioFile.commit();
+            return true;
+        } catch (CannotWriteException e) {
+            L.error("Exception occurred committing tags", e);
+            return false;
+        }
+    }
+}
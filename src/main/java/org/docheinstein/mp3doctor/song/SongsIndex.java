@@ -0,0 +1,206 @@
+package org.docheinstein.mp3doctor.song;
+
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * Secondary indexes of the songs of the library over the tags kept in
+ * the {@link TagDictionary} (e.g. the songs of an artist).
+ * <p>
+ * The indexes are maintained incrementally: the songs are indexed when
+ * they are added to the library, unindexed when they are removed and
+ * reindexed whenever their tags change, thus the songs with a given tag
+ * value can be retrieved without scanning the library.
+ * <p>
+ * The songs with a given tag value are kept in the order they have been
+ * filed under it, that is the order of the library, but for the songs
+ * whose tag has changed, which come after.
+ * <p>
+ * The index by path is kept by the {@link SongsManager} itself.
+ */
+public class SongsIndex {
+
+    private static final Logger L = Logger.createForClass(SongsIndex.class);
+
+    /** Tag the songs can be indexed by. */
+    public enum Key {
+        Artist(Song::getArtistId),
+        Album(Song::getAlbumId),
+        Year(Song::getYearId),
+        Genre(Song::getGenreId)
+        ;
+
+        /** Cached values, for avoid to copy those at each call of values(). */
+        private static final Key[] VALUES = values();
+
+        /** Function that returns the id of the tag of a song. */
+        private final ToIntFunction<Song> mIdGetter;
+
+        /**
+         * Creates a key for the tag returned by the given function.
+         * @param idGetter the function that returns the id of the tag of a song
+         */
+        Key(ToIntFunction<Song> idGetter) {
+            mIdGetter = idGetter;
+        }
+
+        /**
+         * Returns the id of this tag for the given song.
+         * @param song the song
+         * @return the id of the tag in the {@link TagDictionary}
+         */
+        public int getId(Song song) {
+            return mIdGetter.applyAsInt(song);
+        }
+    }
+
+    /** Unique instance of this class. */
+    private static final SongsIndex INSTANCE = new SongsIndex();
+
+    /**
+     * Returns the unique instance of this class.
+     * @return the unique instance of this class
+     */
+    public static SongsIndex instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Ids under which each indexed song is filed, one per key; those are
+     * needed for find the song again after its tags have changed.
+     */
+    // Guarded by this
+    private final Map<Song, int[]> mIndexedIds = new IdentityHashMap<>();
+
+    /** Songs by id, in filing order, one map per key. */
+    // Guarded by this
+    private final List<Map<Integer, Set<Song>>> mSongsById = new ArrayList<>();
+
+    /** Creates the index. */
+    private SongsIndex() {
+        for (Key ignored : Key.VALUES)
+            mSongsById.add(new HashMap<>());
+    }
+
+    /**
+     * Returns the songs grouped by the id of the given tag.
+     * @param key the tag
+     * @return a copy of the groups of songs, by id; the songs of each group
+     *         are in filing order
+     */
+    public synchronized Map<Integer, List<Song>> getSongsById(Key key) {
+        Map<Integer, Set<Song>> index = mSongsById.get(key.ordinal());
+        Map<Integer, List<Song>> groups = new HashMap<>(index.size() * 2);
+
+        index.forEach((id, songs) -> groups.put(id, new ArrayList<>(songs)));
+
+        return groups;
+    }
+
+    /**
+     * Returns the songs with the given id of the given tag.
+     * @param key the tag
+     * @param id the id of the value of the tag
+     * @return a copy of the songs with the given value, in filing order
+     */
+    public synchronized List<Song> getSongs(Key key, int id) {
+        Set<Song> songs = mSongsById.get(key.ordinal()).get(id);
+        return songs != null ? new ArrayList<>(songs) : new ArrayList<>();
+    }
+
+    /**
+     * Adds the given songs to the indexes.
+     * @param songs the songs added to the library
+     */
+    synchronized void add(Collection<? extends Song> songs) {
+        for (Song song : songs) {
+            if (mIndexedIds.containsKey(song))
+                continue;
+
+            int[] ids = new int[Key.VALUES.length];
+
+            for (Key key : Key.VALUES) {
+                ids[key.ordinal()] = key.getId(song);
+                file(key, ids[key.ordinal()], song);
+            }
+
+            mIndexedIds.put(song, ids);
+        }
+    }
+
+    /**
+     * Removes the given songs from the indexes.
+     * @param songs the songs removed from the library
+     */
+    synchronized void remove(Collection<? extends Song> songs) {
+        for (Song song : songs) {
+            int[] ids = mIndexedIds.remove(song);
+
+            if (ids == null)
+                continue;
+
+            for (Key key : Key.VALUES)
+                unfile(key, ids[key.ordinal()], song);
+        }
+    }
+
+    /**
+     * Moves the given song under its current ids, if it is indexed.
+     * <p>
+     * This must be called whenever the tags of a song change.
+     * @param song the song whose tags have changed
+     */
+    synchronized void reindex(Song song) {
+        int[] ids = mIndexedIds.get(song);
+
+        if (ids == null)
+            return;
+
+        for (Key key : Key.VALUES) {
+            int newId = key.getId(song);
+            int oldId = ids[key.ordinal()];
+
+            if (newId != oldId) {
+                unfile(key, oldId, song);
+                file(key, newId, song);
+                ids[key.ordinal()] = newId;
+            }
+        }
+    }
+
+    /**
+     * Files the given song under the given id of the given tag.
+     * @param key the tag
+     * @param id the id
+     * @param song the song
+     */
+    private void file(Key key, int id, Song song) {
+        mSongsById.get(key.ordinal())
+            // Songs don't override equals(), thus this is still by identity
+            .computeIfAbsent(id, k -> new LinkedHashSet<>())
+            .add(song);
+    }
+
+    /**
+     * Removes the given song from the given id of the given tag.
+     * @param key the tag
+     * @param id the id
+     * @param song the song
+     */
+    private void unfile(Key key, int id, Song song) {
+        Map<Integer, Set<Song>> index = mSongsById.get(key.ordinal());
+        Set<Song> songs = index.get(id);
+
+        if (songs == null) {
+            L.warn("Song was not indexed under the expected id: " + song);
+            return;
+        }
+
+        songs.remove(song);
+
+        if (songs.isEmpty())
+            index.remove(id);
+    }
+}
@@ -1,17 +1,27 @@
 package org.docheinstein.mp3doctor.song;
 
+import javafx.application.Platform;
+import org.docheinstein.mp3doctor.commons.constants.Config;
 import org.docheinstein.mp3doctor.commons.logger.Logger;
 import org.docheinstein.mp3doctor.cache.CacheHierarchy;
+import org.docheinstein.mp3doctor.cache.CacheReader;
+import org.docheinstein.mp3doctor.cache.CacheWriter;
+import org.docheinstein.mp3doctor.cache.SongTagsStore;
+import org.docheinstein.mp3doctor.cache.SongsJournal;
 import org.docheinstein.mp3doctor.commons.adt.ObservableFileListManager;
 import org.docheinstein.mp3doctor.commons.adt.ObservableListManager;
 import org.docheinstein.mp3doctor.commons.utils.Asserts;
 import org.docheinstein.mp3doctor.commons.utils.CollectionsUtil;
 import org.docheinstein.mp3doctor.commons.utils.FileUtil;
+import org.docheinstein.mp3doctor.song.importer.LibraryWatcher;
+import org.docheinstein.mp3doctor.song.importer.SongFilesWalker;
+import org.docheinstein.mp3doctor.song.loader.SongTagsLoader;
 import org.docheinstein.mp3doctor.ui.commons.alert.AlertInstance;
 
 import java.io.File;
-import java.io.PrintWriter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * Manager responsible for keep in memory the songs imported in the library.
@@ -24,6 +34,17 @@ public class SongsManager extends ObservableListManager<Song> {
 
     private static final Logger L = Logger.createForClass(SongsManager.class);
 
+    /** Interface that lets listeners be notified when the user imports songs. */
+    public interface SongsImportListener {
+
+        /**
+         * Called, from the JavaFX thread, when an import requested by the user
+         * begins; the job can be polled for the progress of the import.
+         * @param job the job that tracks the import
+         */
+        void onImportStarted(ImportJob job);
+    }
+
     /** Unique instance of this class. */
     private static final SongsManager INSTANCE = new SongsManager();
 
@@ -35,115 +56,413 @@ public class SongsManager extends ObservableListManager<Song> {
         return INSTANCE;
     }
 
+    /**
+     * Songs of the library by path, kept in sync with the underlying
+     * list so that songs can be found (e.g. duplicates can be detected)
+     * without scanning it.
+     */
+    // Modified only from the thread that modifies the list
+    private final Map<String, Song> mSongsByPath = new ConcurrentHashMap<>();
+
+    /** Import jobs that have not ended yet. */
+    private final Set<ImportJob> mActiveJobs = new CopyOnWriteArraySet<>();
+
+    /** Listeners notified when the user imports songs. */
+    private final Set<SongsImportListener> mImportListeners = new CopyOnWriteArraySet<>();
+
+    /** Paths of the directories imported in the library. */
+    // Accessed only from the JavaFX thread
+    private final Set<String> mLibraryRoots = new LinkedHashSet<>();
+
+    /** Watcher of the directories imported in the library. */
+    private final LibraryWatcher mWatcher =
+        new LibraryWatcher(changes -> Platform.runLater(() -> syncFiles(changes)));
+
     /** Creates a new songs manager. */
     private SongsManager() {
         super();
         loadSongsFromCache();
+        loadLibraryRootsFromCache();
+
+        // The tags are loaded asynchronously after the songs have been added,
+        // store those as soon as they are loaded
+        SongTagsLoader.instance().addListener(new SongTagsLoader.SongTagsLoaderListener() {
+            @Override
+            public void onSongLoaded(Song song) {
+                SongTagsStore.instance().put(song);
+                mActiveJobs.forEach(j -> j.onSongLoaded(song));
+            }
+
+            @Override
+            public void onSongNotLoaded(Song song) {
+                // Searchable at least by its path
+                SongsSearchIndex.instance().reindex(song);
+                mActiveJobs.forEach(j -> j.onSongNotLoaded(song));
+            }
+
+            @Override
+            public void onLoadingFinished() {
+                L.debug("Songs tags have been loaded, flushing tags store");
+                SongTagsStore.instance().flush();
+            }
+        });
     }
 
     @Override
     public void onElementsAdded(List<? extends Song> songs) {
         L.verbose("Songs have been added to the manager, saving to cache");
-        saveSongsToCache();
+        SongsJournal.instance().add(songs);
+        compactSongsCacheIfNeeded();
     }
 
     @Override
     public void onElementsRemoved(List<? extends Song> songs) {
         L.verbose("Songs have been removed from the manager, saving to cache");
-        saveSongsToCache();
+        songs.forEach(s -> mSongsByPath.remove(s.getPath()));
+        SongsIndex.instance().remove(songs);
+        SongsSearchIndex.instance().remove(songs);
+        mActiveJobs.forEach(j -> j.onSongsRemoved(songs));
+        SongTagsLoader.instance().discard(songs);
+        SongTagsStore.instance().removeAll(songs);
+        SongsJournal.instance().remove(songs);
+        compactSongsCacheIfNeeded();
     }
 
     @Override
     public void onElementsChanged(List<? extends Song> songs) {
-        L.verbose("Songs have been updated in the manager, but nothing to do");
+        L.verbose("Songs have been updated in the manager, saving their tags");
+        SongTagsStore.instance().putAll(songs);
+    }
+
+    /**
+     * Adds a listener that will be notified when the user imports songs.
+     * @param listener the listener
+     */
+    public void addImportListener(SongsImportListener listener) {
+        if (listener != null)
+            mImportListeners.add(listener);
+    }
+
+    /**
+     * Removes a previously added import listener from the listener set.
+     * @param listener the listener that won't be notified anymore
+     */
+    public void removeImportListener(SongsImportListener listener) {
+        mImportListeners.remove(listener);
+    }
+
+    /**
+     * Returns the song of the library for the given file.
+     * @param file the file of the song
+     * @return the song, or null if the file is not in the library
+     */
+    public Song getSong(File file) {
+        Asserts.assertNotNull(file, "Can't find song for a null file", L);
+        return mSongsByPath.get(file.getAbsolutePath());
     }
 
     /**
      * Adds a single song to the library for the given file.
      * @param file the file of the song to add
-
+     * @return the job that tracks the import
+     *
      * @see #addFromFiles(File[])
      * @see #addFromFiles(Collection)
      */
-    public void addFromFile(File file) {
+    public ImportJob addFromFile(File file) {
         Asserts.assertNotNull(file, "Can't import null file", L);
-        addFromFiles(new File[] { file });
+        return addFromFiles(new File[] { file });
     }
 
     /**
      * Adds multiple songs to the library for the given files.
      * @param files the files of the songs to add
+     * @return the job that tracks the import
      *
      * @see #addFromFiles(File[])
      */
-    public void addFromFiles(Collection<File> files) {
+    public ImportJob addFromFiles(Collection<File> files) {
         Asserts.assertNotNull(files, "Can't import null files", L);
-        addFromFiles(files.toArray(new File[0]));
+        return addFromFiles(files.toArray(new File[0]));
     }
 
     /**
      * Adds multiple songs to the library for the given files.
+     * <p>
+     * The given files can be either .mp3 files, which are added immediately,
+     * or directories, which are walked asynchronously; the songs found in
+     * the directories are added in chunks, from the JavaFX thread, while the
+     * walk proceeds.
+     * <p>
+     * The returned job reports the progress of the import and can be used
+     * for cancel it; the user is notified when the job finishes, i.e. when
+     * the tags of the imported songs have been loaded.
+     * <p>
+     * The directories are watched afterwards, so that the changes made
+     * to their files are applied to the library.
+     * This method must be called from the JavaFX thread.
      * @param files the files of the songs to add
+     * @return the job that tracks the import
      *
      * @see #addFromFiles(Collection)
      */
-    public void addFromFiles(File[] files) {
+    public ImportJob addFromFiles(File[] files) {
         Asserts.assertNotNull(files, "Can't import null files", L);
         L.debug("Importing songs from files");
 
-        // The songs are added all at once instead of adding them one by one
-        // in order to fire the onElementsAdded callback just once.
+        ImportJob job = importFiles(files, true);
 
-        List<Song> newSongs = createSongsFromMP3Files(files);
-        CollectionsUtil.addIfNotNull(mList, newSongs);
+        List<File> newRoots = new ArrayList<>();
 
-        // Loads the tags for the added songs
-        loadSongsTagsAsync(newSongs);
+        for (File f : files) {
+            if (f.isDirectory() && mLibraryRoots.add(f.getAbsolutePath()))
+                newRoots.add(f);
+        }
 
-        // Duplicates are not allowed in the library
-        int listSize = mList.size();
-        CollectionsUtil.sortAndRemoveDuplicates(mList, Song::compareTo);
+        if (!newRoots.isEmpty()) {
+            saveLibraryRootsToCache();
+            mWatcher.watch(newRoots);
+        }
 
-        int duplicatedSongCount = listSize - mList.size();
-        if (duplicatedSongCount > 0) {
-            L.warn("Duplicated songs have been found, those have been skipped");
-            AlertInstance.DuplicatedSongs.show(duplicatedSongCount);
+        return job;
+    }
+
+    /**
+     * Adds multiple songs to the library for the given files, which can be
+     * either .mp3 files or directories.
+     * @param files the files of the songs to add
+     * @param notifyUser whether the user should be notified about the
+     *                   progress of the import and about the added songs
+     *                   when the import finishes
+     * @return the job that tracks the import
+     */
+    private ImportJob importFiles(File[] files, boolean notifyUser) {
+        List<File> directories = new ArrayList<>();
+        List<File> songFiles = new ArrayList<>();
+
+        for (File f : files) {
+            if (f.isDirectory())
+                directories.add(f);
+            else
+                songFiles.add(f);
         }
+
+        ImportJob job = new ImportJob();
+        job.addListener(j -> onImportFinished(j, notifyUser));
+        mActiveJobs.add(job);
+
+        // Notified before the import begins, so that the listeners can't
+        // miss the end of the job
+        if (notifyUser)
+            mImportListeners.forEach(l -> l.onImportStarted(job));
+
+        if (!songFiles.isEmpty())
+            addSongs(createSongsFromMP3Files(songFiles), job);
+
+        if (!directories.isEmpty())
+            addFromDirectories(directories, job);
+        else
+            job.onDiscoveryFinished();
+
+        return job;
     }
 
     /**
-     * Creates a list of songs for the given files.
-     * @param files the songs files
-     * @return a list that contains a song for each file in the given array
+     * Walks the given directories in background and adds the found songs
+     * to the library in chunks of {@link Config.Library#IMPORT_CHUNK_SIZE}.
+     * @param directories the directories to walk
+     * @param job the job that tracks the import
      */
-    private static List<Song> createSongsFromMP3Files(File[] files) {
-        Asserts.assertNotNull(files, "Can't import null files", L);
+    private void addFromDirectories(List<File> directories, ImportJob job) {
+        SongFilesWalker walker = new SongFilesWalker(
+            chunk -> {
+                // The walker already filtered the .mp3 files, there is no need
+                // to check those again
+                List<Song> chunkSongs = new ArrayList<>(chunk.size());
+                chunk.forEach(f -> chunkSongs.add(new Song(f, false)));
+
+                Platform.runLater(() -> {
+                    // The chunk may have been queued before the cancellation
+                    if (!job.isCancelled())
+                        addSongs(chunkSongs, job);
+                });
+            },
+            Config.Library.IMPORT_CHUNK_SIZE
+        );
+
+        job.setWalker(walker);
+
+        // Queued after the last chunk, thus every song has been added by then
+        walker.walk(directories, () -> Platform.runLater(() -> {
+            L.debug("Directories walk finished");
+            job.onDiscoveryFinished();
+        }));
+    }
 
-        List<Song> songsInPath = new ArrayList<>();
+    /**
+     * Called, from any thread, when an import job finishes or is cancelled.
+     * <p>
+     * If the job has been cancelled the imported songs whose tags have not
+     * been loaded yet are removed from the library, otherwise the user is
+     * notified about the imported songs, if requested.
+     * @param job the job
+     * @param notifyUser whether the user should be notified
+     */
+    private void onImportFinished(ImportJob job, boolean notifyUser) {
+        mActiveJobs.remove(job);
+
+        if (!job.isCancelled() && !notifyUser)
+            return;
+
+        Platform.runLater(() -> {
+            if (job.isCancelled()) {
+                Set<Song> pendingSongs = new HashSet<>(job.getPendingSongs());
+                L.info("Removing " + pendingSongs.size() + " songs of the cancelled import");
+                mList.removeAll(pendingSongs);
+                return;
+            }
+
+            AlertInstance.SongsAdded.show(job.getImportedSongCount(), "library");
+
+            if (job.getDuplicatedFileCount() > 0) {
+                L.warn("Duplicated songs have been found, those have been skipped");
+                AlertInstance.DuplicatedSongs.show(job.getDuplicatedFileCount());
+            }
+        });
+    }
+
+    /**
+     * Applies to the library the changes made to the given paths, which have
+     * been reported by the {@link LibraryWatcher}.
+     * <p>
+     * The songs whose file doesn't exist anymore are removed, the songs whose
+     * file has been modified since their tags have been loaded are reloaded,
+     * and the new files and directories are imported; the songs under
+     * the directories that don't exist anymore are removed as well.
+     * @param paths the changed paths
+     */
+    private void syncFiles(Set<File> paths) {
+        L.debug("Syncing library with " + paths.size() + " changed paths");
+
+        Set<Song> removedSongs = new HashSet<>();
+        List<Song> modifiedSongs = new ArrayList<>();
+        List<File> newFiles = new ArrayList<>();
+
+        // Directories whose songs have to be checked, with the trailing separator
+        List<String> directoryPrefixes = new ArrayList<>();
+
+        for (File f : paths) {
+            String path = f.getAbsolutePath();
+            Song song = mSongsByPath.get(path);
 
-        for (File f : files) {
             if (f.isDirectory()) {
-                L.verbose("Found an inner directory, entering it recursively: "
-                    + f.getAbsolutePath());
-                File[] innerFiles = f.listFiles();
+                // Moved in, created or rescanned: import what is new and
+                // drop what has gone
+                newFiles.add(f);
+                directoryPrefixes.add(path + File.separator);
+            }
+            else if (f.exists()) {
+                if (song == null)
+                    newFiles.add(f);
+                else if (song.hasChangedOnDisk())
+                    modifiedSongs.add(song);
+            }
+            else if (song != null) {
+                removedSongs.add(song);
+            }
+            else {
+                // Might have been a directory
+                directoryPrefixes.add(path + File.separator);
+            }
+        }
 
-                if (innerFiles == null) {
-                    L.warn("Inner directory returned null file list, skipping it");
-                    continue;
+        if (!directoryPrefixes.isEmpty()) {
+            for (Song song : mList) {
+                for (String prefix : directoryPrefixes) {
+                    if (song.getPath().startsWith(prefix)) {
+                        if (!song.getWrappedFile().exists())
+                            removedSongs.add(song);
+                        break;
+                    }
                 }
-
-                // Retrieve the song list for the nested dir and add it the the
-                // list of songs in this path
-                CollectionsUtil.addIfNotNull(songsInPath,
-                    createSongsFromMP3Files(innerFiles));
-            } else {
-                // Add the single song to the list of songs in this path
-                CollectionsUtil.addIfNotNull(songsInPath,
-                    createSongFromMP3File(f));
             }
         }
 
-        return songsInPath;
+        L.info("Library sync; removed songs: " + removedSongs.size() +
+            ", modified songs: " + modifiedSongs.size() +
+            ", new files or directories: " + newFiles.size());
+
+        if (!removedSongs.isEmpty())
+            mList.removeAll(removedSongs);
+
+        SongTagsLoader.instance().reload(modifiedSongs);
+
+        if (!newFiles.isEmpty())
+            importFiles(newFiles.toArray(new File[0]), false);
+    }
+
+    /**
+     * Adds the given songs to the library at once and loads their tags
+     * asynchronously.
+     * <p>
+     * The songs whose path is already in the library (or that appear more
+     * than once among the given songs) are skipped, since duplicates are
+     * not allowed in the library.
+     * @param newSongs the songs to add
+     * @param job the job the songs are imported by, or null if the songs
+     *            are not being imported (e.g. are loaded from the cache)
+     * @return the number of duplicated songs that have been skipped
+     */
+    private int addSongs(List<Song> newSongs, ImportJob job) {
+        if (newSongs == null)
+            return 0;
+
+        List<Song> uniqueSongs = new ArrayList<>(newSongs.size());
+
+        for (Song song : newSongs) {
+            if (song != null && mSongsByPath.putIfAbsent(song.getPath(), song) == null)
+                uniqueSongs.add(song);
+        }
+
+        int duplicatedSongCount = newSongs.size() - uniqueSongs.size();
+
+        // Accounted before the loading begins, so that the job can't
+        // miss the songs loaded immediately
+        if (job != null)
+            job.onSongsDiscovered(uniqueSongs, duplicatedSongCount);
+
+        // Indexed before being added, so that the listeners find them;
+        // the search index is built in background, as the tags are loaded
+        SongsIndex.instance().add(uniqueSongs);
+        SongsSearchIndex.instance().add(uniqueSongs);
+
+        // The songs are added all at once instead of adding them one by one
+        // in order to fire the onElementsAdded callback just once.
+        if (!uniqueSongs.isEmpty())
+            mList.addAll(uniqueSongs);
+
+        // Loads the tags for the added songs (that have not been restored)
+        loadSongsTagsAsync(uniqueSongs);
+
+        return duplicatedSongCount;
+    }
+
+    /**
+     * Creates a list of songs for the given files.
+     * <p>
+     * The files that are not valid .mp3 files are skipped.
+     * @param files the songs files
+     * @return a list that contains a song for each valid file in the given list
+     */
+    private static List<Song> createSongsFromMP3Files(List<File> files) {
+        Asserts.assertNotNull(files, "Can't import null files", L);
+
+        List<Song> songs = new ArrayList<>();
+
+        for (File f : files)
+            CollectionsUtil.addIfNotNull(songs, createSongFromMP3File(f));
+
+        return songs;
     }
 
     /**
@@ -174,52 +493,138 @@ public class SongsManager extends ObservableListManager<Song> {
 
     /**
      * Loads the songs from the disk to the in memory list.
+     * <p>
+     * The paths are read from the {@link SongsJournal}; the songs whose
+     * file doesn't exist anymore are skipped.
+     * <p>
+     * The tags of the songs whose file hasn't changed since the tags have been
+     * stored (i.e. whose fingerprint matches the stored one) are restored from
+     * the {@link SongTagsStore}, while the tags of the others are loaded
+     * asynchronously from their file.
      */
     private void loadSongsFromCache() {
         L.debug("Loading song list from cache");
-        Scanner cacheScanner = FileUtil.getScanner(
-            CacheHierarchy.instance().getSongsEntry().getWrappedFile());
 
-        if (cacheScanner == null)
-            return;
+        Collection<String> cachedPaths = SongsJournal.instance().load();
+
+        Map<String, SongTagsStore.Snapshot> snapshots =
+            SongTagsStore.instance().load();
+
+        List<Song> cachedSongs = new ArrayList<>();
+        int restoredSongCount = 0;
 
-        List<File> cachedSongsFiles = new ArrayList<>();
+        for (String path : cachedPaths) {
+            File songFile = new File(path);
 
-        while (cacheScanner.hasNext())
-            cachedSongsFiles.add(new File(cacheScanner.nextLine()));
+            SongFingerprint fingerprint = SongFingerprint.of(songFile);
+
+            if (fingerprint == null) {
+                L.warn("Skipping cached song whose file doesn't exist anymore: " +
+                    songFile.getName());
+                continue;
+            }
 
-        // Add all the songs at once
-        addFromFiles(cachedSongsFiles);
+            Song song = new Song(songFile, false);
 
-        cacheScanner.close();
+            SongTagsStore.Snapshot snapshot = snapshots.get(song.getPath());
+
+            if (snapshot != null && snapshot.getFingerprint().equals(fingerprint)) {
+                song.restoreTags(snapshot.getTags(), fingerprint);
+                restoredSongCount++;
+            }
+
+            cachedSongs.add(song);
+        }
+
+        L.info("Songs found in cache: " + cachedSongs.size() +
+            "; restored without reading the file: " + restoredSongCount);
+
+        // Add all the songs at once; only the songs
+        // that have not been restored are loaded.
+        // The songs are already in the cache, there is no need to record those
+        stopListObservation();
+        addSongs(cachedSongs, null);
+        startListObservation();
+
+        // Rewrites the cache without the skipped songs
+        if (mList.size() < cachedPaths.size())
+            SongsJournal.instance().compact(mList);
+        else
+            compactSongsCacheIfNeeded();
+
+        SongTagsStore.instance().compact(mList);
     }
 
     /**
-     * Saves the song list to the disk.
+     * Loads the directories imported in the library from the disk and
+     * begins to watch those.
+     * <p>
+     * The directories that don't exist anymore are forgotten.
      */
-    private void saveSongsToCache() {
-        L.info("Saving song list from library to cache");
-        PrintWriter cacheWriter = FileUtil.getWriter(
-            CacheHierarchy.instance().getSongsEntry().getWrappedFile());
+    private void loadLibraryRootsFromCache() {
+        CacheReader cacheReader = CacheReader.open(
+            CacheHierarchy.instance().getLibraryRootsEntry().getWrappedFile());
+
+        if (cacheReader == null)
+            return;
+
+        List<File> roots = new ArrayList<>();
+
+        String line;
+        while ((line = cacheReader.readLine()) != null) {
+            if (line.isEmpty())
+                continue;
+
+            File root = new File(line);
+
+            if (!root.isDirectory()) {
+                L.warn("Skipping library directory that doesn't exist anymore: " + line);
+                continue;
+            }
+
+            if (mLibraryRoots.add(root.getAbsolutePath()))
+                roots.add(root);
+        }
+
+        cacheReader.close();
+
+        L.info("Library directories found in cache: " + roots.size());
+
+        if (!roots.isEmpty())
+            mWatcher.watch(roots);
+    }
+
+    /** Saves the directories imported in the library to the disk. */
+    private void saveLibraryRootsToCache() {
+        CacheWriter cacheWriter = CacheWriter.open(
+            CacheHierarchy.instance().getLibraryRootsEntry().getWrappedFile(), false);
 
         if (cacheWriter == null)
             return;
 
-        mList.forEach(s -> cacheWriter.println(s.getPath()));
+        mLibraryRoots.forEach(cacheWriter::writeLine);
 
         cacheWriter.close();
     }
 
     /**
-     * Starts a thread that asynchronously load the tags for each given song.
+     * Merges the journal of the songs cache into a new snapshot, if the
+     * journal has grown too much.
+     *
+     * @see SongsJournal#compact(Collection)
+     */
+    private void compactSongsCacheIfNeeded() {
+        if (SongsJournal.instance().needsCompaction(mList.size()))
+            SongsJournal.instance().compact(mList);
+    }
+
+    /**
+     * Requests to load asynchronously the tags for each given song.
      * @param songForWhichLoadTags the songs which tags have to be loaded
+     *
+     * @see SongTagsLoader
      */
     private void loadSongsTagsAsync(List<Song> songForWhichLoadTags) {
-        if (CollectionsUtil.isFilled(songForWhichLoadTags))
-            new Thread(() -> {
-                L.debug("BEGIN - Loading songs tags async");
-                songForWhichLoadTags.forEach(Song::loadTags);
-                L.debug("END - Loading songs tags async");
-            }).start();
+        SongTagsLoader.instance().load(songForWhichLoadTags);
     }
 }
@@ -0,0 +1,755 @@
+package org.docheinstein.mp3doctor.song;
+
+import org.docheinstein.mp3doctor.commons.constants.Config;
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.commons.utils.StringUtil;
+import org.docheinstein.mp3doctor.commons.utils.ThreadUtil;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Inverted index of the words of the tags and of the paths of the songs
+ * of the library, for the full text search.
+ * <p>
+ * The words are the runs of letters and digits of the search keys of the
+ * indexed fields (see {@link StringUtil#toSearchKey(String)}), thus the case
+ * and the accents are ignored; a song matches a query if every word of the
+ * query is the prefix of a word of at least one of the searched fields.
+ * <p>
+ * Each indexed song is identified by a document id; the words of each field
+ * are mapped to the ids of the documents that contain them. The index only
+ * grows: a song whose tags change is indexed again under a new id and its
+ * previous id is marked as dead, as the id of a removed song; when the dead
+ * ids outnumber the living ones the index is compacted.
+ * <p>
+ * The searches can be typo tolerant: the words of the query then match also
+ * the indexed words within a few edits from those, found through the
+ * {@link WordTrigramIndex} of the vocabulary of the index. The vocabulary is
+ * maintained along with the postings, thus in background as the rest of
+ * the index, and loses the words no song has anymore when the index is
+ * compacted. The songs found are given a cost, which is the lower the
+ * more the words match exactly, so that those can be ranked.
+ * <p>
+ * The index is maintained incrementally as {@link SongsIndex}, but off the
+ * calling thread: the additions, the removals and the changes of the songs
+ * are queued and applied by the {@link #INDEXER} thread, or by a search
+ * that begins before those have been applied, so that the searches always
+ * see every queued change. A song added to the library is indexed once its
+ * tags are loaded (or have failed to load), thus it is never indexed with
+ * empty tags first; afterwards it is reindexed whenever its tags change.
+ */
+public class SongsSearchIndex {
+
+    private static final Logger L = Logger.createForClass(SongsSearchIndex.class);
+
+    /** Field of the songs that can be searched. */
+    public enum Field {
+        Title(Song::getTitleSearchKey),
+        Artist(Song::getArtistSearchKey),
+        Album(Song::getAlbumSearchKey),
+        Year(Song::getYearSearchKey),
+        Genre(Song::getGenreSearchKey),
+        // The paths are indexed once, thus those have no precomputed key
+        Filename(song -> StringUtil.toSearchKey(song.getFilename())),
+        Path(song -> StringUtil.toSearchKey(song.getPath()))
+        ;
+
+        /** Cached values, for avoid to copy those at each call of values(). */
+        private static final Field[] VALUES = values();
+
+        /** Function that returns the search key of the field of a song. */
+        private final Function<Song, String> mGetter;
+
+        /**
+         * Creates a field whose search key is returned by the given function.
+         * @param getter the function that returns the search key of the field of a song
+         */
+        Field(Function<Song, String> getter) {
+            mGetter = getter;
+        }
+
+        /**
+         * Returns the search key of this field for the given song.
+         * @param song the song
+         * @return the search key of the field, might be null
+         *
+         * @see StringUtil#toSearchKey(String)
+         */
+        public String getSearchKey(Song song) {
+            return mGetter.apply(song);
+        }
+    }
+
+    /**
+     * Term of a search: a song matches it if each of its words is the
+     * prefix of a word of at least one of its fields.
+     */
+    public static class Term {
+        /** Words of the term, as search keys. */
+        private final Set<String> mWords;
+
+        /** Fields the words are searched in. */
+        private final Field[] mFields;
+
+        /**
+         * Creates a term for the words of the given text.
+         * @param text the text, whose words are searched as prefixes
+         * @param fields the fields to search
+         */
+        public Term(String text, Collection<Field> fields) {
+            mWords = tokenize(StringUtil.toSearchKey(text));
+            mFields = fields.toArray(new Field[0]);
+        }
+
+        /**
+         * Returns whether the term contains no word, thus is matched
+         * by every song.
+         * @return whether the term is empty
+         */
+        public boolean isEmpty() {
+            return mWords.isEmpty();
+        }
+
+        /**
+         * Returns whether the given song matches this term, checking its
+         * fields directly instead of through the index.
+         * @param song the song
+         * @return whether the song matches the term
+         */
+        public boolean matches(Song song) {
+            for (String word : mWords) {
+                boolean wordMatches = false;
+
+                for (int i = 0; i < mFields.length && !wordMatches; i++)
+                    wordMatches = containsWordPrefix(mFields[i].getSearchKey(song), word);
+
+                if (!wordMatches)
+                    return false;
+            }
+
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(mFields) + ":" + mWords;
+        }
+    }
+
+    /** Songs found by a search, each with its cost. */
+    public static class Matches {
+        /** Songs found. */
+        private final List<Song> mSongs;
+
+        /** Cost of each song. */
+        private final int[] mCosts;
+
+        /**
+         * Creates the matches for the given songs.
+         * @param songs the songs found
+         * @param costs the cost of each song, the lower the more relevant
+         */
+        public Matches(List<Song> songs, int[] costs) {
+            mSongs = songs;
+            mCosts = costs;
+        }
+
+        /**
+         * Returns the songs found.
+         * @return the songs found, each once
+         */
+        public List<Song> getSongs() {
+            return mSongs;
+        }
+
+        /**
+         * Returns the cost of the song with the given index: 0 if each word
+         * of the search matches a whole word, more if it matches the prefix
+         * of a word and even more for each edit required by the typo
+         * tolerant searches.
+         * @param index the index of the song in {@link #getSongs()}
+         * @return the cost of the song
+         */
+        public int getCost(int index) {
+            return mCosts[index];
+        }
+    }
+
+    /** Ids of the documents that contain a word, in ascending order. */
+    private static class Postings {
+        /** Ids; only the first {@link #mSize} are valid. */
+        private int[] mIds = new int[2];
+
+        /** Number of ids. */
+        private int mSize = 0;
+
+        /**
+         * Appends the given id, which must be greater than the others.
+         * @param id the id of the document
+         */
+        void add(int id) {
+            if (mSize == mIds.length)
+                mIds = Arrays.copyOf(mIds, mSize * 2);
+            mIds[mSize++] = id;
+        }
+
+        /**
+         * Sets the bits of the ids in the given set.
+         * @param ids the set
+         */
+        void addTo(BitSet ids) {
+            for (int i = 0; i < mSize; i++)
+                ids.set(mIds[i]);
+        }
+
+        /**
+         * Replaces each id with the mapped one, dropping the ids mapped to -1.
+         * @param newIds the new id of each id, or -1 for the dead ones
+         */
+        void remap(int[] newIds) {
+            int size = 0;
+
+            for (int i = 0; i < mSize; i++) {
+                int newId = newIds[mIds[i]];
+                if (newId >= 0)
+                    mIds[size++] = newId;
+            }
+
+            mSize = size;
+        }
+
+        /**
+         * Returns whether this contains no id.
+         * @return whether this is empty
+         */
+        boolean isEmpty() {
+            return mSize == 0;
+        }
+    }
+
+    /** Thread that applies the queued changes to the index. */
+    private static final ExecutorService INDEXER =
+        Executors.newSingleThreadExecutor(ThreadUtil.daemonThreadFactory("search-indexer"));
+
+    /** Unique instance of this class. */
+    private static final SongsSearchIndex INSTANCE = new SongsSearchIndex();
+
+    /**
+     * Returns the unique instance of this class.
+     * @return the unique instance of this class
+     */
+    public static SongsSearchIndex instance() {
+        return INSTANCE;
+    }
+
+    /** Document id of each indexed song. */
+    // Guarded by this
+    private final Map<Song, Integer> mDocumentIds = new IdentityHashMap<>();
+
+    /** Song of each document id, null for the dead ids. */
+    // Guarded by this
+    private final List<Song> mDocuments = new ArrayList<>();
+
+    /** Dead document ids. */
+    // Guarded by this
+    private final BitSet mDeadDocuments = new BitSet();
+
+    /** Number of dead document ids. */
+    // Guarded by this
+    private int mDeadDocumentCount = 0;
+
+    /** Postings by word, one map per field. */
+    // Guarded by this
+    private final List<NavigableMap<String, Postings>> mPostings = new ArrayList<>();
+
+    /** Songs of the library not indexed yet, since their tags are not loaded. */
+    // Guarded by this
+    private final Set<Song> mPendingSongs = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** Changes of the library not applied to the index yet, in order. */
+    private final Queue<Runnable> mPendingUpdates = new ConcurrentLinkedQueue<>();
+
+    /** Whether the application of the pending changes has been scheduled. */
+    private final AtomicBoolean mUpdatesApplicationScheduled = new AtomicBoolean(false);
+
+    /** Words of every field, for the typo tolerant searches. */
+    // Guarded by this
+    private final WordTrigramIndex mVocabulary = new WordTrigramIndex();
+
+    /** Cost of a word of a search that is a whole word of a song. */
+    private static final int WHOLE_WORD_COST = 0;
+
+    /** Cost of a word of a search that is the prefix of a word of a song. */
+    private static final int PREFIX_COST = 1;
+
+    /** Cost of each edit of a word of a typo tolerant search. */
+    private static final int EDIT_COST = 2;
+
+    /** Creates the index. */
+    private SongsSearchIndex() {
+        for (Field ignored : Field.VALUES)
+            mPostings.add(new TreeMap<>());
+    }
+
+    /**
+     * Returns the songs that match every one of the required terms and
+     * none of the excluded terms.
+     * <p>
+     * If the search is typo tolerant, the words of the required terms match
+     * also the words within {@link #getMaxEdits(String)} edits; the excluded
+     * terms are always matched exactly.
+     * <p>
+     * If the calling thread is interrupted the search is abandoned and the
+     * returned matches are incomplete.
+     * @param requiredTerms the terms the songs must match; the empty ones
+     *                      are matched by every song
+     * @param excludedTerms the terms the songs must not match; the empty
+     *                      ones are ignored
+     * @param typoTolerant whether the search is typo tolerant
+     * @return the matching songs, in the order of the index
+     */
+    public synchronized Matches search(Collection<Term> requiredTerms,
+                                       Collection<Term> excludedTerms,
+                                       boolean typoTolerant) {
+        applyPendingUpdates();
+
+        BitSet matchingIds = null;
+
+        // The ids matched by each word at each cost level
+        List<BitSet[]> wordLevels = new ArrayList<>();
+
+        requiredTerms:
+        for (Term term : requiredTerms) {
+            for (String word : term.mWords) {
+                if (Thread.currentThread().isInterrupted())
+                    return new Matches(Collections.emptyList(), new int[0]);
+
+                BitSet[] levels = getMatchingLevels(word, term.mFields,
+                    typoTolerant ? getMaxEdits(word) : 0);
+                wordLevels.add(levels);
+
+                // The last level contains the other ones
+                BitSet wordIds = levels[levels.length - 1];
+
+                if (matchingIds == null)
+                    matchingIds = (BitSet) wordIds.clone();
+                else
+                    matchingIds.and(wordIds);
+
+                if (matchingIds.isEmpty())
+                    break requiredTerms;
+            }
+        }
+
+        if (matchingIds == null) {
+            matchingIds = new BitSet(mDocuments.size());
+            matchingIds.set(0, mDocuments.size());
+        }
+
+        for (Term term : excludedTerms) {
+            if (matchingIds.isEmpty())
+                break;
+
+            if (term.isEmpty())
+                continue;
+
+            BitSet termIds = null;
+
+            for (String word : term.mWords) {
+                BitSet[] levels = getMatchingLevels(word, term.mFields, 0);
+                BitSet wordIds = levels[levels.length - 1];
+
+                if (termIds == null)
+                    termIds = wordIds;
+                else
+                    termIds.and(wordIds);
+            }
+
+            matchingIds.andNot(termIds);
+        }
+
+        matchingIds.andNot(mDeadDocuments);
+
+        int count = matchingIds.cardinality();
+        List<Song> songs = new ArrayList<>(count);
+        int[] costs = new int[count];
+
+        for (int id = matchingIds.nextSetBit(0); id >= 0; id = matchingIds.nextSetBit(id + 1)) {
+            int cost = 0;
+
+            // The cost of each word is the one of the first level containing it
+            for (BitSet[] levels : wordLevels) {
+                int level = 0;
+                while (!levels[level].get(id))
+                    level++;
+                cost += getLevelCost(level);
+            }
+
+            costs[songs.size()] = cost;
+            songs.add(mDocuments.get(id));
+        }
+
+        return new Matches(songs, costs);
+    }
+
+    /**
+     * Returns the ids of the documents that contain the given word in one
+     * of the given fields, split by cost levels: the ids of the documents
+     * that contain it as a whole word, then the ones that contain it as a
+     * prefix, then the ones that contain it within one edit and so on.
+     * <p>
+     * Each level contains the previous ones.
+     * @param word the word
+     * @param fields the fields
+     * @param maxEdits the maximum number of edits
+     * @return the ids of each level, which might include dead ones
+     */
+    private BitSet[] getMatchingLevels(String word, Field[] fields, int maxEdits) {
+        BitSet[] levels = new BitSet[2 + maxEdits];
+
+        for (int level = 0; level < levels.length; level++)
+            levels[level] = new BitSet(mDocuments.size());
+
+        for (Field field : fields) {
+            NavigableMap<String, Postings> postings = mPostings.get(field.ordinal());
+
+            Postings wholeWordPostings = postings.get(word);
+            if (wholeWordPostings != null)
+                wholeWordPostings.addTo(levels[0]);
+
+            // The words that start with the given one
+            postings.subMap(word, true, word + Character.MAX_VALUE, false)
+                .values()
+                .forEach(p -> p.addTo(levels[1]));
+        }
+
+        if (maxEdits > 0) {
+            mVocabulary.find(word, maxEdits, (similarWord, distance) -> {
+                // Those with distance 0 start with the word, found already
+                if (distance == 0)
+                    return;
+
+                for (Field field : fields) {
+                    Postings postings = mPostings.get(field.ordinal()).get(similarWord);
+                    if (postings != null)
+                        postings.addTo(levels[1 + distance]);
+                }
+            });
+        }
+
+        for (int level = 1; level < levels.length; level++)
+            levels[level].or(levels[level - 1]);
+
+        return levels;
+    }
+
+    /**
+     * Returns the cost of the given level of {@link #getMatchingLevels(String, Field[], int)}.
+     * @param level the level
+     * @return the cost of a word matched at that level
+     */
+    private static int getLevelCost(int level) {
+        return level == 0 ? WHOLE_WORD_COST :
+            level == 1 ? PREFIX_COST :
+            (level - 1) * EDIT_COST;
+    }
+
+    /**
+     * Returns the maximum number of edits a word of a typo tolerant search
+     * can be matched within, which depends on its length; the numbers are
+     * always matched exactly.
+     * @param word the word
+     * @return the maximum number of edits
+     */
+    private static int getMaxEdits(String word) {
+        if (containsDigits(word))
+            return 0;
+
+        return word.length() >= Config.Library.SEARCH_TWO_EDITS_MIN_WORD_LENGTH ? 2 :
+            word.length() >= Config.Library.SEARCH_ONE_EDIT_MIN_WORD_LENGTH ? 1 :
+            0;
+    }
+
+    /**
+     * Adds the given songs to the index: the ones whose tags are loaded are
+     * indexed, the others are indexed by {@link #reindex(Song)} once their
+     * tags are loaded.
+     * <p>
+     * The songs are indexed asynchronously.
+     * @param songs the songs added to the library
+     */
+    void add(Collection<? extends Song> songs) {
+        if (songs.isEmpty())
+            return;
+
+        List<Song> addedSongs = new ArrayList<>(songs);
+
+        enqueueUpdate(() -> {
+            for (Song song : addedSongs) {
+                if (mDocumentIds.containsKey(song))
+                    continue;
+
+                if (song.areTagsLoaded())
+                    index(song);
+                else
+                    mPendingSongs.add(song);
+            }
+        });
+    }
+
+    /**
+     * Removes the given songs from the index.
+     * <p>
+     * The songs are removed asynchronously.
+     * @param songs the songs removed from the library
+     */
+    void remove(Collection<? extends Song> songs) {
+        if (songs.isEmpty())
+            return;
+
+        List<Song> removedSongs = new ArrayList<>(songs);
+
+        enqueueUpdate(() -> {
+            for (Song song : removedSongs) {
+                mPendingSongs.remove(song);
+
+                Integer id = mDocumentIds.remove(song);
+
+                if (id != null)
+                    kill(id);
+            }
+
+            compactIfNeeded();
+        });
+    }
+
+    /**
+     * Indexes the given song under its current tags, if it is indexed or
+     * if it has been added and is waiting for its tags.
+     * <p>
+     * This must be called whenever the tags of a song change, and when
+     * the tags of an added song can't be loaded, so that the song can be
+     * found at least by its path.
+     * <p>
+     * The song is indexed asynchronously.
+     * @param song the song whose tags have changed
+     */
+    void reindex(Song song) {
+        enqueueUpdate(() -> {
+            Integer id = mDocumentIds.get(song);
+
+            if (id != null)
+                kill(id);
+            else if (!mPendingSongs.remove(song))
+                return;
+
+            index(song);
+
+            compactIfNeeded();
+        });
+    }
+
+    /**
+     * Queues the given change of the index and schedules its application
+     * on the {@link #INDEXER} thread.
+     * @param update the change, which is run while holding the lock of the index
+     */
+    private void enqueueUpdate(Runnable update) {
+        mPendingUpdates.add(update);
+
+        if (mUpdatesApplicationScheduled.compareAndSet(false, true))
+            INDEXER.execute(this::applyPendingUpdates);
+    }
+
+    /** Applies the queued changes of the index, in order. */
+    private synchronized void applyPendingUpdates() {
+        // Reset before draining, so that a change queued meanwhile
+        // is applied by a further call
+        mUpdatesApplicationScheduled.set(false);
+
+        Runnable update;
+        while ((update = mPendingUpdates.poll()) != null)
+            update.run();
+    }
+
+    /**
+     * Indexes the given song under a new document id.
+     * @param song the song
+     */
+    private void index(Song song) {
+        int id = mDocuments.size();
+
+        mDocuments.add(song);
+        mDocumentIds.put(song, id);
+
+        for (Field field : Field.VALUES) {
+            NavigableMap<String, Postings> postings = mPostings.get(field.ordinal());
+
+            for (String word : tokenize(field.getSearchKey(song))) {
+                Postings wordPostings = postings.get(word);
+
+                if (wordPostings == null) {
+                    wordPostings = new Postings();
+                    postings.put(word, wordPostings);
+
+                    if (!containsDigits(word))
+                        mVocabulary.add(word);
+                }
+
+                wordPostings.add(id);
+            }
+        }
+    }
+
+    /**
+     * Marks the given document id as dead.
+     * @param id the document id
+     */
+    private void kill(int id) {
+        mDocuments.set(id, null);
+        mDeadDocuments.set(id);
+        mDeadDocumentCount++;
+    }
+
+    /**
+     * Drops the dead document ids from the index, if those outnumber
+     * the living ones.
+     */
+    private void compactIfNeeded() {
+        if (mDeadDocumentCount <= Math.max(mDocumentIds.size(),
+                Config.Library.SEARCH_INDEX_MIN_COMPACTION_SIZE))
+            return;
+
+        L.debug("Compacting search index; dead documents: " + mDeadDocumentCount +
+            ", songs: " + mDocumentIds.size());
+
+        // The living ids keep their order, thus the postings stay sorted
+        int[] newIds = new int[mDocuments.size()];
+        List<Song> documents = new ArrayList<>(mDocumentIds.size());
+
+        for (int id = 0; id < newIds.length; id++) {
+            Song song = mDocuments.get(id);
+
+            if (song == null) {
+                newIds[id] = -1;
+                continue;
+            }
+
+            newIds[id] = documents.size();
+            mDocumentIds.put(song, documents.size());
+            documents.add(song);
+        }
+
+        // The words no song has anymore in a field
+        List<String> droppedWords = new ArrayList<>();
+
+        for (NavigableMap<String, Postings> fieldPostings : mPostings) {
+            Iterator<Map.Entry<String, Postings>> it = fieldPostings.entrySet().iterator();
+
+            while (it.hasNext()) {
+                Map.Entry<String, Postings> entry = it.next();
+                entry.getValue().remap(newIds);
+
+                if (entry.getValue().isEmpty()) {
+                    it.remove();
+                    droppedWords.add(entry.getKey());
+                }
+            }
+        }
+
+        // Only the words no song has anymore in any field leave the vocabulary
+        for (String word : droppedWords) {
+            if (!isIndexed(word))
+                mVocabulary.remove(word);
+        }
+
+        mDocuments.clear();
+        mDocuments.addAll(documents);
+        mDeadDocuments.clear();
+        mDeadDocumentCount = 0;
+    }
+
+    /**
+     * Returns whether the given word is indexed in at least a field.
+     * @param word the word
+     * @return whether a song has the word
+     */
+    private boolean isIndexed(String word) {
+        for (NavigableMap<String, Postings> fieldPostings : mPostings) {
+            if (fieldPostings.containsKey(word))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns whether the given word contains digits; such words are
+     * never matched within edits, thus are not in the vocabulary.
+     * @param word the word
+     * @return whether the word contains at least a digit
+     */
+    private static boolean containsDigits(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.isDigit(word.charAt(i)))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns whether the given search key contains a word that starts
+     * with the given word.
+     * @param key the search key, might be null
+     * @param word the word, as a search key
+     * @return whether a word of the key starts with the word
+     */
+    static boolean containsWordPrefix(String key, String word) {
+        if (key == null)
+            return false;
+
+        for (int i = key.indexOf(word); i >= 0; i = key.indexOf(word, i + 1)) {
+            // Must be at the beginning of a word of the key
+            if (i == 0 || !Character.isLetterOrDigit(key.charAt(i - 1)))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the distinct words of the given search key.
+     * @param text the search key
+     * @return the words of the search key
+     */
+    static Set<String> tokenize(String text) {
+        Set<String> words = new LinkedHashSet<>();
+
+        if (text == null)
+            return words;
+
+        StringBuilder word = new StringBuilder();
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+
+        if (word.length() > 0)
+            words.add(word.toString());
+
+        return words;
+    }
+}
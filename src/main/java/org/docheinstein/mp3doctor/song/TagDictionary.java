@@ -0,0 +1,145 @@
+package org.docheinstein.mp3doctor.song;
+
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.commons.utils.StringUtil;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Library wide dictionary of the values of the tags that repeat across
+ * the songs (e.g. artist, album, genre and year).
+ * <p>
+ * Each distinct value is stored once and is identified by a small int id,
+ * thus the songs can keep the id instead of their own copy of the value,
+ * and the songs can be grouped or filtered by comparing the ids instead
+ * of the strings.
+ * <p>
+ * The search key of each value (see {@link StringUtil#toSearchKey(String)})
+ * is computed once, when the value is added, and is kept with the value.
+ * <p>
+ * The ids are never reused: a value stays in the dictionary even if no
+ * song has it anymore, which is fine since the distinct values are few
+ * compared to the songs.
+ */
+public class TagDictionary {
+
+    private static final Logger L = Logger.createForClass(TagDictionary.class);
+
+    /** Id of the null value. */
+    public static final int NULL_ID = 0;
+
+    /** Initial capacity of the values array. */
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    /** Unique instance of this class. */
+    private static final TagDictionary INSTANCE = new TagDictionary();
+
+    /**
+     * Returns the unique instance of this class.
+     * @return the unique instance of this class
+     */
+    public static TagDictionary instance() {
+        return INSTANCE;
+    }
+
+    /** Ids of the values. */
+    private final Map<String, Integer> mIds = new ConcurrentHashMap<>();
+
+    /**
+     * Values, indexed by id; the array is replaced when it grows, thus
+     * the readers don't need any lock.
+     */
+    private volatile String[] mValues = new String[INITIAL_CAPACITY];
+
+    /** Search keys of the values, indexed by id; replaced along with {@link #mValues}. */
+    private volatile String[] mSearchKeys = new String[INITIAL_CAPACITY];
+
+    /** Number of ids assigned so far, including {@link #NULL_ID}. */
+    // Guarded by this
+    private int mSize = 1;
+
+    /** Creates the dictionary. */
+    private TagDictionary() {}
+
+    /**
+     * Returns the id of the given value, adding the value to the
+     * dictionary if it's not there yet.
+     * @param value the value
+     * @return the id of the value, or {@link #NULL_ID} for null
+     */
+    public int encode(String value) {
+        if (value == null)
+            return NULL_ID;
+
+        Integer id = mIds.get(value);
+        if (id != null)
+            return id;
+
+        synchronized (this) {
+            // Might have been added meanwhile
+            id = mIds.get(value);
+            if (id != null)
+                return id;
+
+            String[] values = mValues;
+            String[] searchKeys = mSearchKeys;
+            if (mSize == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+                searchKeys = Arrays.copyOf(searchKeys, searchKeys.length * 2);
+                L.verbose("Growing tag dictionary to " + values.length + " values");
+            }
+
+            int newId = mSize++;
+            values[newId] = value;
+            searchKeys[newId] = StringUtil.toSearchKey(value);
+
+            // Published before the id, so that whoever gets the id finds the value
+            mSearchKeys = searchKeys;
+            mValues = values;
+            mIds.put(value, newId);
+
+            return newId;
+        }
+    }
+
+    /**
+     * Returns the value with the given id.
+     * @param id the id, previously returned by {@link #encode(String)}
+     * @return the value
+     */
+    public String decode(int id) {
+        return mValues[id];
+    }
+
+    /**
+     * Returns the search key of the value with the given id.
+     * @param id the id, previously returned by {@link #encode(String)}
+     * @return the search key of the value, or null for {@link #NULL_ID}
+     *
+     * @see StringUtil#toSearchKey(String)
+     */
+    public String decodeSearchKey(int id) {
+        return mSearchKeys[id];
+    }
+
+    /**
+     * Returns the canonical instance of the given value, which is shared
+     * by all the songs with that value.
+     * @param value the value
+     * @return the canonical instance of the value
+     */
+    public String canonicalize(String value) {
+        return decode(encode(value));
+    }
+
+    /**
+     * Returns the number of ids assigned so far; every id is
+     * less than this number.
+     * @return the number of ids
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+}
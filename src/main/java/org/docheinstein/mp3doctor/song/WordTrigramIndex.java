@@ -0,0 +1,385 @@
+package org.docheinstein.mp3doctor.song;
+
+import java.util.*;
+
+/**
+ * Index of the trigrams of a vocabulary of words, for find the words that
+ * are similar to a given one, within a bounded number of edits.
+ * <p>
+ * The trigrams of a word are its runs of three characters, including the
+ * ones that span the two virtual characters before the beginning of the
+ * word (e.g. "  q", " qu", "que", "uee", "een" for "queen"); since an edit
+ * changes at most four trigrams (a transposition does), a word whose prefix
+ * is within k edits of a word with t distinct trigrams shares at least
+ * t - 4k distinct trigrams with it, thus only the words that share enough
+ * trigrams are compared. The short words, for which this bound is useless,
+ * are compared with every word instead.
+ * <p>
+ * Before being compared, the words are filtered also by their characters:
+ * since an edit makes at most a distinct character disappear, a word within
+ * k edits contains all but at most k of the distinct characters of the
+ * given word.
+ * <p>
+ * The words are compared through the optimal string alignment distance
+ * (the Levenshtein distance with transpositions) between the given word
+ * and the closest prefix of each word, so that a word that is still being
+ * typed matches too.
+ * <p>
+ * The ids of the removed words are not reused, so that the ids of each
+ * trigram stay sorted; those are renumbered once the removed words
+ * outnumber the others.
+ * <p>
+ * Instances of this class are not thread safe.
+ */
+class WordTrigramIndex {
+
+    /** Receiver of the words found by {@link #find(String, int, WordConsumer)}. */
+    interface WordConsumer {
+        /**
+         * Called for each word found.
+         * @param word the word
+         * @param distance the distance between the searched word and the
+         *                 closest prefix of the word
+         */
+        void accept(String word, int distance);
+    }
+
+    /** Virtual character before the beginning of the words. */
+    private static final char PADDING = '\0';
+
+    /** Words of the vocabulary, indexed by id; null for the removed ones. */
+    private final List<String> mWords = new ArrayList<>();
+
+    /** Masks of the characters of the words, indexed by id (see {@link #characterMask(String)}). */
+    private long[] mCharacterMasks = new long[16];
+
+    /** Ids of the words. */
+    private final Map<String, Integer> mWordIds = new HashMap<>();
+
+    /** Number of the ids of the removed words. */
+    private int mRemovedWordCount = 0;
+
+    /** Ids of the words that contain each trigram, in ascending order. */
+    private final Map<Long, IdList> mTrigramWordIds = new HashMap<>();
+
+    /** Number of the trigrams shared with the searched word, by word id. */
+    private int[] mSharedTrigramCounts = new int[0];
+
+    /** Rows of the distance matrix, reused across the comparisons. */
+    private int[][] mRows = new int[3][0];
+
+    /** Growable list of ids. */
+    private static class IdList {
+        /** Ids; only the first {@link #mSize} are valid. */
+        int[] mIds = new int[2];
+
+        /** Number of ids. */
+        int mSize = 0;
+
+        /**
+         * Appends the given id, unless it is the last one already.
+         * @param id the id
+         */
+        void add(int id) {
+            if (mSize > 0 && mIds[mSize - 1] == id)
+                return;
+            if (mSize == mIds.length)
+                mIds = Arrays.copyOf(mIds, mSize * 2);
+            mIds[mSize++] = id;
+        }
+
+        /**
+         * Removes the given id, if present.
+         * @param id the id
+         */
+        void remove(int id) {
+            int i = Arrays.binarySearch(mIds, 0, mSize, id);
+            if (i < 0)
+                return;
+            System.arraycopy(mIds, i + 1, mIds, i, mSize - i - 1);
+            mSize--;
+        }
+
+        /**
+         * Replaces each id with the given new one, which must keep the order.
+         * @param newIds the new id of each id
+         */
+        void remap(int[] newIds) {
+            for (int i = 0; i < mSize; i++)
+                mIds[i] = newIds[mIds[i]];
+        }
+    }
+
+    /**
+     * Adds the given word to the vocabulary, if it's not there yet.
+     * @param word the word
+     */
+    void add(String word) {
+        int id = mWords.size();
+        if (mWordIds.putIfAbsent(word, id) != null)
+            return;
+
+        mWords.add(word);
+
+        if (id == mCharacterMasks.length)
+            mCharacterMasks = Arrays.copyOf(mCharacterMasks, id * 2);
+        mCharacterMasks[id] = characterMask(word);
+
+        for (int i = 0; i < word.length(); i++)
+            mTrigramWordIds.computeIfAbsent(trigram(word, i), k -> new IdList()).add(id);
+    }
+
+    /**
+     * Removes the given word from the vocabulary, if it's there.
+     * @param word the word
+     */
+    void remove(String word) {
+        Integer id = mWordIds.remove(word);
+        if (id == null)
+            return;
+
+        mWords.set(id, null);
+        mRemovedWordCount++;
+
+        for (int i = 0; i < word.length(); i++) {
+            long trigram = trigram(word, i);
+            IdList ids = mTrigramWordIds.get(trigram);
+
+            // Already removed if the trigram is repeated in the word
+            if (ids == null)
+                continue;
+
+            ids.remove(id);
+            if (ids.mSize == 0)
+                mTrigramWordIds.remove(trigram);
+        }
+
+        if (mRemovedWordCount > mWordIds.size())
+            compact();
+    }
+
+    /**
+     * Returns the number of words of the vocabulary.
+     * @return the number of words
+     */
+    int size() {
+        return mWordIds.size();
+    }
+
+    /**
+     * Renumbers the words so that the ids of the removed words are dropped.
+     */
+    private void compact() {
+        // The words keep their order, thus the ids of the trigrams stay sorted
+        int[] newIds = new int[mWords.size()];
+        List<String> words = new ArrayList<>(mWordIds.size());
+
+        for (int id = 0; id < newIds.length; id++) {
+            String word = mWords.get(id);
+
+            if (word == null) {
+                newIds[id] = -1;
+                continue;
+            }
+
+            newIds[id] = words.size();
+            mCharacterMasks[words.size()] = mCharacterMasks[id];
+            mWordIds.put(word, words.size());
+            words.add(word);
+        }
+
+        for (IdList ids : mTrigramWordIds.values())
+            ids.remap(newIds);
+
+        mWords.clear();
+        mWords.addAll(words);
+        mRemovedWordCount = 0;
+    }
+
+    /**
+     * Finds the words with a prefix within the given number of edits
+     * from the given word.
+     * @param word the searched word
+     * @param maxEdits the maximum number of edits
+     * @param consumer the receiver of the words found
+     */
+    void find(String word, int maxEdits, WordConsumer consumer) {
+        if (mSharedTrigramCounts.length < mWords.size())
+            mSharedTrigramCounts = new int[mWords.size()];
+
+        int[] counts = mSharedTrigramCounts;
+        long mask = characterMask(word);
+
+        // Each distinct trigram is counted once, as the shared ones are
+        long[] trigrams = new long[word.length()];
+        int trigramCount = 0;
+
+        for (int i = 0; i < word.length(); i++) {
+            long trigram = trigram(word, i);
+
+            boolean repeated = false;
+            for (int j = 0; j < trigramCount && !repeated; j++)
+                repeated = trigrams[j] == trigram;
+
+            if (!repeated)
+                trigrams[trigramCount++] = trigram;
+        }
+
+        // Each edit changes the trigrams of at most four positions, thus
+        // makes at most four distinct trigrams disappear
+        int minSharedTrigrams = trigramCount - 4 * maxEdits;
+
+        if (minSharedTrigrams < 1) {
+            // Might share no trigram at all: compare with every word
+            for (int id = 0; id < mWords.size(); id++)
+                compare(word, mask, id, maxEdits, consumer);
+            return;
+        }
+
+        // Ids of the words that share at least a trigram, for reset the counts
+        IdList touchedIds = new IdList();
+
+        for (int i = 0; i < trigramCount; i++) {
+            IdList ids = mTrigramWordIds.get(trigrams[i]);
+            if (ids == null)
+                continue;
+
+            for (int j = 0; j < ids.mSize; j++) {
+                int id = ids.mIds[j];
+                if (counts[id]++ == 0)
+                    touchedIds.add(id);
+            }
+        }
+
+        for (int i = 0; i < touchedIds.mSize; i++) {
+            int id = touchedIds.mIds[i];
+
+            if (counts[id] >= minSharedTrigrams)
+                compare(word, mask, id, maxEdits, consumer);
+
+            counts[id] = 0;
+        }
+    }
+
+    /**
+     * Compares the given word with the word of the given id, which is given
+     * to the consumer if it is within the given number of edits.
+     * @param word the searched word
+     * @param mask the mask of the characters of the searched word
+     * @param id the id of the candidate word
+     * @param maxEdits the maximum number of edits
+     * @param consumer the receiver of the words found
+     */
+    private void compare(String word, long mask, int id, int maxEdits,
+                         WordConsumer consumer) {
+        String candidate = mWords.get(id);
+
+        // Removed word
+        if (candidate == null)
+            return;
+
+        // Too many characters missing
+        if (Long.bitCount(mask & ~mCharacterMasks[id]) > maxEdits)
+            return;
+
+        int distance = prefixDistance(word, candidate, maxEdits);
+
+        if (distance <= maxEdits)
+            consumer.accept(candidate, distance);
+    }
+
+    /**
+     * Returns the distance between the given word and the closest prefix
+     * of the given candidate, if it doesn't exceed the given bound.
+     * @param word the word
+     * @param candidate the candidate
+     * @param maxEdits the bound
+     * @return the distance, or a number greater than the bound
+     */
+    private int prefixDistance(String word, String candidate, int maxEdits) {
+        int m = word.length();
+        // The longer prefixes are too far anyway
+        int n = Math.min(candidate.length(), m + maxEdits);
+
+        if (n < m - maxEdits)
+            return maxEdits + 1;
+
+        if (mRows[0].length < n + 1)
+            mRows = new int[3][n + 1];
+
+        int[] previous2 = mRows[0];
+        int[] previous = mRows[1];
+        int[] current = mRows[2];
+
+        for (int j = 0; j <= n; j++)
+            previous[j] = j;
+
+        int previousRowMin = 0;
+
+        for (int i = 1; i <= m; i++) {
+            char c = word.charAt(i - 1);
+            current[0] = i;
+            int rowMin = i;
+
+            for (int j = 1; j <= n; j++) {
+                char d = candidate.charAt(j - 1);
+                int distance = Math.min(
+                    Math.min(previous[j] + 1, current[j - 1] + 1),
+                    previous[j - 1] + (c == d ? 0 : 1));
+
+                // Transposition of two adjacent characters
+                if (i > 1 && j > 1 && c == candidate.charAt(j - 2) &&
+                    word.charAt(i - 2) == d)
+                    distance = Math.min(distance, previous2[j - 2] + 1);
+
+                current[j] = distance;
+                rowMin = Math.min(rowMin, distance);
+            }
+
+            // The next rows derive from this one or, through a transposition,
+            // from the previous one plus an edit: those can't get closer
+            if (rowMin > maxEdits && previousRowMin >= maxEdits)
+                return maxEdits + 1;
+
+            previousRowMin = rowMin;
+
+            int[] recycled = previous2;
+            previous2 = previous;
+            previous = current;
+            current = recycled;
+        }
+
+        // The closest prefix
+        int distance = maxEdits + 1;
+        for (int j = 0; j <= n; j++)
+            distance = Math.min(distance, previous[j]);
+
+        return distance;
+    }
+
+    /**
+     * Returns the mask of the characters of the given word, which has
+     * a bit for each character; characters might share the same bit.
+     * @param word the word
+     * @return the mask of the characters
+     */
+    private static long characterMask(String word) {
+        long mask = 0;
+        for (int i = 0; i < word.length(); i++)
+            mask |= 1L << word.charAt(i);
+        return mask;
+    }
+
+    /**
+     * Returns the trigram of the given word that ends at the given position.
+     * @param word the word
+     * @param end the position of the last character of the trigram
+     * @return the three characters of the trigram packed in a long
+     */
+    private static long trigram(String word, int end) {
+        char c0 = end >= 2 ? word.charAt(end - 2) : PADDING;
+        char c1 = end >= 1 ? word.charAt(end - 1) : PADDING;
+        char c2 = word.charAt(end);
+        return ((long) c0 << 32) | ((long) c1 << 16) | c2;
+    }
+}
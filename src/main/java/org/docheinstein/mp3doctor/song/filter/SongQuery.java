@@ -0,0 +1,176 @@
+package org.docheinstein.mp3doctor.song.filter;
+
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.commons.utils.Asserts;
+import org.docheinstein.mp3doctor.song.Song;
+import org.docheinstein.mp3doctor.song.SongsSearchIndex;
+
+import java.util.*;
+
+/**
+ * Query over the songs of the library, planned from a tree of
+ * {@link SongSearchFilter}s so that it is answered by the
+ * {@link SongsSearchIndex} as far as possible.
+ * <p>
+ * The planner flattens the conjunctions of the tree: the
+ * {@link SongSearchFilters.Text} filters, plain or negated, become terms
+ * resolved by the index, which narrows the candidates first; only the
+ * remaining filters are checked, one song at a time, against those
+ * candidates.
+ * <p>
+ * The query can be typo tolerant, in which case the texts are matched by
+ * the index also within a few edits (see {@link SongsSearchIndex}); this
+ * doesn't apply to the filter of the query, which matches the texts exactly.
+ */
+public class SongQuery {
+
+    private static final Logger L = Logger.createForClass(SongQuery.class);
+
+    /** Number of checked songs between two checks of the interruption. */
+    private static final int INTERRUPTION_CHECK_INTERVAL = 1024;
+
+    /** Filter the query has been planned from. */
+    private final SongSearchFilter mFilter;
+
+    /** Terms the songs must match, resolved by the index. */
+    private final List<SongsSearchIndex.Term> mRequiredTerms = new ArrayList<>();
+
+    /** Terms the songs must not match, resolved by the index. */
+    private final List<SongsSearchIndex.Term> mExcludedTerms = new ArrayList<>();
+
+    /** Filters checked against the candidates found by the index. */
+    private final List<SongSearchFilter> mScannedFilters = new ArrayList<>();
+
+    /** Whether the texts are matched also within a few edits. */
+    private final boolean mTypoTolerant;
+
+    /**
+     * Creates the query for the given text.
+     * @param query the text of the query (see {@link SongQueryParser})
+     * @param defaultFields the fields the texts without a field are searched in
+     * @param typoTolerant whether the texts are matched also within a few edits
+     * @return the planned query
+     */
+    public static SongQuery parse(String query,
+                                  Collection<SongsSearchIndex.Field> defaultFields,
+                                  boolean typoTolerant) {
+        return new SongQuery(SongQueryParser.parse(query, defaultFields), typoTolerant);
+    }
+
+    /**
+     * Creates the query satisfied by the songs that satisfy the given filter.
+     * <p>
+     * The filter must not be used elsewhere while the query is used, since
+     * the filters are not necessarily thread safe.
+     * @param filter the filter
+     * @param typoTolerant whether the texts are matched also within a few edits
+     */
+    public SongQuery(SongSearchFilter filter, boolean typoTolerant) {
+        Asserts.assertNotNull(filter, "Can't create a query without a filter", L);
+        mFilter = filter;
+        mTypoTolerant = typoTolerant;
+
+        plan(filter);
+
+        L.verbose("Planned query; required terms: " + mRequiredTerms +
+            ", excluded terms: " + mExcludedTerms +
+            ", scanned filters: " + mScannedFilters.size());
+    }
+
+    /**
+     * Returns the filter the query has been planned from, which can be used
+     * for check single songs.
+     * @return the filter of the query
+     */
+    public SongSearchFilter getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * Returns whether the query is satisfied by every song.
+     * @return whether the query is empty
+     */
+    public boolean isEmpty() {
+        return mRequiredTerms.isEmpty() && mExcludedTerms.isEmpty() &&
+            mScannedFilters.isEmpty();
+    }
+
+    /**
+     * Returns the songs of the library that satisfy the query, with their
+     * cost (see {@link SongsSearchIndex.Matches#getCost(int)}).
+     * <p>
+     * If the calling thread is interrupted the execution is abandoned and
+     * the returned matches are incomplete.
+     * @return the songs that satisfy the query
+     */
+    public SongsSearchIndex.Matches execute() {
+        SongsSearchIndex.Matches candidates = SongsSearchIndex.instance().search(
+            mRequiredTerms, mExcludedTerms, mTypoTolerant);
+
+        if (mScannedFilters.isEmpty())
+            return candidates;
+
+        List<Song> candidateSongs = candidates.getSongs();
+        List<Song> songs = new ArrayList<>();
+        int[] costs = new int[candidateSongs.size()];
+
+        for (int i = 0; i < candidateSongs.size(); i++) {
+            if (i % INTERRUPTION_CHECK_INTERVAL == 0 &&
+                Thread.currentThread().isInterrupted())
+                break;
+
+            Song song = candidateSongs.get(i);
+
+            if (check(song)) {
+                costs[songs.size()] = candidates.getCost(i);
+                songs.add(song);
+            }
+        }
+
+        return new SongsSearchIndex.Matches(songs, costs);
+    }
+
+    /**
+     * Returns whether the given song satisfies every filter that is
+     * not resolved by the index.
+     * @param song the song
+     * @return whether the song satisfies the scanned filters
+     */
+    private boolean check(Song song) {
+        for (SongSearchFilter filter : mScannedFilters) {
+            if (!filter.check(song))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Splits the given filter into the terms resolved by the index and the
+     * filters to check.
+     * @param filter the filter
+     */
+    private void plan(SongSearchFilter filter) {
+        if (filter instanceof SongSearchFilters.All) {
+            for (SongSearchFilter child : ((SongSearchFilters.All) filter).getFilters())
+                plan(child);
+            return;
+        }
+
+        if (filter instanceof SongSearchFilters.Text) {
+            mRequiredTerms.add(((SongSearchFilters.Text) filter).getTerm());
+            return;
+        }
+
+        if (filter instanceof SongSearchFilters.Not) {
+            SongSearchFilter negated = ((SongSearchFilters.Not) filter).getFilter();
+
+            if (negated instanceof SongSearchFilters.Text) {
+                mExcludedTerms.add(((SongSearchFilters.Text) negated).getTerm());
+                return;
+            }
+        }
+
+        mScannedFilters.add(filter);
+    }
+}
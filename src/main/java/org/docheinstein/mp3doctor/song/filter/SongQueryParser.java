@@ -0,0 +1,268 @@
+package org.docheinstein.mp3doctor.song.filter;
+
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.song.SongsSearchIndex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parser of the search queries into a tree of {@link SongSearchFilter}s.
+ * <p>
+ * A query is a sequence of terms separated by spaces, each of which must be
+ * satisfied; a term preceded by '-' must not be satisfied instead. A term is:
+ * <ul>
+ *     <li>a text, searched in the default fields (e.g. <code>queen</code>)</li>
+ *     <li><code>field:text</code>, searched in a field among title, artist,
+ *     album, year, genre, filename and path (e.g. <code>artist:queen</code>)</li>
+ *     <li><code>field:range</code>, compared as a number, where field is
+ *     among year, bitrate, samplerate and track and range is one among
+ *     <code>N</code>, <code>&gt;N</code>, <code>&gt;=N</code>,
+ *     <code>&lt;N</code>, <code>&lt;=N</code>, <code>N..M</code>,
+ *     <code>N..</code> and <code>..M</code>
+ *     (e.g. <code>year:1975..1985</code> or <code>bitrate:&gt;256</code>)</li>
+ *     <li><code>has:cover</code> or <code>has:lyrics</code></li>
+ * </ul>
+ * The texts are searched as word prefixes, as by the {@link SongsSearchIndex};
+ * those can be quoted for include spaces (e.g. <code>artist:"pink floyd"</code>).
+ * <p>
+ * The malformed terms (e.g. the ones the user is still typing, such as
+ * <code>bitrate:&gt;</code>) are ignored; the terms whose field is unknown
+ * are taken as texts.
+ */
+public class SongQueryParser {
+
+    private static final Logger L = Logger.createForClass(SongQueryParser.class);
+
+    /** Prefix of the negated terms. */
+    private static final char NEGATION = '-';
+
+    /** Separator between the field and the value of a term. */
+    private static final char FIELD_SEPARATOR = ':';
+
+    /** Quote that delimits the texts that contain spaces. */
+    private static final char QUOTE = '"';
+
+    /** Separator between the bounds of a range. */
+    private static final String RANGE_SEPARATOR = "..";
+
+    /** Maximum number of digits of the numbers, for do not overflow. */
+    private static final int MAX_DIGITS = 18;
+
+    /**
+     * Parses the given query.
+     * @param query the query
+     * @param defaultFields the fields the texts without a field are searched in
+     * @return the conjunction of the filters of the terms of the query,
+     *         which is satisfied by every song if the query has no terms
+     */
+    public static SongSearchFilters.All parse(String query,
+                                              Collection<SongsSearchIndex.Field> defaultFields) {
+        if (query == null)
+            return new SongSearchFilters.All();
+
+        List<SongSearchFilter> filters = new ArrayList<>();
+
+        int i = 0;
+
+        while (i < query.length()) {
+            // Skip the spaces before the term
+            if (Character.isWhitespace(query.charAt(i))) {
+                i++;
+                continue;
+            }
+
+            boolean negated = query.charAt(i) == NEGATION;
+            if (negated)
+                i++;
+
+            // The term lasts till the first space outside the quotes
+            int termStart = i;
+            boolean quoted = false;
+
+            while (i < query.length() &&
+                   (quoted || !Character.isWhitespace(query.charAt(i)))) {
+                if (query.charAt(i) == QUOTE)
+                    quoted = !quoted;
+                i++;
+            }
+
+            SongSearchFilter filter =
+                parseTerm(query.substring(termStart, i), defaultFields);
+
+            if (filter == null)
+                continue;
+
+            filters.add(negated ? new SongSearchFilters.Not(filter) : filter);
+        }
+
+        L.verbose("Parsed query '" + query + "' into " + filters.size() + " terms");
+
+        return new SongSearchFilters.All(filters.toArray(new SongSearchFilter[0]));
+    }
+
+    /**
+     * Parses a term of a query, without the negation.
+     * @param term the term
+     * @param defaultFields the fields the text is searched in if the term
+     *                      has no field
+     * @return the filter of the term, or null if the term has to be ignored
+     */
+    private static SongSearchFilter parseTerm(String term,
+                                              Collection<SongsSearchIndex.Field> defaultFields) {
+        int separator = term.indexOf(FIELD_SEPARATOR);
+
+        if (separator > 0) {
+            String field = term.substring(0, separator).toLowerCase();
+            String value = unquote(term.substring(separator + 1));
+
+            switch (field) {
+                case "title":
+                    return text(value, SongsSearchIndex.Field.Title);
+                case "artist":
+                    return text(value, SongsSearchIndex.Field.Artist);
+                case "album":
+                    return text(value, SongsSearchIndex.Field.Album);
+                case "genre":
+                    return text(value, SongsSearchIndex.Field.Genre);
+                case "filename":
+                    return text(value, SongsSearchIndex.Field.Filename);
+                case "path":
+                    return text(value, SongsSearchIndex.Field.Path);
+                case "year": {
+                    long[] range = parseRange(value);
+                    return range != null ?
+                        new SongSearchFilters.YearRange(range[0], range[1]) :
+                        text(value, SongsSearchIndex.Field.Year);
+                }
+                case "bitrate": {
+                    long[] range = parseRange(value);
+                    return range != null ?
+                        new SongSearchFilters.BitRateRange(range[0], range[1]) : null;
+                }
+                case "samplerate": {
+                    long[] range = parseRange(value);
+                    return range != null ?
+                        new SongSearchFilters.SampleRateRange(range[0], range[1]) : null;
+                }
+                case "track": {
+                    long[] range = parseRange(value);
+                    return range != null ?
+                        new SongSearchFilters.TrackNumberRange(range[0], range[1]) : null;
+                }
+                case "has":
+                    switch (value.toLowerCase()) {
+                        case "cover":
+                            return new SongSearchFilters.Cover(true);
+                        case "lyrics":
+                            return new SongSearchFilters.Lyrics(true);
+                        default:
+                            return null;
+                    }
+                default:
+                    // Not a field, just a text with a colon
+                    break;
+            }
+        }
+
+        if (defaultFields.isEmpty())
+            return null;
+
+        SongsSearchIndex.Term text = new SongsSearchIndex.Term(unquote(term), defaultFields);
+        return text.isEmpty() ? null : new SongSearchFilters.Text(text);
+    }
+
+    /**
+     * Returns the filter for the given text searched in the given field.
+     * @param value the text
+     * @param field the field
+     * @return the filter, or null if the text has no words
+     */
+    private static SongSearchFilter text(String value, SongsSearchIndex.Field field) {
+        SongsSearchIndex.Term text =
+            new SongsSearchIndex.Term(value, Collections.singletonList(field));
+        return text.isEmpty() ? null : new SongSearchFilters.Text(text);
+    }
+
+    /**
+     * Parses the given range.
+     * @param value the range
+     * @return the inclusive bounds of the range, or null if the value
+     *         is not a range
+     */
+    private static long[] parseRange(String value) {
+        int separator = value.indexOf(RANGE_SEPARATOR);
+
+        if (separator >= 0) {
+            String from = value.substring(0, separator);
+            String to = value.substring(separator + RANGE_SEPARATOR.length());
+
+            if (from.isEmpty() && to.isEmpty())
+                return null;
+
+            Long fromNumber = from.isEmpty() ? Long.valueOf(0) : parseNumber(from);
+            Long toNumber = to.isEmpty() ? Long.valueOf(Long.MAX_VALUE) : parseNumber(to);
+
+            return fromNumber != null && toNumber != null ?
+                new long[] { fromNumber, toNumber } : null;
+        }
+
+        // The longer operators first
+        if (value.startsWith(">=")) {
+            Long number = parseNumber(value.substring(2));
+            return number != null ? new long[] { number, Long.MAX_VALUE } : null;
+        }
+
+        if (value.startsWith("<=")) {
+            Long number = parseNumber(value.substring(2));
+            return number != null ? new long[] { 0, number } : null;
+        }
+
+        if (value.startsWith(">")) {
+            Long number = parseNumber(value.substring(1));
+            return number != null ? new long[] { number + 1, Long.MAX_VALUE } : null;
+        }
+
+        if (value.startsWith("<")) {
+            Long number = parseNumber(value.substring(1));
+            return number != null ? new long[] { 0, number - 1 } : null;
+        }
+
+        Long number = parseNumber(value);
+        return number != null ? new long[] { number, number } : null;
+    }
+
+    /**
+     * Parses the given non negative number.
+     * @param value the number
+     * @return the number, or null if the value is not a number
+     */
+    private static Long parseNumber(String value) {
+        if (value.isEmpty() || value.length() > MAX_DIGITS)
+            return null;
+
+        long number = 0;
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c < '0' || c > '9')
+                return null;
+
+            number = number * 10 + (c - '0');
+        }
+
+        return number;
+    }
+
+    /**
+     * Returns the given text without the quotes.
+     * @param text the text
+     * @return the text without the quotes
+     */
+    private static String unquote(String text) {
+        return text.indexOf(QUOTE) >= 0 ? text.replace(String.valueOf(QUOTE), "") : text;
+    }
+}
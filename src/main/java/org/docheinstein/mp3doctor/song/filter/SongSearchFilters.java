@@ -2,148 +2,251 @@ package org.docheinstein.mp3doctor.song.filter;
 
 import org.docheinstein.mp3doctor.commons.utils.StringUtil;
 import org.docheinstein.mp3doctor.song.Song;
+import org.docheinstein.mp3doctor.song.SongsSearchIndex;
+
+import java.util.Arrays;
+import java.util.List;
 
 
 /** Contains all the filters that operate on {@link Song}. */
 public class SongSearchFilters {
 
-    /** {@link SongSearchFilter} that operates on {@link Song#getTitle()}. */
-    public static class Title extends SongSearchFilterImpl<String> {
+    /** {@link SongSearchFilter} that operate on {@link Song#hasLyrics()}. */
+    public static class Lyrics extends SongSearchFilterImpl<Boolean> {
+        public Lyrics(Boolean filterValue) { super(filterValue); }
 
-        /** Creates a filter that evaluates a song over the given field. */
-        public Title(String filterValue) { super(filterValue); }
 
         /**
-         * Returns whether the given song contains the field this filter
-         * has been created with in {@link Song#getTitle()}.
+         * Returns whether the given song has valid lyrics if this filter
+         * has been created with value true, or whether the given song has
+         * invalid lyrics if this filter has been created with value false.
          * @param song the song to check
-         * @return whether the song contains a part of the field of this filter
+         * @return whether the song has/hasn't lyrics based on this filter value
          */
         @Override
         public boolean check(Song song) {
-            return
-                !StringUtil.isValid(mFilterValue) ||
-                StringUtil.isValid(song.getTitle()) &&
-                StringUtil.containsIgnoreCase(song.getTitle(), mFilterValue);
+            return mFilterValue == song.hasLyrics();
         }
     }
 
-    /** {@link SongSearchFilter} that operates on {@link Song#getArtist()}. */
-    public static class Artist extends SongSearchFilterImpl<String> {
-
-        /** Creates a filter that evaluates a song over the given field. */
-        public Artist(String filterValue) { super(filterValue); }
+    /** {@link SongSearchFilter} that operate on {@link Song#hasCover()}. */
+    public static class Cover extends SongSearchFilterImpl<Boolean> {
+        public Cover(Boolean filterValue) { super(filterValue); }
 
         /**
-         * Returns whether the given song contains the field this filter
-         * has been created with in {@link Song#getArtist()}.
+         * Returns whether the given song has a valid cover if this filter
+         * has been created with value true, or whether the given song has
+         * an invalid cover if this filter has been created with value false.
          * @param song the song to check
-         * @return whether the song contains a part of the field of this filter
+         * @return whether the song has/has not a cover based on this filter value
          */
         @Override
         public boolean check(Song song) {
-            return
-                !StringUtil.isValid(mFilterValue) ||
-                StringUtil.isValid(song.getArtist()) &&
-                StringUtil.containsIgnoreCase(song.getArtist(), mFilterValue);
+            return mFilterValue == song.hasCover();
         }
     }
 
-    /** {@link SongSearchFilter} that operates on {@link Song#getAlbum()}. */
-    public static class Album extends SongSearchFilterImpl<String> {
+    /**
+     * {@link SongSearchFilter} that operates on a numeric tag, that is
+     * satisfied by the songs whose tag's value is within a range.
+     * <p>
+     * The value of the tag is the first number found in it (e.g. 1995 for
+     * "1995-03-01", 192 for "~192" or 3 for "3/12"), compared as a number.
+     */
+    public static abstract class NumberRange implements SongSearchFilter {
+
+        /** Maximum number of digits of the parsed numbers, for do not overflow. */
+        private static final int MAX_DIGITS = 18;
 
-        /** Creates a filter that evaluates a song over the given field. */
-        public Album(String filterValue) { super(filterValue); }
+        /** Lower bound of the range, inclusive. */
+        private final long mFrom;
+
+        /** Upper bound of the range, inclusive. */
+        private final long mTo;
+
+        /**
+         * Creates a filter for the values between the given ones.
+         * @param from the lower bound of the range, inclusive
+         * @param to the upper bound of the range, inclusive
+         */
+        protected NumberRange(long from, long to) {
+            mFrom = from;
+            mTo = to;
+        }
 
         /**
-         * Returns whether the given song contains the field this filter
-         * has been created with in {@link Song#getAlbum()}.
+         * Returns the tag of the given song this filter operates on.
+         * @param song the song
+         * @return the value of the tag, might be null
+         */
+        protected abstract String getTag(Song song);
+
+        /**
+         * Returns whether the number of the tag returned by
+         * {@link #getTag(Song)} is within the range of this filter.
          * @param song the song to check
-         * @return whether the song contains a part of the field of this filter
+         * @return whether the song's number is within the range; false
+         *         if the tag doesn't contain a number
          */
         @Override
         public boolean check(Song song) {
-            return
-                !StringUtil.isValid(mFilterValue) ||
-                StringUtil.isValid(song.getAlbum()) &&
-                StringUtil.containsIgnoreCase(song.getAlbum(), mFilterValue);
+            String tag = getTag(song);
+
+            if (!StringUtil.isValid(tag))
+                return false;
+
+            int i = 0;
+
+            while (i < tag.length() && !Character.isDigit(tag.charAt(i)))
+                i++;
+
+            long value = 0;
+            int digitCount = 0;
+
+            while (i < tag.length() && digitCount < MAX_DIGITS &&
+                   Character.isDigit(tag.charAt(i))) {
+                value = value * 10 + (tag.charAt(i) - '0');
+                digitCount++;
+                i++;
+            }
+
+            return digitCount > 0 && value >= mFrom && value <= mTo;
         }
     }
 
-    /** {@link SongSearchFilter} that operate on {@link Song#getYear()}. */
-    public static class Year extends SongSearchFilterImpl<String> {
+    /** {@link NumberRange} that operates on {@link Song#getYear()}. */
+    public static class YearRange extends NumberRange {
 
-        /** Creates a filter that evaluates a song over the given field. */
-        public Year(String filterValue) { super(filterValue); }
+        /** Creates a filter for the years between the given ones. */
+        public YearRange(long from, long to) { super(from, to); }
 
-        /**
-         * Returns whether the given song contains the field this filter
-         * has been created with in {@link Song#getYear()}.
-         * @param song the song to check
-         * @return whether the song contains a part of the field of this filter
-         */
         @Override
-        public boolean check(Song song) {
-            return
-                !StringUtil.isValid(mFilterValue) ||
-                StringUtil.isValid(song.getYear()) &&
-                StringUtil.containsIgnoreCase(song.getYear(), mFilterValue);
+        protected String getTag(Song song) {
+            return song.getYear();
+        }
+    }
+
+    /**
+     * {@link NumberRange} that operates on {@link Song#getBitRate()}, in kbps.
+     * <p>
+     * The files are never read: the songs whose header tags are not loaded
+     * don't satisfy the filter.
+     */
+    public static class BitRateRange extends NumberRange {
+
+        /** Creates a filter for the bit rates between the given ones. */
+        public BitRateRange(long from, long to) { super(from, to); }
+
+        @Override
+        protected String getTag(Song song) {
+            return song.getBitRate();
         }
     }
 
-    /** {@link SongSearchFilter} that operate on {@link Song#getGenre()}. */
-    public static class Genre extends SongSearchFilterImpl<String> {
+    /**
+     * {@link NumberRange} that operates on {@link Song#getSampleRate()}, in Hz.
+     * <p>
+     * The files are never read: the songs whose header tags are not loaded
+     * don't satisfy the filter.
+     */
+    public static class SampleRateRange extends NumberRange {
 
-        /** Creates a filter that evaluates a song over the given field. */
-        public Genre(String filterValue) { super(filterValue); }
+        /** Creates a filter for the sample rates between the given ones. */
+        public SampleRateRange(long from, long to) { super(from, to); }
+
+        @Override
+        protected String getTag(Song song) {
+            return song.getSampleRate();
+        }
+    }
+
+    /** {@link NumberRange} that operates on {@link Song#getTrackNumber()}. */
+    public static class TrackNumberRange extends NumberRange {
+
+        /** Creates a filter for the track numbers between the given ones. */
+        public TrackNumberRange(long from, long to) { super(from, to); }
+
+        @Override
+        protected String getTag(Song song) {
+            return song.getTrackNumber();
+        }
+    }
+
+    /**
+     * {@link SongSearchFilter} satisfied by the songs that match a
+     * {@link SongsSearchIndex.Term}, thus that can be resolved through
+     * the {@link SongsSearchIndex} instead of checking each song.
+     */
+    public static class Text implements SongSearchFilter {
+
+        /** Term the songs must match. */
+        private final SongsSearchIndex.Term mTerm;
+
+        /** Creates a filter satisfied by the songs that match the given term. */
+        public Text(SongsSearchIndex.Term term) { mTerm = term; }
 
         /**
-         * Returns whether the given song contains the field this filter
-         * has been created with in {@link Song#getGenre()}.
-         * @param song the song to check
-         * @return whether the song contains a part of the field of this filter
+         * Returns the term the songs must match.
+         * @return the term
          */
+        public SongsSearchIndex.Term getTerm() {
+            return mTerm;
+        }
+
         @Override
         public boolean check(Song song) {
-            return
-                !StringUtil.isValid(mFilterValue) ||
-                StringUtil.isValid(song.getGenre()) &&
-                StringUtil.containsIgnoreCase(song.getGenre(), mFilterValue);
+            return mTerm.matches(song);
         }
     }
 
-    /** {@link SongSearchFilter} that operate on {@link Song#getLyrics()}. */
-    public static class Lyrics extends SongSearchFilterImpl<Boolean> {
-        public Lyrics(Boolean filterValue) { super(filterValue); }
+    /** {@link SongSearchFilter} satisfied when every given filter is. */
+    public static class All implements SongSearchFilter {
+
+        /** Composed filters. */
+        private final SongSearchFilter[] mFilters;
 
+        /** Creates a filter that is the conjunction of the given ones. */
+        public All(SongSearchFilter... filters) { mFilters = filters; }
 
         /**
-         * Returns whether the given song has valid lyrics if this filter
-         * has been created with value true, or whether the given song has
-         * invalid lyrics if this filter has been created with value false.
-         * @param song the song to check
-         * @return whether the song has/hasn't lyrics based on this filter value
+         * Returns the composed filters.
+         * @return the filters that must be satisfied
          */
+        public List<SongSearchFilter> getFilters() {
+            return Arrays.asList(mFilters);
+        }
+
         @Override
         public boolean check(Song song) {
-            return mFilterValue == StringUtil.isValid(song.getLyrics());
+            for (SongSearchFilter filter : mFilters) {
+                if (!filter.check(song))
+                    return false;
+            }
+
+            return true;
         }
     }
 
-    /** {@link SongSearchFilter} that operate on {@link Song#getCover()}. */
-    public static class Cover extends SongSearchFilterImpl<Boolean> {
-        public Cover(Boolean filterValue) { super(filterValue); }
+    /** {@link SongSearchFilter} satisfied when the given filter is not. */
+    public static class Not implements SongSearchFilter {
+
+        /** Negated filter. */
+        private final SongSearchFilter mFilter;
+
+        /** Creates a filter that is the negation of the given one. */
+        public Not(SongSearchFilter filter) { mFilter = filter; }
 
         /**
-         * Returns whether the given song has a valid cover if this filter
-         * has been created with value true, or whether the given song has
-         * an invalid cover if this filter has been created with value false.
-         * @param song the song to check
-         * @return whether the song has/has not a cover based on this filter value
+         * Returns the negated filter.
+         * @return the filter that must not be satisfied
          */
+        public SongSearchFilter getFilter() {
+            return mFilter;
+        }
+
         @Override
         public boolean check(Song song) {
-            return mFilterValue == (song.getCover() != null);
+            return !mFilter.check(song);
         }
     }
 }
@@ -0,0 +1,275 @@
+package org.docheinstein.mp3doctor.song.importer;
+
+import org.docheinstein.mp3doctor.commons.constants.Config;
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.commons.utils.Asserts;
+import org.docheinstein.mp3doctor.commons.utils.ThreadUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Entity that watches the directory trees of the library for changes
+ * to the .mp3 files via a {@link WatchService}.
+ * <p>
+ * Since the watch service is not recursive, every directory of the watched
+ * trees is registered, included the ones created after the watch has begun.
+ * <p>
+ * The events are not handed out one by one: those are collected while
+ * they keep coming and are handed to the consumer as a single set of
+ * paths when no event has been received for
+ * {@link Config.Library#WATCHER_QUIET_PERIOD_MILLIS}, or at most after
+ * {@link Config.Library#WATCHER_MAX_DELAY_MILLIS} from the first one.
+ * The set contains each path just once, regardless of how many times it
+ * has changed; the consumer is expected to check the current state of the
+ * paths, which may be:
+ * <ul>
+ *     <li>.mp3 files that have been created, moved in or modified</li>
+ *     <li>.mp3 files or directories that don't exist anymore</li>
+ *     <li>directories that have been created or moved in, or whose
+ *         events have been lost (i.e. that should be rescanned)</li>
+ * </ul>
+ */
+public class LibraryWatcher {
+
+    private static final Logger L = Logger.createForClass(LibraryWatcher.class);
+
+    /** Extension of the files the watcher cares about. */
+    private static final String MP3_EXTENSION = ".mp3";
+
+    /** Consumer of the changed paths. */
+    private final Consumer<Set<File>> mChangesConsumer;
+
+    /** Directories registered to the watch service, by key. */
+    private final Map<WatchKey, Path> mWatchedDirectories = new ConcurrentHashMap<>();
+
+    /** Directories registered to the watch service. */
+    private final Set<Path> mWatchedPaths = ConcurrentHashMap.newKeySet();
+
+    /** Underlying watch service, or null if it hasn't been created yet. */
+    // Guarded by this
+    private WatchService mWatchService;
+
+    /**
+     * Creates a new watcher that hands the changed paths to the given consumer.
+     * <p>
+     * Note that the consumer is called from the thread of the watcher.
+     * @param changesConsumer the consumer of the changed paths
+     */
+    public LibraryWatcher(Consumer<Set<File>> changesConsumer) {
+        Asserts.assertNotNull(changesConsumer, "Can't watch without a changes consumer", L);
+        mChangesConsumer = changesConsumer;
+    }
+
+    /**
+     * Starts to watch the given directory trees.
+     * <p>
+     * The directories are registered asynchronously; the directories that
+     * are already watched are skipped.
+     * @param roots the roots of the trees to watch
+     */
+    public void watch(Collection<File> roots) {
+        Asserts.assertNotNull(roots, "Can't watch null directories", L);
+
+        WatchService watchService = ensureWatchService();
+
+        if (watchService == null)
+            return;
+
+        ThreadUtil.daemonThreadFactory("library-watcher-registrar").newThread(() -> {
+            for (File root : roots)
+                registerTree(watchService, root.toPath().toAbsolutePath());
+
+            L.debug("Watched directories: " + mWatchedPaths.size());
+        }).start();
+    }
+
+    /**
+     * Returns the watch service, creating it and starting the thread that
+     * polls it at the first call.
+     * @return the watch service, or null if it can't be created
+     */
+    private synchronized WatchService ensureWatchService() {
+        if (mWatchService != null)
+            return mWatchService;
+
+        try {
+            mWatchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            L.error("Can't create watch service; the library won't be synced", e);
+            return null;
+        }
+
+        WatchService watchService = mWatchService;
+
+        ThreadUtil.daemonThreadFactory("library-watcher")
+            .newThread(() -> poll(watchService))
+            .start();
+
+        return watchService;
+    }
+
+    /**
+     * Registers every directory of the tree rooted at the given directory.
+     * @param watchService the watch service
+     * @param root the root of the tree
+     */
+    private void registerTree(WatchService watchService, Path root) {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!mWatchedPaths.add(dir))
+                        return FileVisitResult.SKIP_SUBTREE;
+
+                    try {
+                        mWatchedDirectories.put(
+                            dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY),
+                            dir);
+                    } catch (IOException e) {
+                        L.warn("Can't watch directory, skipping it: " + dir);
+                        mWatchedPaths.remove(dir);
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // Not an error, the rest of the tree can still be watched
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            L.warn("Can't walk directory, skipping it: " + root);
+        }
+    }
+
+    /**
+     * Polls the watch service forever, collecting the changed paths and
+     * handing those to the consumer once the events calm down.
+     * @param watchService the watch service
+     */
+    private void poll(WatchService watchService) {
+        long quietPeriodNanos =
+            TimeUnit.MILLISECONDS.toNanos(Config.Library.WATCHER_QUIET_PERIOD_MILLIS);
+        long maxDelayNanos =
+            TimeUnit.MILLISECONDS.toNanos(Config.Library.WATCHER_MAX_DELAY_MILLIS);
+
+        Set<File> changes = new HashSet<>();
+        long firstEventNanos = 0;
+        long lastEventNanos = 0;
+
+        while (true) {
+            WatchKey key;
+
+            try {
+                if (changes.isEmpty()) {
+                    key = watchService.take();
+                } else {
+                    long now = System.nanoTime();
+                    long waitNanos = Math.min(
+                        lastEventNanos + quietPeriodNanos,
+                        firstEventNanos + maxDelayNanos) - now;
+                    key = waitNanos > 0 ?
+                        watchService.poll(waitNanos, TimeUnit.NANOSECONDS) : null;
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                L.warn("Library watcher has been stopped");
+                return;
+            }
+
+            if (key != null) {
+                boolean wasEmpty = changes.isEmpty();
+
+                collectChanges(watchService, key, changes);
+
+                if (!changes.isEmpty()) {
+                    lastEventNanos = System.nanoTime();
+                    if (wasEmpty)
+                        firstEventNanos = lastEventNanos;
+                }
+            }
+
+            long now = System.nanoTime();
+
+            if (!changes.isEmpty() &&
+                (now - lastEventNanos >= quietPeriodNanos ||
+                 now - firstEventNanos >= maxDelayNanos)) {
+                L.debug("Handing out " + changes.size() + " changed paths");
+                try {
+                    mChangesConsumer.accept(changes);
+                } catch (Exception e) {
+                    L.error("Error occurred while handling library changes", e);
+                }
+                changes = new HashSet<>();
+            }
+        }
+    }
+
+    /**
+     * Adds to the given set the paths the events of the given key refer to.
+     * @param watchService the watch service
+     * @param key the signalled key
+     * @param changes the set of the changed paths
+     */
+    private void collectChanges(WatchService watchService, WatchKey key, Set<File> changes) {
+        Path dir = mWatchedDirectories.get(key);
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (dir == null)
+                continue;
+
+            WatchEvent.Kind<?> kind = event.kind();
+
+            if (kind == OVERFLOW) {
+                // Some events have been lost, the whole directory is rescanned
+                L.warn("Events lost for directory, it will be rescanned: " + dir);
+                changes.add(dir.toFile());
+                continue;
+            }
+
+            Path path = dir.resolve((Path) event.context());
+
+            if (kind == ENTRY_CREATE && Files.isDirectory(path)) {
+                registerTree(watchService, path);
+                changes.add(path.toFile());
+            }
+            else if (kind == ENTRY_DELETE && mWatchedPaths.remove(path)) {
+                // A watched directory; its key is cancelled on its own
+                changes.add(path.toFile());
+            }
+            else if (isMP3(path)) {
+                changes.add(path.toFile());
+            }
+        }
+
+        if (!key.reset()) {
+            // The directory doesn't exist anymore (or can't be accessed)
+            Path removedDir = mWatchedDirectories.remove(key);
+            if (removedDir != null && mWatchedPaths.remove(removedDir))
+                changes.add(removedDir.toFile());
+        }
+    }
+
+    /**
+     * Returns whether the given path looks like an .mp3 file.
+     * @param path the path
+     * @return whether the path has the .mp3 extension
+     */
+    private static boolean isMP3(Path path) {
+        Path filename = path.getFileName();
+        return filename != null && filename.toString().endsWith(MP3_EXTENSION);
+    }
+}
@@ -0,0 +1,264 @@
+package org.docheinstein.mp3doctor.song.importer;
+
+import org.docheinstein.mp3doctor.commons.constants.Config;
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.commons.utils.Asserts;
+import org.docheinstein.mp3doctor.commons.utils.CollectionsUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Entity that walks directory trees in parallel looking for .mp3 files.
+ * <p>
+ * Each directory is scanned by its own fork-join task, so that nested
+ * directories are visited concurrently; the found files are not collected
+ * into a single list but are handed to a consumer in chunks of bounded size
+ * as soon as those are available.
+ * <p>
+ * Symbolic links to directories are followed only once (loops are detected
+ * by comparing the real path of the directories) and unreadable directories
+ * are skipped without aborting the walk.
+ * <p>
+ * The walk can be cancelled at any time via {@link #cancel()}.
+ */
+public class SongFilesWalker {
+
+    private static final Logger L = Logger.createForClass(SongFilesWalker.class);
+
+    /** Extension of the files the walker looks for. */
+    private static final String MP3_EXTENSION = ".mp3";
+
+    /**
+     * Pool shared by every walk.
+     * <p>
+     * This is not the common pool since the tasks are mostly blocked on
+     * the file system and would starve the other users of the common pool.
+     */
+    private static final ForkJoinPool POOL =
+        new ForkJoinPool(Config.Library.WALKER_PARALLELISM);
+
+    /** Consumer of the chunks of found files. */
+    private final Consumer<List<File>> mChunkConsumer;
+
+    /** Maximum size of a chunk handed to the consumer. */
+    private final int mChunkSize;
+
+    /** Real paths of the directories already visited by this walker. */
+    private final Set<Path> mVisitedDirectories = ConcurrentHashMap.newKeySet();
+
+    /** Whether the walk has been cancelled. */
+    private volatile boolean mCancelled = false;
+
+    /** Files found but not handed to the consumer yet. */
+    // Guarded by this
+    private List<File> mPendingChunk = new ArrayList<>();
+
+    /**
+     * Creates a new walker that hands the found files to the given consumer.
+     * <p>
+     * Note that the consumer is called from the threads of the walker, not
+     * from the thread that started the walk.
+     * @param chunkConsumer the consumer of the chunks of found files
+     * @param chunkSize the maximum size of a chunk
+     */
+    public SongFilesWalker(Consumer<List<File>> chunkConsumer, int chunkSize) {
+        Asserts.assertNotNull(chunkConsumer, "Can't walk without a chunk consumer", L);
+        Asserts.assertTrue(chunkSize > 0, "Chunk size must be positive", L);
+        mChunkConsumer = chunkConsumer;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Starts to walk the given directories asynchronously.
+     * @param directories the root directories to walk
+     * @param onFinished an optional callback called, from a thread of
+     *                   the walker, after the last chunk has been consumed
+     */
+    public void walk(Collection<File> directories, Runnable onFinished) {
+        Asserts.assertNotNull(directories, "Can't walk null directories", L);
+
+        L.debug("Starting to walk " + directories.size() + " directories");
+
+        POOL.execute(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                List<DirectoryTask> rootTasks = new ArrayList<>();
+                for (File directory : directories)
+                    rootTasks.add(new DirectoryTask(directory.toPath()));
+
+                invokeAll(rootTasks);
+
+                // Hands out the remaining files, which are less than a chunk
+                flush();
+
+                L.debug("Walk finished; visited directories: " +
+                    mVisitedDirectories.size());
+
+                if (onFinished != null)
+                    onFinished.run();
+            }
+        });
+    }
+
+    /**
+     * Cancels the walk: the directories not read yet are skipped and the
+     * found files are not handed to the consumer anymore.
+     * <p>
+     * The finish callback given to {@link #walk(Collection, Runnable)}
+     * is called anyway.
+     */
+    public void cancel() {
+        L.debug("Cancelling walk");
+        mCancelled = true;
+    }
+
+    /**
+     * Returns whether the walk has been cancelled.
+     * @return whether the walk has been cancelled
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Adds the given files to the pending chunk and hands the chunk to the
+     * consumer if it is full.
+     * @param files the found files
+     */
+    private void offer(List<File> files) {
+        if (!CollectionsUtil.isFilled(files))
+            return;
+
+        List<File> fullChunk = null;
+
+        synchronized (this) {
+            mPendingChunk.addAll(files);
+
+            if (mPendingChunk.size() >= mChunkSize) {
+                fullChunk = mPendingChunk;
+                mPendingChunk = new ArrayList<>();
+            }
+        }
+
+        // The consumer is called outside the lock for not block the
+        // other tasks while the chunk is being consumed
+        if (fullChunk != null)
+            consume(fullChunk);
+    }
+
+    /** Hands the pending chunk to the consumer, even if it's not full. */
+    private void flush() {
+        List<File> chunk;
+
+        synchronized (this) {
+            chunk = mPendingChunk;
+            mPendingChunk = new ArrayList<>();
+        }
+
+        if (!chunk.isEmpty())
+            consume(chunk);
+    }
+
+    /**
+     * Hands the given chunk to the consumer, split in pieces of at most
+     * {@link #mChunkSize} files.
+     * @param chunk the chunk to consume
+     */
+    private void consume(List<File> chunk) {
+        for (int i = 0; i < chunk.size() && !mCancelled; i += mChunkSize) {
+            mChunkConsumer.accept(new ArrayList<>(
+                chunk.subList(i, Math.min(i + mChunkSize, chunk.size()))));
+        }
+    }
+
+    /**
+     * Marks the given directory as visited.
+     * @param directory the directory
+     * @return false if the directory had already been visited (e.g. it has
+     *         been reached again through a symbolic link) or can't be resolved
+     */
+    private boolean markVisited(Path directory) {
+        try {
+            return mVisitedDirectories.add(directory.toRealPath());
+        } catch (IOException e) {
+            L.warn("Can't resolve directory, skipping it: " + directory);
+            return false;
+        }
+    }
+
+    /**
+     * Returns whether the given path looks like an .mp3 file.
+     * @param path the path
+     * @return whether the path has the .mp3 extension
+     */
+    private static boolean isMP3(Path path) {
+        Path filename = path.getFileName();
+        return filename != null && filename.toString().endsWith(MP3_EXTENSION);
+    }
+
+    /**
+     * Task that scans a single directory, offers the found .mp3 files
+     * and forks a new task for each nested directory.
+     */
+    private class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Directory scanned by this task. */
+        private final Path mDirectory;
+
+        /**
+         * Creates a task for the given directory.
+         * @param directory the directory to scan
+         */
+        private DirectoryTask(Path directory) {
+            mDirectory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            if (mCancelled)
+                return;
+
+            if (!markVisited(mDirectory)) {
+                L.verbose("Directory already visited, skipping it: " + mDirectory);
+                return;
+            }
+
+            List<DirectoryTask> nestedTasks = new ArrayList<>();
+            List<File> files = new ArrayList<>();
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(mDirectory)) {
+                for (Path path : stream) {
+                    if (mCancelled)
+                        return;
+
+                    // Follows the symbolic links, loops are detected by markVisited
+                    if (Files.isDirectory(path))
+                        nestedTasks.add(new DirectoryTask(path));
+                    else if (isMP3(path))
+                        files.add(path.toFile());
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                // Not an error, the rest of the tree can still be walked
+                L.warn("Can't read directory, skipping it: " + mDirectory);
+            }
+
+            offer(files);
+            invokeAll(nestedTasks);
+        }
+    }
+}
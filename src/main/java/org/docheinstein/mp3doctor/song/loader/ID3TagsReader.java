@@ -0,0 +1,787 @@
+package org.docheinstein.mp3doctor.song.loader;
+
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.commons.utils.StringUtil;
+import org.docheinstein.mp3doctor.song.SongTags;
+import org.jaudiotagger.tag.id3.framebody.FrameBodyTCON;
+import org.jaudiotagger.tag.reference.GenreTypes;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reader that extracts the tags the application uses from an .mp3 file
+ * by decoding only the ID3 tags and the first MPEG frame.
+ * <p>
+ * The region of the ID3v2 tag is read in the heap a chunk at a time and only
+ * the frames of interest are decoded (e.g. the cover is detected but never
+ * read); the file is not mapped, since a mapping would keep it locked on
+ * some platforms (e.g. Windows) till the GC releases it;
+ * the bit rate, the sample rate and the channels are taken from the first
+ * MPEG frame after the tag and from its Xing header, if any.
+ * <p>
+ * The values are formatted the same way jaudiotagger does, so that the
+ * songs read by this reader are indistinguishable from the ones read by
+ * jaudiotagger.
+ * <p>
+ * The reader handles only the common ID3v2.3/2.4 and ID3v1 tags and
+ * the MPEG layer III streams; for any other file (e.g. ID3v2.2 tags,
+ * unsynchronised or compressed frames, VBRI headers) {@link #read(File, boolean)}
+ * returns null and the file should be read by jaudiotagger instead.
+ */
+public class ID3TagsReader {
+
+    private static final Logger L = Logger.createForClass(ID3TagsReader.class);
+
+    /** Size of the ID3v2 header and footer. */
+    private static final int ID3V2_HEADER_SIZE = 10;
+
+    /** Size of an ID3v2.3/2.4 frame header. */
+    private static final int ID3V2_FRAME_HEADER_SIZE = 10;
+
+    /** Size of an ID3v1 tag. */
+    private static final int ID3V1_TAG_SIZE = 128;
+
+    /** Size of the chunks of the ID3v2 tag read at a time. */
+    private static final int TAG_WINDOW_SIZE = 8 * 1024;
+
+    /** Number of bytes after the ID3v2 tag in which the first MPEG frame is looked for. */
+    private static final int AUDIO_SCAN_WINDOW = 16 * 1024;
+
+    // ID3v2 flags
+
+    private static final int TAG_FLAG_UNSYNCHRONISATION = 0x80;
+    private static final int TAG_FLAG_EXTENDED_HEADER = 0x40;
+    private static final int TAG_FLAG_FOOTER = 0x10;
+
+    private static final int V23_FRAME_FLAG_COMPRESSION = 0x80;
+    private static final int V23_FRAME_FLAG_ENCRYPTION = 0x40;
+    private static final int V23_FRAME_FLAG_GROUPING = 0x20;
+
+    private static final int V24_FRAME_FLAG_GROUPING = 0x40;
+    private static final int V24_FRAME_FLAG_COMPRESSION = 0x08;
+    private static final int V24_FRAME_FLAG_ENCRYPTION = 0x04;
+    private static final int V24_FRAME_FLAG_UNSYNCHRONISATION = 0x02;
+    private static final int V24_FRAME_FLAG_DATA_LENGTH = 0x01;
+
+    // MPEG constants
+
+    private static final int MPEG_VERSION_2_5 = 0;
+    private static final int MPEG_VERSION_2 = 2;
+    private static final int MPEG_VERSION_1 = 3;
+
+    private static final int MPEG_LAYER_III = 1;
+
+    private static final int MODE_MONO = 3;
+
+    /** Names of the channel modes, as reported by jaudiotagger. */
+    private static final String[] CHANNEL_MODES = {
+        "Stereo", "Joint Stereo", "Dual", "Mono"
+    };
+
+    /** Bit rates (kbps) of the MPEG 1 layer III frames, by index. */
+    private static final int[] BIT_RATES_V1 = {
+        0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 0
+    };
+
+    /** Bit rates (kbps) of the MPEG 2/2.5 layer III frames, by index. */
+    private static final int[] BIT_RATES_V2 = {
+        0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160, 0
+    };
+
+    /** Sample rates of the MPEG 1 frames, by index. */
+    private static final int[] SAMPLE_RATES_V1 = { 44100, 48000, 32000, 0 };
+
+    /** Sample rates of the MPEG 2 frames, by index. */
+    private static final int[] SAMPLE_RATES_V2 = { 22050, 24000, 16000, 0 };
+
+    /** Sample rates of the MPEG 2.5 frames, by index. */
+    private static final int[] SAMPLE_RATES_V2_5 = { 11025, 12000, 8000, 0 };
+
+    /** Samples contained in a layer III frame (as counted by jaudiotagger). */
+    private static final int SAMPLES_PER_FRAME = 1152;
+
+    // Xing header
+
+    private static final int XING_FLAG_FRAME_COUNT = 0x01;
+    private static final int XING_FLAG_AUDIO_SIZE = 0x02;
+
+    /**
+     * Reads the tags of the given .mp3 file, optionally including the
+     * audio header fields.
+     * <p>
+     * If the audio header is not read, the bit rate, the sample rate and
+     * the channels of the returned tags are null.
+     * @param file the file
+     * @param readAudioHeader whether the audio header fields should be read
+     * @return the tags of the file, or null if the file can't be handled
+     *         by this reader and thus should be read by jaudiotagger
+     */
+    public static SongTags read(File file, boolean readAudioHeader) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return read(channel, readAudioHeader);
+        } catch (IOException | RuntimeException e) {
+            // RuntimeException(s) are caught too since a malformed file
+            // may lead to decode out of the bounds of the buffers
+            L.verbose("Can't read tags of " + file + " with the fast reader: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the tags of the file opened by the given channel.
+     * @param channel the channel of the file
+     * @param readAudioHeader whether the audio header fields should be read
+     * @return the tags, or null if the file can't be handled by this reader
+     * @throws IOException if an I/O error occurs
+     */
+    private static SongTags read(FileChannel channel, boolean readAudioHeader) throws IOException {
+        long fileSize = channel.size();
+
+        ByteBuffer header = ByteBuffer.allocate(ID3V2_HEADER_SIZE);
+        readFully(channel, header, 0);
+
+        long audioStart = 0;
+        int tagVersion = 0;
+        int tagFlags = 0;
+        int tagSize = 0;
+
+        if (header.limit() == ID3V2_HEADER_SIZE &&
+            header.get(0) == 'I' && header.get(1) == 'D' && header.get(2) == '3') {
+            tagVersion = header.get(3);
+            tagFlags = header.get(5) & 0xFF;
+            tagSize = readSynchsafeInt(header, 6);
+
+            if (tagSize < 0)
+                return null;
+
+            audioStart = ID3V2_HEADER_SIZE + tagSize;
+            if ((tagFlags & TAG_FLAG_FOOTER) != 0)
+                audioStart += ID3V2_HEADER_SIZE;
+        }
+
+        AudioInfo audio = AudioInfo.NOT_READ;
+
+        if (readAudioHeader) {
+            if (audioStart >= fileSize)
+                return null;
+
+            ByteBuffer audioBuffer = ByteBuffer.allocate(
+                (int) Math.min(AUDIO_SCAN_WINDOW, fileSize - audioStart));
+            readFully(channel, audioBuffer, audioStart);
+
+            audio = readAudioInfo(audioBuffer, audioStart, fileSize);
+            if (audio == null)
+                return null;
+        }
+
+        if (tagVersion != 0) {
+            if (tagVersion != 3 && tagVersion != 4)
+                return null;
+
+            if ((tagFlags & TAG_FLAG_UNSYNCHRONISATION) != 0)
+                return null;
+
+            if (audioStart > fileSize)
+                return null;
+
+            return readID3v2Tag(new TagWindow(channel, audioStart),
+                tagVersion, tagFlags, tagSize, audio);
+        }
+
+        if (fileSize >= ID3V1_TAG_SIZE) {
+            ByteBuffer v1 = ByteBuffer.allocate(ID3V1_TAG_SIZE);
+            readFully(channel, v1, fileSize - ID3V1_TAG_SIZE);
+
+            if (v1.limit() == ID3V1_TAG_SIZE &&
+                v1.get(0) == 'T' && v1.get(1) == 'A' && v1.get(2) == 'G')
+                return readID3v1Tag(v1, audio);
+        }
+
+        // Neither an ID3v2 nor an ID3v1 tag
+        return new SongTags("", "", "", "", "", "", false, false,
+            audio.mBitRate, audio.mSampleRate, audio.mChannels);
+    }
+
+    /**
+     * Decodes the frames of an ID3v2.3/2.4 tag.
+     * @param tag the window over the tag
+     * @param version the major version of the tag
+     * @param flags the flags of the tag
+     * @param size the size of the tag, excluding the header and the footer
+     * @param audio the info about the audio stream
+     * @return the tags, or null if the tag can't be handled by this reader
+     * @throws IOException if an I/O error occurs
+     */
+    private static SongTags readID3v2Tag(TagWindow tag, int version, int flags,
+                                         int size, AudioInfo audio) throws IOException {
+        int pos = ID3V2_HEADER_SIZE;
+        int end = ID3V2_HEADER_SIZE + size;
+
+        if ((flags & TAG_FLAG_EXTENDED_HEADER) != 0) {
+            // The size of the extended header includes itself only for v2.4
+            ByteBuffer extendedHeader = tag.get(pos, 4);
+            int extendedHeaderSize = version == 4 ?
+                readSynchsafeInt(extendedHeader, 0) :
+                extendedHeader.getInt(0) + 4;
+
+            if (extendedHeaderSize < 0)
+                return null;
+
+            pos += extendedHeaderSize;
+        }
+
+        String artist = "", title = "", album = "", year = "", genre = "", track = "";
+        boolean hasLyrics = false, hasCover = false;
+
+        while (pos + ID3V2_FRAME_HEADER_SIZE <= end) {
+            ByteBuffer header = tag.get(pos, ID3V2_FRAME_HEADER_SIZE);
+
+            // Beginning of the padding
+            if (header.get(0) == 0)
+                break;
+
+            String id = readFrameId(header, 0);
+            if (id == null)
+                return null;
+
+            int frameSize = version == 4 ?
+                readSynchsafeInt(header, 4) :
+                header.getInt(4);
+
+            // Non synchsafe v2.4 sizes are written by some taggers, those
+            // are left to jaudiotagger which is able to guess the right size
+            if (frameSize < 0 || pos + ID3V2_FRAME_HEADER_SIZE + frameSize > end)
+                return null;
+
+            int formatFlags = header.get(9) & 0xFF;
+            int dataStart = pos + ID3V2_FRAME_HEADER_SIZE;
+            int dataEnd = dataStart + frameSize;
+
+            pos = dataEnd;
+
+            if (!isInterestingFrame(id))
+                continue;
+
+            if (version == 4) {
+                if ((formatFlags & (V24_FRAME_FLAG_COMPRESSION |
+                                    V24_FRAME_FLAG_ENCRYPTION |
+                                    V24_FRAME_FLAG_UNSYNCHRONISATION)) != 0)
+                    return null;
+                if ((formatFlags & V24_FRAME_FLAG_GROUPING) != 0)
+                    dataStart += 1;
+                if ((formatFlags & V24_FRAME_FLAG_DATA_LENGTH) != 0)
+                    dataStart += 4;
+            } else {
+                if ((formatFlags & (V23_FRAME_FLAG_COMPRESSION |
+                                    V23_FRAME_FLAG_ENCRYPTION)) != 0)
+                    return null;
+                if ((formatFlags & V23_FRAME_FLAG_GROUPING) != 0)
+                    dataStart += 1;
+            }
+
+            if (dataStart >= dataEnd)
+                continue;
+
+            if (id.equals("APIC")) {
+                // The picture itself is never read
+                hasCover = true;
+                continue;
+            }
+
+            int dataLength = dataEnd - dataStart;
+            ByteBuffer data = tag.get(dataStart, dataLength);
+
+            // Only the first frame of each kind matters, as for jaudiotagger
+            switch (id) {
+                case "TPE1":
+                    if (artist.isEmpty())
+                        artist = readTextFrame(data, 0, dataLength);
+                    break;
+                case "TIT2":
+                    if (title.isEmpty())
+                        title = readTextFrame(data, 0, dataLength);
+                    break;
+                case "TALB":
+                    if (album.isEmpty())
+                        album = readTextFrame(data, 0, dataLength);
+                    break;
+                case "TYER":
+                    if (version == 3 && year.isEmpty())
+                        year = readTextFrame(data, 0, dataLength);
+                    break;
+                case "TDRC":
+                    if (version == 4 && year.isEmpty())
+                        year = readTextFrame(data, 0, dataLength);
+                    break;
+                case "TCON":
+                    if (genre.isEmpty())
+                        genre = toGenericGenre(readTextFrame(data, 0, dataLength), version);
+                    break;
+                case "TRCK":
+                    if (track.isEmpty())
+                        track = leadingDigits(readTextFrame(data, 0, dataLength));
+                    break;
+                case "USLT":
+                    if (!hasLyrics)
+                        hasLyrics = StringUtil.isValid(readLyricsFrame(data, 0, dataLength));
+                    break;
+            }
+        }
+
+        return new SongTags(artist, title, album, year, genre, track,
+            hasLyrics, hasCover, audio.mBitRate, audio.mSampleRate, audio.mChannels);
+    }
+
+    /**
+     * Decodes an ID3v1/1.1 tag.
+     * @param buffer the buffer that contains the tag
+     * @param audio the info about the audio stream
+     * @return the tags
+     */
+    private static SongTags readID3v1Tag(ByteBuffer buffer, AudioInfo audio) {
+        String title = readLatin1Field(buffer, 3, 30);
+        String artist = readLatin1Field(buffer, 33, 30);
+        String album = readLatin1Field(buffer, 63, 30);
+        String year = readLatin1Field(buffer, 93, 4);
+
+        // ID3v1.1 stores the track number in the last byte of the comment
+        String track = "";
+        if (buffer.get(125) == 0 && buffer.get(126) != 0)
+            track = String.valueOf(buffer.get(126) & 0xFF);
+
+        String genre = "";
+        int genreId = buffer.get(127) & 0xFF;
+        if (genreId <= GenreTypes.getMaxGenreId()) {
+            String genreName = GenreTypes.getInstanceOf().getValueForId(genreId);
+            genre = StringUtil.toEmptyIfNull(genreName);
+        }
+
+        return new SongTags(artist, title, album, year, genre, track,
+            false, false, audio.mBitRate, audio.mSampleRate, audio.mChannels);
+    }
+
+    /**
+     * Looks for the first MPEG layer III frame in the given buffer
+     * and extracts the info about the audio stream.
+     * @param buffer the buffer that contains the beginning of the audio stream
+     * @param bufferPosition the position of the buffer in the file
+     * @param fileSize the size of the file
+     * @return the info about the audio, or null if the stream can't be
+     *         handled by this reader
+     */
+    private static AudioInfo readAudioInfo(ByteBuffer buffer, long bufferPosition,
+                                           long fileSize) {
+        int limit = buffer.limit();
+
+        for (int pos = 0; pos + 4 <= limit; pos++) {
+            if ((buffer.get(pos) & 0xFF) != 0xFF || (buffer.get(pos + 1) & 0xE0) != 0xE0)
+                continue;
+
+            int b1 = buffer.get(pos + 1) & 0xFF;
+            int b2 = buffer.get(pos + 2) & 0xFF;
+            int b3 = buffer.get(pos + 3) & 0xFF;
+
+            int version = (b1 >> 3) & 0x03;
+            int layer = (b1 >> 1) & 0x03;
+            int bitRateIndex = (b2 >> 4) & 0x0F;
+            int sampleRateIndex = (b2 >> 2) & 0x03;
+            int padding = (b2 >> 1) & 0x01;
+            int channelMode = (b3 >> 6) & 0x03;
+
+            if (layer != MPEG_LAYER_III || version == 1)
+                continue;
+
+            int bitRate = (version == MPEG_VERSION_1 ? BIT_RATES_V1 : BIT_RATES_V2)[bitRateIndex];
+            int sampleRate = (version == MPEG_VERSION_1 ? SAMPLE_RATES_V1 :
+                              version == MPEG_VERSION_2_5 ? SAMPLE_RATES_V2_5 :
+                              SAMPLE_RATES_V2)[sampleRateIndex];
+
+            if (bitRate == 0 || sampleRate == 0)
+                continue;
+
+            int frameLength = (version == MPEG_VERSION_1 ? 144 : 72) *
+                bitRate * 1000 / sampleRate + padding;
+
+            // Variable bit rate headers are stored in the first frame
+            int sideInfoOffset = version == MPEG_VERSION_1 ?
+                (channelMode == MODE_MONO ? 21 : 36) :
+                (channelMode == MODE_MONO ? 13 : 21);
+
+            if (hasIdentifier(buffer, pos + 36, "VBRI"))
+                return null;
+
+            int xingPos = pos + sideInfoOffset;
+            boolean isXing = hasIdentifier(buffer, xingPos, "Xing");
+            boolean isInfo = hasIdentifier(buffer, xingPos, "Info");
+
+            // Prevents false syncs: a frame must be followed by another
+            // frame, unless it is the variable bit rate header
+            if (!isXing && !isInfo && !isFollowedByFrame(buffer, pos + frameLength, b1, b2))
+                continue;
+
+            String sampleRateString = String.valueOf(sampleRate);
+            String channels = CHANNEL_MODES[channelMode];
+
+            if (!isXing)
+                return new AudioInfo(String.valueOf(bitRate), sampleRateString, channels);
+
+            // Computes the average bit rate as jaudiotagger does
+            if (xingPos + 16 > limit)
+                return null;
+
+            int xingFlags = buffer.getInt(xingPos + 4);
+            if ((xingFlags & XING_FLAG_FRAME_COUNT) == 0)
+                return null;
+
+            long frameCount = buffer.getInt(xingPos + 8) & 0xFFFFFFFFL;
+            long audioSize = (xingFlags & XING_FLAG_AUDIO_SIZE) != 0 ?
+                buffer.getInt(xingPos + 12) & 0xFFFFFFFFL : 0;
+            if (audioSize <= 0)
+                audioSize = fileSize - bufferPosition - pos;
+
+            double timePerFrame = SAMPLES_PER_FRAME / (double) sampleRate;
+            if (version != MPEG_VERSION_1 && channelMode == MODE_MONO)
+                timePerFrame /= 2;
+
+            if (frameCount == 0)
+                return null;
+
+            long averageBitRate = (long) ((audioSize * 8) / (timePerFrame * frameCount * 1000));
+
+            return new AudioInfo("~" + averageBitRate, sampleRateString, channels);
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns whether a frame compatible with the one described by the given
+     * header bytes begins at the given position (or the position is beyond
+     * the buffer, thus the frame can't be checked).
+     * @param buffer the buffer
+     * @param pos the position of the next frame
+     * @param b1 the second byte of the header of the previous frame
+     * @param b2 the third byte of the header of the previous frame
+     * @return whether the next frame looks valid
+     */
+    private static boolean isFollowedByFrame(ByteBuffer buffer, int pos, int b1, int b2) {
+        if (pos + 3 > buffer.limit())
+            return true;
+
+        // Version, layer and sample rate must be the same of the previous frame
+        return (buffer.get(pos) & 0xFF) == 0xFF &&
+            (buffer.get(pos + 1) & 0xFE) == (b1 & 0xFE) &&
+            (buffer.get(pos + 2) & 0x0C) == (b2 & 0x0C);
+    }
+
+    /**
+     * Converts the value of a TCON frame to the generic genre, as jaudiotagger does.
+     * @param value the value of the frame
+     * @param version the major version of the tag
+     * @return the genre
+     */
+    private static String toGenericGenre(String value, int version) {
+        if (value.isEmpty())
+            return value;
+
+        return version == 4 ?
+            FrameBodyTCON.convertID3v24GenreToGeneric(value) :
+            FrameBodyTCON.convertID3v23GenreToGeneric(value);
+    }
+
+    /**
+     * Returns the track number contained in the value of a TRCK frame
+     * (e.g. "3/12" becomes "3").
+     * @param value the value of the frame
+     * @return the track number, or an empty string
+     */
+    private static String leadingDigits(String value) {
+        int i = 0;
+        while (i < value.length() && Character.isDigit(value.charAt(i)))
+            i++;
+        return value.substring(0, i);
+    }
+
+    /**
+     * Decodes the first value of a text frame.
+     * @param buffer the buffer
+     * @param start the beginning of the frame data
+     * @param end the end of the frame data
+     * @return the value
+     */
+    private static String readTextFrame(ByteBuffer buffer, int start, int end) {
+        int encoding = buffer.get(start);
+        return readString(buffer, start + 1, end, encoding);
+    }
+
+    /**
+     * Decodes the lyrics of a USLT frame.
+     * @param buffer the buffer
+     * @param start the beginning of the frame data
+     * @param end the end of the frame data
+     * @return the lyrics
+     */
+    private static String readLyricsFrame(ByteBuffer buffer, int start, int end) {
+        int encoding = buffer.get(start);
+        // Skips the encoding, the language and the content descriptor
+        int lyricsStart = findTerminator(buffer, start + 4, end, encoding);
+        lyricsStart += encoding == 1 || encoding == 2 ? 2 : 1;
+        if (lyricsStart >= end)
+            return "";
+        return readString(buffer, lyricsStart, end, encoding);
+    }
+
+    /**
+     * Decodes a string terminated by a null character or by the end.
+     * @param buffer the buffer
+     * @param start the beginning of the string
+     * @param end the maximum end of the string
+     * @param encoding the ID3v2 text encoding
+     * @return the string
+     */
+    private static String readString(ByteBuffer buffer, int start, int end, int encoding) {
+        int stringEnd = findTerminator(buffer, start, end, encoding);
+        if (stringEnd <= start)
+            return "";
+
+        byte[] bytes = new byte[stringEnd - start];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = buffer.get(start + i);
+
+        return new String(bytes, charsetOf(encoding));
+    }
+
+    /**
+     * Returns the position of the null terminator of a string.
+     * @param buffer the buffer
+     * @param start the beginning of the string
+     * @param end the maximum end of the string
+     * @param encoding the ID3v2 text encoding
+     * @return the position of the terminator, or end if there is no terminator
+     */
+    private static int findTerminator(ByteBuffer buffer, int start, int end, int encoding) {
+        if (encoding == 1 || encoding == 2) {
+            for (int i = start; i + 1 < end; i += 2) {
+                if (buffer.get(i) == 0 && buffer.get(i + 1) == 0)
+                    return i;
+            }
+            return end;
+        }
+
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == 0)
+                return i;
+        }
+        return end;
+    }
+
+    /**
+     * Returns the charset of the given ID3v2 text encoding.
+     * @param encoding the text encoding
+     * @return the charset
+     */
+    private static Charset charsetOf(int encoding) {
+        switch (encoding) {
+            case 1:
+                return StandardCharsets.UTF_16;
+            case 2:
+                return StandardCharsets.UTF_16BE;
+            case 3:
+                return StandardCharsets.UTF_8;
+            default:
+                return StandardCharsets.ISO_8859_1;
+        }
+    }
+
+    /**
+     * Decodes a fixed size ISO-8859-1 field of an ID3v1 tag.
+     * @param buffer the buffer
+     * @param start the beginning of the field
+     * @param length the length of the field
+     * @return the value of the field, without trailing nulls and spaces
+     */
+    private static String readLatin1Field(ByteBuffer buffer, int start, int length) {
+        int end = findTerminator(buffer, start, start + length, 0);
+        return readString(buffer, start, end, 0).trim();
+    }
+
+    /**
+     * Returns whether the given frame is used by the application.
+     * @param id the frame id
+     * @return whether the frame has to be decoded
+     */
+    private static boolean isInterestingFrame(String id) {
+        switch (id) {
+            case "TPE1": case "TIT2": case "TALB": case "TYER": case "TDRC":
+            case "TCON": case "TRCK": case "USLT": case "APIC":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Reads the id of an ID3v2 frame.
+     * @param buffer the buffer
+     * @param pos the beginning of the frame
+     * @return the id, or null if the id is not valid
+     */
+    private static String readFrameId(ByteBuffer buffer, int pos) {
+        char[] id = new char[4];
+        for (int i = 0; i < 4; i++) {
+            char c = (char) buffer.get(pos + i);
+            if (!(c >= 'A' && c <= 'Z') && !(c >= '0' && c <= '9'))
+                return null;
+            id[i] = c;
+        }
+        return new String(id);
+    }
+
+    /**
+     * Returns whether the given ASCII identifier is at the given position.
+     * @param buffer the buffer
+     * @param pos the position
+     * @param identifier the identifier
+     * @return whether the identifier is there
+     */
+    private static boolean hasIdentifier(ByteBuffer buffer, int pos, String identifier) {
+        if (pos + identifier.length() > buffer.limit())
+            return false;
+
+        for (int i = 0; i < identifier.length(); i++) {
+            if (buffer.get(pos + i) != identifier.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a 28 bits synchsafe integer.
+     * @param buffer the buffer
+     * @param pos the position of the integer
+     * @return the integer, or -1 if it is not synchsafe
+     */
+    private static int readSynchsafeInt(ByteBuffer buffer, int pos) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = buffer.get(pos + i) & 0xFF;
+            if ((b & 0x80) != 0)
+                return -1;
+            value = (value << 7) | b;
+        }
+        return value;
+    }
+
+    /**
+     * Fills the given buffer with the content of the channel starting from
+     * the given position, or till the end of the channel; the buffer is
+     * then flipped.
+     * @param channel the channel
+     * @param buffer the buffer
+     * @param position the position in the channel
+     * @throws IOException if an I/O error occurs
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+        throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                break;
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Window over the ID3v2 tag of a file, which is read in the heap a chunk
+     * at a time, so that the frames that are skipped (e.g. the cover) are
+     * not read at all if those are big enough.
+     */
+    private static class TagWindow {
+
+        /** Channel of the file. */
+        private final FileChannel mChannel;
+
+        /** Position of the end of the tag in the file. */
+        private final long mEnd;
+
+        /** Chunk of the tag read last. */
+        private ByteBuffer mBuffer = ByteBuffer.allocate(TAG_WINDOW_SIZE);
+
+        /** Position of the chunk in the file, or -1 if nothing has been read. */
+        private long mBufferPosition = -1;
+
+        /**
+         * Creates a window over the tag of the file of the given channel.
+         * @param channel the channel of the file
+         * @param end the position of the end of the tag
+         */
+        private TagWindow(FileChannel channel, long end) {
+            mChannel = channel;
+            mEnd = end;
+        }
+
+        /**
+         * Returns the given region of the tag, reading it if it is not
+         * within the last chunk read.
+         * @param position the position of the region in the file
+         * @param length the length of the region
+         * @return a buffer whose content is the region, starting at index 0
+         * @throws IOException if an I/O error occurs or the file is truncated
+         */
+        private ByteBuffer get(long position, int length) throws IOException {
+            if (mBufferPosition < 0 || position < mBufferPosition ||
+                position + length > mBufferPosition + mBuffer.limit()) {
+                if (length > mBuffer.capacity())
+                    mBuffer = ByteBuffer.allocate(length);
+
+                mBuffer.clear();
+                mBuffer.limit((int) Math.min(mBuffer.capacity(), Math.max(length, mEnd - position)));
+                readFully(mChannel, mBuffer, position);
+                mBufferPosition = position;
+
+                if (mBuffer.limit() < length)
+                    throw new EOFException("Tag exceeds the end of the file");
+            }
+
+            ByteBuffer region = mBuffer.duplicate();
+            region.position((int) (position - mBufferPosition));
+            region.limit(region.position() + length);
+            return region.slice();
+        }
+    }
+
+    /** Info about the audio stream, formatted as jaudiotagger does. */
+    private static class AudioInfo {
+
+        /** Info used when the audio header is not read. */
+        private static final AudioInfo NOT_READ = new AudioInfo(null, null, null);
+
+        /** Bit rate, prefixed by '~' for the variable bit rate streams. */
+        private final String mBitRate;
+
+        /** Sample rate. */
+        private final String mSampleRate;
+
+        /** Channel mode. */
+        private final String mChannels;
+
+        /**
+         * Creates a new info.
+         * @param bitRate the bit rate
+         * @param sampleRate the sample rate
+         * @param channels the channel mode
+         */
+        private AudioInfo(String bitRate, String sampleRate, String channels) {
+            mBitRate = bitRate;
+            mSampleRate = sampleRate;
+            mChannels = channels;
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package org.docheinstein.mp3doctor.song.loader;
+
+import org.docheinstein.mp3doctor.commons.constants.Config;
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.commons.utils.Asserts;
+import org.docheinstein.mp3doctor.commons.utils.CollectionsUtil;
+import org.docheinstein.mp3doctor.commons.utils.ThreadUtil;
+import org.docheinstein.mp3doctor.song.Song;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Service responsible for load the tags of the songs in background.
+ * <p>
+ * The songs are loaded by a bounded pool of workers that is shared by
+ * every import; the pending songs are kept in a priority queue, so that
+ * the songs that are currently shown to the user (see {@link #prioritize(Song)})
+ * are loaded before the others.
+ * <p>
+ * The service can be paused, resumed and cancelled, and exposes the number
+ * of pending songs and the loading throughput; listeners can be notified
+ * when the songs are loaded.
+ */
+public class SongTagsLoader {
+
+    private static final Logger L = Logger.createForClass(SongTagsLoader.class);
+
+    /**
+     * Interface that lets listeners be notified when the tags of the songs
+     * are loaded by the loader.
+     */
+    public interface SongTagsLoaderListener {
+
+        /**
+         * Called, from a worker thread, when the tags of a song have been loaded.
+         * @param song the song whose tags have been loaded
+         */
+        void onSongLoaded(Song song);
+
+        /**
+         * Called when the tags of a song won't be loaded, either because the
+         * loading has failed or because the request has been withdrawn
+         * (see {@link #discard(Collection)} and {@link #cancel()}); this is
+         * called from a worker thread or from the thread that withdrew
+         * the request.
+         * @param song the song whose tags have not been loaded
+         */
+        void onSongNotLoaded(Song song);
+
+        /**
+         * Called, from a worker thread, when there are no more songs to load
+         * and at least a song has been loaded since the last call.
+         */
+        void onLoadingFinished();
+    }
+
+    /** Priority of a load request. */
+    public enum Priority {
+        /** For songs the user is looking at. */
+        High,
+        /** For songs loaded in background. */
+        Normal
+    }
+
+    /** Unique instance of this class. */
+    private static final SongTagsLoader INSTANCE = new SongTagsLoader();
+
+    /**
+     * Returns the unique instance of this class.
+     * @return the unique instance of this class
+     */
+    public static SongTagsLoader instance() {
+        return INSTANCE;
+    }
+
+    /** Songs whose tags have been requested but not loaded yet. */
+    private final Set<Song> mPendingSongs = ConcurrentHashMap.newKeySet();
+
+    /** Pending songs that have a high priority task in queue. */
+    private final Set<Song> mPrioritizedSongs = ConcurrentHashMap.newKeySet();
+
+    /** Workers that load the tags; the queue orders the tasks by priority. */
+    private final ThreadPoolExecutor mExecutor;
+
+    /** Sequence used for order the tasks with the same priority. */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /** Number of songs loaded since the loader became busy. */
+    private final AtomicLong mLoadedSongCount = new AtomicLong();
+
+    /** Instant (in nanos) at which the loader became busy. */
+    private volatile long mBusySinceNanos;
+
+    /** Number of songs the workers are loading at the moment. */
+    private final AtomicInteger mLoadingSongCount = new AtomicInteger();
+
+    /** Whether a song has been loaded since the listeners have been notified. */
+    private final AtomicBoolean mSongsLoadedSinceNotify = new AtomicBoolean();
+
+    /** Listeners notified when the loader loads the songs. */
+    private final Set<SongTagsLoaderListener> mListeners = new CopyOnWriteArraySet<>();
+
+    /** Lock used for suspend the workers while the loader is paused. */
+    private final Object mPauseLock = new Object();
+
+    /** Whether the loader is paused. */
+    // Guarded by mPauseLock
+    private boolean mPaused = false;
+
+    /** Creates a new loader. */
+    private SongTagsLoader() {
+        int workers = Config.Library.TAGS_LOADER_WORKERS;
+
+        mExecutor = new ThreadPoolExecutor(
+            workers, workers,
+            0, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<>(),
+            ThreadUtil.daemonThreadFactory("tags-loader"));
+    }
+
+    /**
+     * Adds a listener that will be notified when the loader loads the songs.
+     * @param listener the listener
+     */
+    public void addListener(SongTagsLoaderListener listener) {
+        if (listener != null)
+            mListeners.add(listener);
+    }
+
+    /**
+     * Removes a previously added listener from the listener set.
+     * @param listener the listener that won't be notified anymore
+     */
+    public void removeListener(SongTagsLoaderListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Requests to load the tags of the given songs in background.
+     * <p>
+     * The songs whose tags are already loaded are skipped.
+     * @param songs the songs whose tags have to be loaded
+     *
+     * @see #prioritize(Song)
+     */
+    public void load(Collection<Song> songs) {
+        if (!CollectionsUtil.isFilled(songs))
+            return;
+
+        L.debug("Requested to load tags of " + songs.size() + " songs");
+
+        if (mPendingSongs.isEmpty()) {
+            mBusySinceNanos = System.nanoTime();
+            mLoadedSongCount.set(0);
+        }
+
+        for (Song song : songs) {
+            if (song != null && !song.areTagsLoaded() && mPendingSongs.add(song))
+                mExecutor.execute(new LoadTask(song, Priority.Normal));
+        }
+    }
+
+    /**
+     * Requests to load again the tags of the given songs in background,
+     * even if those are already loaded (e.g. because their files have
+     * been modified).
+     * @param songs the songs whose tags have to be reloaded
+     */
+    public void reload(Collection<Song> songs) {
+        if (!CollectionsUtil.isFilled(songs))
+            return;
+
+        L.debug("Requested to reload tags of " + songs.size() + " songs");
+
+        if (mPendingSongs.isEmpty()) {
+            mBusySinceNanos = System.nanoTime();
+            mLoadedSongCount.set(0);
+        }
+
+        for (Song song : songs) {
+            if (song != null && mPendingSongs.add(song))
+                mExecutor.execute(new LoadTask(song, Priority.Normal));
+        }
+    }
+
+    /**
+     * Moves the given song in front of the queue, if its tags have not been
+     * loaded yet and it has not been prioritized already.
+     * <p>
+     * This should be called for the songs the user is looking at.
+     * @param song the song to load as soon as possible
+     */
+    public void prioritize(Song song) {
+        if (song == null || !mPendingSongs.contains(song))
+            return;
+
+        // The rows are recycled while scrolling, thus the same song might
+        // be prioritized many times before its task runs
+        if (!mPrioritizedSongs.add(song))
+            return;
+
+        L.verbose("Prioritizing tags loading of song: " + song);
+
+        // The task already in queue can't be moved, a new one is queued
+        // instead; the first task that runs takes the song, the other skips it
+        mExecutor.execute(new LoadTask(song, Priority.High));
+    }
+
+    /**
+     * Withdraws the requests of load the tags for the given songs
+     * (e.g. because those have been removed from the library).
+     * <p>
+     * The listeners are notified about the songs that were pending.
+     * @param songs the songs whose tags don't have to be loaded anymore
+     */
+    public void discard(Collection<? extends Song> songs) {
+        if (!CollectionsUtil.isFilled(songs))
+            return;
+
+        mPrioritizedSongs.removeAll(songs);
+
+        for (Song song : songs) {
+            if (song != null && mPendingSongs.remove(song))
+                notifySongNotLoaded(song);
+        }
+    }
+
+    /**
+     * Cancels every pending request.
+     * <p>
+     * The songs that are being loaded at the moment are completed anyway;
+     * the listeners are notified about the others.
+     */
+    public void cancel() {
+        L.info("Cancelling tags loading; pending songs: " + mPendingSongs.size());
+        mPrioritizedSongs.clear();
+        mExecutor.getQueue().clear();
+
+        // Removed one by one, so that a song taken by a worker meanwhile
+        // is notified just once
+        for (Song song : new ArrayList<>(mPendingSongs)) {
+            if (mPendingSongs.remove(song))
+                notifySongNotLoaded(song);
+        }
+    }
+
+    /**
+     * Pauses the loader: the workers won't begin to load new songs till
+     * {@link #resume()} is called.
+     */
+    public void pause() {
+        L.info("Pausing tags loading");
+        synchronized (mPauseLock) {
+            mPaused = true;
+        }
+    }
+
+    /** Resumes the loader previously paused with {@link #pause()}. */
+    public void resume() {
+        L.info("Resuming tags loading");
+        synchronized (mPauseLock) {
+            mPaused = false;
+            mPauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * Returns whether the loader is paused.
+     * @return whether the loader is paused
+     */
+    public boolean isPaused() {
+        synchronized (mPauseLock) {
+            return mPaused;
+        }
+    }
+
+    /**
+     * Changes the number of workers that load the tags concurrently.
+     * @param workers the number of workers
+     */
+    public void setWorkerCount(int workers) {
+        Asserts.assertTrue(workers > 0, "Workers count must be positive", L);
+        L.debug("Setting tags loader workers count to " + workers);
+
+        // The order matters since the core size can't exceed the maximum size
+        if (workers > mExecutor.getMaximumPoolSize()) {
+            mExecutor.setMaximumPoolSize(workers);
+            mExecutor.setCorePoolSize(workers);
+        } else {
+            mExecutor.setCorePoolSize(workers);
+            mExecutor.setMaximumPoolSize(workers);
+        }
+    }
+
+    /**
+     * Returns the number of songs whose tags are waiting to be loaded.
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return mPendingSongs.size();
+    }
+
+    /**
+     * Returns the number of songs loaded since the loader became busy.
+     * @return the number of loaded songs
+     */
+    public long getLoadedSongCount() {
+        return mLoadedSongCount.get();
+    }
+
+    /**
+     * Returns the number of songs loaded per second since the loader became busy.
+     * @return the throughput, in songs per second
+     */
+    public double getThroughput() {
+        double elapsedSeconds = (System.nanoTime() - mBusySinceNanos) / 1e9;
+        return elapsedSeconds > 0 ? mLoadedSongCount.get() / elapsedSeconds : 0;
+    }
+
+    /**
+     * Notifies the listeners that the tags of the given song won't be loaded.
+     * @param song the song
+     */
+    private void notifySongNotLoaded(Song song) {
+        mListeners.forEach(l -> l.onSongNotLoaded(song));
+    }
+
+    /** Blocks the calling worker while the loader is paused. */
+    private void awaitResume() {
+        synchronized (mPauseLock) {
+            while (mPaused) {
+                try {
+                    mPauseLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Task that loads the tags of a single song. */
+    private class LoadTask implements Runnable, Comparable<LoadTask> {
+
+        /** Song whose tags have to be loaded. */
+        private final Song mSong;
+
+        /** Priority of this task. */
+        private final Priority mPriority;
+
+        /** Sequence number of this task, used for break the priority ties. */
+        private final long mSequenceNumber = mSequence.getAndIncrement();
+
+        /**
+         * Creates a new task for the given song.
+         * @param song the song
+         * @param priority the priority of the task
+         */
+        private LoadTask(Song song, Priority priority) {
+            mSong = song;
+            mPriority = priority;
+        }
+
+        @Override
+        public void run() {
+            awaitResume();
+
+            // Whatever the priority of this task, the song is no longer
+            // waiting for its high priority one
+            mPrioritizedSongs.remove(mSong);
+
+            // Counted before take the song, so that the song can't be neither
+            // pending nor counted as loading while it is actually loading
+            mLoadingSongCount.incrementAndGet();
+
+            try {
+                // The song may have already been loaded by another task, or
+                // its request may have been cancelled meanwhile
+                if (!mPendingSongs.remove(mSong))
+                    return;
+
+                boolean loaded = false;
+
+                try {
+                    mSong.loadTags();
+                    loaded = true;
+                } catch (RuntimeException e) {
+                    // A malformed file must not take down the worker
+                    L.error("Error occurred while loading tags of song: " + mSong, e);
+                } finally {
+                    // Notified even if an error escapes, so that the listeners
+                    // don't wait for the song forever
+                    if (!loaded)
+                        notifySongNotLoaded(mSong);
+                }
+
+                if (!loaded)
+                    return;
+
+                mLoadedSongCount.incrementAndGet();
+                mSongsLoadedSinceNotify.set(true);
+
+                mListeners.forEach(l -> l.onSongLoaded(mSong));
+            } finally {
+                if (mLoadingSongCount.decrementAndGet() == 0 &&
+                    mPendingSongs.isEmpty() &&
+                    mSongsLoadedSinceNotify.compareAndSet(true, false)) {
+                    L.debug("Every requested song has been loaded, notifying listeners");
+                    mListeners.forEach(SongTagsLoaderListener::onLoadingFinished);
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(LoadTask other) {
+            if (mPriority != other.mPriority)
+                return mPriority.compareTo(other.mPriority);
+
+            // The most recent high priority requests are the songs the user
+            // is looking at right now, thus those go first; the background
+            // ones are served in order of arrival
+            return mPriority == Priority.High ?
+                Long.compare(other.mSequenceNumber, mSequenceNumber) :
+                Long.compare(mSequenceNumber, other.mSequenceNumber);
+        }
+    }
+}
@@ -20,6 +20,11 @@ public enum AlertInstance {
         "Invalid playlist name",
         "Please provide a valid playlist name"
     ),
+    AddSmartPlaylistInvalidRule(
+        Alert.AlertType.ERROR,
+        "Invalid smart playlist rule",
+        "Please provide a rule, e.g. genre:rock year:1990..1999 has:cover"
+    ),
     DuplicatedSongs(
         Alert.AlertType.WARNING,
         "Duplicated songs found",
@@ -50,6 +55,11 @@ public enum AlertInstance {
         "Song saved",
         "%s saved successfully"
     ),
+    SongModifiedExternally(
+        Alert.AlertType.WARNING,
+        "Song modified externally",
+        "%s has been modified by another application; its tags have been reloaded"
+    ),
     PlaylistAdded(
         Alert.AlertType.INFORMATION,
         "Playlist added",
@@ -60,6 +70,26 @@ public enum AlertInstance {
         "Playlist removed",
         "Playlist %s has been removed"
     ),
+    PlaylistImported(
+        Alert.AlertType.INFORMATION,
+        "Playlist imported",
+        "%d songs out of %d have been imported to %s"
+    ),
+    PlaylistImportFailed(
+        Alert.AlertType.ERROR,
+        "Playlist import failed",
+        "%s can't be imported"
+    ),
+    PlaylistExported(
+        Alert.AlertType.INFORMATION,
+        "Playlist exported",
+        "Playlist %s has been exported to %s"
+    ),
+    PlaylistExportFailed(
+        Alert.AlertType.ERROR,
+        "Playlist export failed",
+        "Playlist %s can't be exported"
+    ),
     ArtistSaved(
         Alert.AlertType.INFORMATION,
         "Artist saved",
@@ -9,7 +9,8 @@ import org.docheinstein.mp3doctor.commons.logger.Logger;
 import org.docheinstein.mp3doctor.commons.utils.Asserts;
 import org.docheinstein.mp3doctor.commons.utils.StringUtil;
 import org.docheinstein.mp3doctor.song.Song;
-import org.docheinstein.mp3doctor.song.SongsManager;
+import org.docheinstein.mp3doctor.song.SongsIndex;
+import org.docheinstein.mp3doctor.song.TagDictionary;
 import org.docheinstein.mp3doctor.ui.commons.CloseableControllerHandler;
 import org.docheinstein.mp3doctor.ui.commons.controller.base.Reinitializable;
 import org.docheinstein.mp3doctor.ui.commons.controller.custom.InstantiableReinitializableSplitControllerView;
@@ -205,19 +206,17 @@ public abstract class SongsGroupsController
     }
 
     /**
-     * Returns the value of the aggregation field for which the songs
-     * are grouped by for a given song.
+     * Returns the tag which the songs are grouped by.
      * <p>
      * For instance, if the songs have to be grouped by the artist, the
-     * implementation of this method should be {@link Song#getArtist()}.
-     * @param song a song
-     * @return the value of the aggregation field for the given song
+     * implementation of this method should return {@link SongsIndex.Key#Artist}.
+     * @return the aggregation field
      */
-    protected abstract String getGroupingField(Song song);
+    protected abstract SongsIndex.Key getGroupingKey();
 
     /**
      * Creates a map that group each song by the value of the aggregation
-     * field provided by {@link #getGroupingField(Song)}.
+     * field provided by {@link #getGroupingKey()}.
      * <p>
      * The returned map thus maps a string, which is the value of the aggregation
      * field, with the list of songs that has that particular value
@@ -229,16 +228,25 @@ public abstract class SongsGroupsController
      * @return a map between aggregation fields and their songs lists
      */
     private SortedMap<String, List<Song>> createSongsGroupsMap() {
+        // The songs are already grouped by the id of the required field, thus
+        // the values are compared once per distinct value instead of per song
+        Map<Integer, List<Song>> songsById =
+            SongsIndex.instance().getSongsById(getGroupingKey());
+
         SortedMap<String, List<Song>> categoryItems =
             new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
 
-        // Aggregate the songs by the required field
-        SongsManager.instance().getList().forEach(s ->
+        TagDictionary dictionary = TagDictionary.instance();
+
+        // Values that differ only by case end up in the same group
+        songsById.forEach((id, songs) -> {
+            String value = dictionary.decode(id);
             categoryItems.computeIfAbsent(
-                StringUtil.isValid(getGroupingField(s)) ?
-                    getGroupingField(s) : UNKNOWN_MAGIC_NAME,
+                StringUtil.isValid(value) ? value : UNKNOWN_MAGIC_NAME,
                 k -> new ArrayList<>()
-            ).add(s));
+            ).addAll(songs);
+        });
+
         return categoryItems;
     }
 }
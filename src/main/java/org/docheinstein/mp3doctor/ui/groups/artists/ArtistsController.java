@@ -8,6 +8,7 @@ import org.docheinstein.mp3doctor.commons.logger.Logger;
 import org.docheinstein.mp3doctor.commons.utils.Asserts;
 import org.docheinstein.mp3doctor.commons.utils.FXUtil;
 import org.docheinstein.mp3doctor.song.Song;
+import org.docheinstein.mp3doctor.song.SongsIndex;
 
 import org.docheinstein.mp3doctor.ui.groups.SongsGroupSongsController;
 import org.docheinstein.mp3doctor.ui.groups.SongsGroupsController;
@@ -31,8 +32,8 @@ public class ArtistsController extends SongsGroupsController {
         Logger.createForClass(ArtistsController.class);
 
     @Override
-    protected String getGroupingField(Song song) {
-        return song.getArtist();
+    protected SongsIndex.Key getGroupingKey() {
+        return SongsIndex.Key.Artist;
     }
 
     @Override
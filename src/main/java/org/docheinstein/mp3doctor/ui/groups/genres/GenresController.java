@@ -1,6 +1,6 @@
 package org.docheinstein.mp3doctor.ui.groups.genres;
 
-import org.docheinstein.mp3doctor.song.Song;
+import org.docheinstein.mp3doctor.song.SongsIndex;
 import org.docheinstein.mp3doctor.ui.groups.SongsGroupsController;
 
 /**
@@ -11,7 +11,7 @@ import org.docheinstein.mp3doctor.ui.groups.SongsGroupsController;
 public class GenresController extends SongsGroupsController {
 
     @Override
-    protected String getGroupingField(Song song) {
-        return song.getGenre();
+    protected SongsIndex.Key getGroupingKey() {
+        return SongsIndex.Key.Genre;
     }
 }
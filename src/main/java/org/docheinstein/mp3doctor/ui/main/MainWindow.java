@@ -6,6 +6,8 @@ import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 import org.docheinstein.mp3doctor.cache.CacheHierarchy;
+import org.docheinstein.mp3doctor.cache.SongTagsStore;
+import org.docheinstein.mp3doctor.cache.SongsJournal;
 import org.docheinstein.mp3doctor.commons.constants.Config;
 import org.docheinstein.mp3doctor.commons.utils.ResourceUtil;
 
@@ -47,4 +49,12 @@ public class MainWindow extends Application {
 
         primaryStage.show();
     }
+
+    @Override
+    public void stop() throws Exception {
+        // Writes what is still buffered, the writers don't prevent the
+        // application from exiting
+        SongsJournal.instance().close();
+        SongTagsStore.instance().flush();
+    }
 }
@@ -20,6 +20,9 @@ import org.docheinstein.mp3doctor.commons.utils.*;
 import org.docheinstein.mp3doctor.playlist.Playlist;
 import org.docheinstein.mp3doctor.playlist.provider.PlaylistProvider;
 import org.docheinstein.mp3doctor.playlist.PlaylistsManager;
+import org.docheinstein.mp3doctor.playlist.SmartPlaylist;
+import org.docheinstein.mp3doctor.playlist.SmartPlaylistsManager;
+import org.docheinstein.mp3doctor.song.ImportJob;
 import org.docheinstein.mp3doctor.song.player.SongPlayer;
 import org.docheinstein.mp3doctor.song.Song;
 import org.docheinstein.mp3doctor.song.SongsManager;
@@ -40,13 +43,19 @@ import org.docheinstein.mp3doctor.ui.menu.*;
 import org.docheinstein.mp3doctor.song.player.PlayableSongQueueProvider;
 import org.docheinstein.mp3doctor.ui.playlist.PlaylistListRowController;
 import org.docheinstein.mp3doctor.ui.playlist.PlaylistController;
+import org.docheinstein.mp3doctor.ui.playlist.SmartPlaylistController;
 import org.docheinstein.mp3doctor.ui.playlist.SongPlayerHandler;
 import org.docheinstein.mp3doctor.ui.songs.SongsController;
 import org.docheinstein.mp3doctor.ui.groups.years.YearsController;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -110,6 +119,11 @@ public class MainWindowController
     private static final Logger L =
         Logger.createForClass(MainWindowController.class);
 
+    /** Thread that refreshes the progress of the imports. */
+    private static final ScheduledExecutorService IMPORT_PROGRESS_REFRESHER =
+        Executors.newSingleThreadScheduledExecutor(
+            ThreadUtil.daemonThreadFactory("import-progress"));
+
     // Categories
 
     /**
@@ -368,9 +382,32 @@ public class MainWindowController
     // LinkedHashMap because keeps the order, thus the playlists are order
     // by their name with no particular effort
 
+    /** Smart playlist categories the user can navigate to, in creation order. */
+    private final Map<SmartPlaylist, Category> mSmartPlaylistCategories = new LinkedHashMap<>();
+
     /** Current category, which controller is shown as the main embedded one. */
     private Category mCurrentCategory;
 
+    /**
+     * Playlist of the current category, if any, retained so that its songs
+     * are not unloaded while shown.
+     */
+    private Playlist mShownPlaylist;
+
+    /** Imports requested by the user that have not ended yet. */
+    // Accessed only from the JavaFX thread
+    private final List<ImportJob> mImportJobs = new ArrayList<>();
+
+    /** Task that refreshes the progress of the imports, while there are any. */
+    // Accessed only from the JavaFX thread
+    private ScheduledFuture<?> mImportProgressTask;
+
+    /**
+     * Playlist whose songs have been queued to the player, if any, retained
+     * so that its songs are not unloaded while being played.
+     */
+    private Playlist mQueuedPlaylist;
+
     // Root
 
     @FXML
@@ -403,6 +440,17 @@ public class MainWindowController
     @FXML
     private AnchorPane uiPrimaryPane;
 
+    // Import
+
+    @FXML
+    private Node uiImportInfo;
+
+    @FXML
+    private Label uiImportStatus;
+
+    @FXML
+    private ProgressBar uiImportProgress;
+
     // Player
 
     @FXML
@@ -431,6 +479,9 @@ public class MainWindowController
     @FXML
     private VBox uiPlaylists;
 
+    @FXML
+    private VBox uiSmartPlaylists;
+
     // Categories rows
 
     @FXML
@@ -462,7 +513,7 @@ public class MainWindowController
             L.debug("Inserting category for playlist " + playlist.getName());
 
             PlaylistListRowController playlistRowController =
-                new PlaylistListRowController(playlist.getName());
+                new PlaylistListRowController(playlist);
             Node playlistRowNode = playlistRowController.createNode();
 
             Category playlistCategory = new Category() {
@@ -496,6 +547,9 @@ public class MainWindowController
                     playlistContextMenu.getItems().add(
                         new RemovePlaylistMenuItemAction(this));
 
+                    playlistContextMenu.getItems().add(
+                        new ExportPlaylistMenuItemAction(this, () -> playlist));
+
                     playlistContextMenu.setX(event.getScreenX());
                     playlistContextMenu.setY(event.getScreenY());
 
@@ -557,6 +611,84 @@ public class MainWindowController
         });
     }
 
+    // Smart playlists callback
+
+    /**
+     * Inserts a category for each of the given smart playlists.
+     * @param playlists the added smart playlists
+     */
+    private void onSmartPlaylistsAdded(List<? extends SmartPlaylist> playlists) {
+        playlists.forEach(playlist -> {
+            L.debug("Inserting category for smart playlist " + playlist.getName());
+
+            Node playlistRowNode =
+                new PlaylistListRowController(playlist).createNode();
+
+            Category playlistCategory = new Category() {
+                @Override
+                public Styleable getCategoryLabel() {
+                    return playlistRowNode;
+                }
+
+                @Override
+                public String getTitle() {
+                    return playlist.getName().toUpperCase();
+                }
+
+                @Override
+                protected InstantiableReinitializableControllerView createController() {
+                    SmartPlaylistController playlistController =
+                        new SmartPlaylistController(playlist);
+                    playlistController.setPlayerDelegate(MainWindowController.this);
+                    return playlistController;
+                }
+            };
+
+            playlistRowNode.setOnMouseClicked(event -> {
+                // Left click
+                if (event.getButton() == MouseButton.PRIMARY)
+                    setCurrentCategory(playlistCategory);
+                else if (event.getButton() == MouseButton.SECONDARY) {
+                    ContextMenu playlistContextMenu = new ContextMenu();
+
+                    playlistContextMenu.getItems().add(
+                        new RemoveSmartPlaylistMenuItemAction(playlist));
+
+                    playlistContextMenu.setX(event.getScreenX());
+                    playlistContextMenu.setY(event.getScreenY());
+
+                    playlistContextMenu.show(getStage());
+                }
+            });
+
+            mSmartPlaylistCategories.put(playlist, playlistCategory);
+
+            uiSmartPlaylists.getChildren().add(playlistRowNode);
+        });
+    }
+
+    /**
+     * Removes the categories of the given smart playlists.
+     * @param playlists the removed smart playlists
+     */
+    private void onSmartPlaylistsRemoved(List<? extends SmartPlaylist> playlists) {
+        playlists.forEach(playlist -> {
+            L.debug("Removing category for smart playlist " + playlist.getName());
+
+            Category playlistCategory = mSmartPlaylistCategories.remove(playlist);
+
+            if (playlistCategory == null) {
+                L.warn("A smart playlist that doesn't match any existing category has been removed");
+                return;
+            }
+
+            uiSmartPlaylists.getChildren().remove((Node) playlistCategory.getCategoryLabel());
+
+            if (mCurrentCategory == playlistCategory)
+                setCurrentCategory(mSongsCategory);
+        });
+    }
+
     @Override
     public Node getRoot() {
         return uiRoot;
@@ -601,6 +733,99 @@ public class MainWindowController
             }
         });
         PlaylistsManager.instance().addListener(this);
+        SmartPlaylistsManager.instance().addListener(new ObservableListListener<SmartPlaylist>() {
+            @Override
+            public void onElementsAdded(List<? extends SmartPlaylist> playlists) {
+                onSmartPlaylistsAdded(playlists);
+            }
+
+            @Override
+            public void onElementsRemoved(List<? extends SmartPlaylist> playlists) {
+                onSmartPlaylistsRemoved(playlists);
+            }
+
+            @Override
+            public void onElementsChanged(List<? extends SmartPlaylist> playlists) {
+                // The controllers follow the songs of the smart playlists
+            }
+        });
+        SongsManager.instance().addImportListener(this::onImportStarted);
+    }
+
+    // Import
+
+    /**
+     * Shows the progress of the given import, till the import ends.
+     * @param job the job that tracks the import
+     */
+    private void onImportStarted(ImportJob job) {
+        job.addListener(j -> Platform.runLater(() -> onImportEnded(j)));
+        mImportJobs.add(job);
+
+        if (mImportProgressTask == null) {
+            mImportProgressTask = IMPORT_PROGRESS_REFRESHER.scheduleAtFixedRate(
+                () -> Platform.runLater(this::updateImportProgress),
+                0, Config.UI.IMPORT_PROGRESS_REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        uiImportInfo.setManaged(true);
+        uiImportInfo.setVisible(true);
+    }
+
+    /**
+     * Stops showing the progress of the given import, which has ended.
+     * @param job the job that tracks the import
+     */
+    private void onImportEnded(ImportJob job) {
+        mImportJobs.remove(job);
+
+        if (!mImportJobs.isEmpty()) {
+            updateImportProgress();
+            return;
+        }
+
+        mImportProgressTask.cancel(false);
+        mImportProgressTask = null;
+
+        uiImportInfo.setManaged(false);
+        uiImportInfo.setVisible(false);
+    }
+
+    /** Shows the overall progress of the imports that have not ended yet. */
+    private void updateImportProgress() {
+        // A refresh may have been queued before the last import ended
+        if (mImportJobs.isEmpty())
+            return;
+
+        long importedCount = 0, processedCount = 0, failedCount = 0;
+        double throughput = 0;
+        boolean discovering = false;
+
+        for (ImportJob job : mImportJobs) {
+            importedCount += job.getImportedSongCount();
+            processedCount += job.getParsedFileCount() + job.getFailedFileCount();
+            failedCount += job.getFailedFileCount();
+            throughput += job.getThroughput();
+            discovering |= !job.isDiscoveryFinished();
+        }
+
+        uiImportStatus.setText(String.format(
+            "Importing songs: %d of %d%s loaded (%d failed), %.0f songs/sec",
+            processedCount, importedCount, discovering ? " found so far" : "",
+            failedCount, throughput));
+
+        // The total is unknown till every file has been discovered
+        uiImportProgress.setProgress(discovering || importedCount == 0 ?
+            ProgressBar.INDETERMINATE_PROGRESS :
+            (double) processedCount / importedCount);
+    }
+
+    @FXML
+    private void onCancelImportClicked() {
+        L.debug("Import cancellation required");
+
+        // Each cancelled job is removed from the list once ended
+        new ArrayList<>(mImportJobs).forEach(ImportJob::cancel);
     }
 
     // Song player
@@ -614,6 +839,8 @@ public class MainWindowController
 
         L.debug("Going to play song: " + song);
 
+        mQueuedPlaylist = retainPlaylist(getPlaylistOfCategory(mCurrentCategory), mQueuedPlaylist);
+
         SongPlayer.instance().play(songQueue, songQueue.indexOf(song));
     }
 
@@ -767,6 +994,7 @@ public class MainWindowController
 
         // Playlists
         onElementsAdded(PlaylistsManager.instance().getList());
+        onSmartPlaylistsAdded(SmartPlaylistsManager.instance().getList());
 
         // Tooltips
         Tooltip.install(uiPrevSong, new Tooltip("Previous song"));
@@ -788,6 +1016,7 @@ public class MainWindowController
 
         uiFileMenu.getItems().add(new ImportFilesMenuItemAction(this, true));
         uiFileMenu.getItems().add(new ImportDirectoryMenuItemAction(this, true));
+        uiFileMenu.getItems().add(new ImportPlaylistMenuItemAction(this, true));
         uiFileMenu.getItems().add(new QuitMenuItemAction(this, true));
 
         // Edit menu
@@ -925,11 +1154,43 @@ public class MainWindowController
     private void setCurrentCategory(Category category) {
         L.info("Switching to category " + category.getTitle());
         mCurrentCategory = category;
+        mShownPlaylist = retainPlaylist(getPlaylistOfCategory(category), mShownPlaylist);
         updateCategoryPane();
         updateCategoryLabels();
         updateTitle();
     }
 
+    /**
+     * Returns the playlist the given category belongs to.
+     * @param category the category
+     * @return the playlist of the category, or null if it is not a playlist one
+     */
+    private Playlist getPlaylistOfCategory(Category category) {
+        for (Map.Entry<Playlist, Category> playlistCategory : mPlaylistCategories.entrySet()) {
+            if (playlistCategory.getValue() == category)
+                return playlistCategory.getKey();
+        }
+
+        return null;
+    }
+
+    /**
+     * Retains the given playlist and releases the previously retained one.
+     * @param playlist the playlist to retain, might be null
+     * @param previousPlaylist the playlist to release, might be null
+     * @return the retained playlist
+     */
+    private static Playlist retainPlaylist(Playlist playlist, Playlist previousPlaylist) {
+        // Retained first, so that it's not unloaded in the meanwhile
+        if (playlist != null)
+            playlist.retain();
+
+        if (previousPlaylist != null)
+            previousPlaylist.release();
+
+        return playlist;
+    }
+
     /** Updates the embedded pane with the node of the current category. */
     private void updateCategoryPane() {
         FXUtil.attachToAnchorPane(uiPrimaryPane, mCurrentCategory.getNode());
@@ -955,6 +1216,10 @@ public class MainWindowController
         for (Category category : mPlaylistCategories.values()) {
             FXUtil.clearClasses(category.getCategoryLabel());
         }
+
+        for (Category category : mSmartPlaylistCategories.values()) {
+            FXUtil.clearClasses(category.getCategoryLabel());
+        }
     }
 
     // Song player
@@ -1047,4 +1312,65 @@ public class MainWindowController
 
         AlertInstance.PlaylistAdded.show(playlistName);
     }
+
+    /**
+     * Called when the new smart playlist label is clicked.
+     * <p>
+     * Asks the name and then the rule of the smart playlist to create.
+     */
+    @FXML
+    private void onNewSmartPlaylistClicked() {
+        StyledTextInputDialog playlistNameDialog = new StyledTextInputDialog();
+        playlistNameDialog.setTitle("New smart playlist");
+        playlistNameDialog.setContentText("Please enter the smart playlist name");
+
+        playlistNameDialog.showAndWait().ifPresent(playlistName -> {
+            if (!SmartPlaylistsManager.isValidName(playlistName)) {
+                L.warn("Can't add a smart playlist with an invalid name");
+                AlertInstance.AddPlaylistInvalidName.show();
+                return;
+            }
+
+            if (SmartPlaylistsManager.instance().getPlaylist(playlistName) != null) {
+                L.warn("Smart playlist with name: " + playlistName + " already exists" +
+                    ": can't be created again");
+                AlertInstance.AddPlaylistAlreadyExist.show(playlistName);
+                return;
+            }
+
+            StyledTextInputDialog playlistRuleDialog = new StyledTextInputDialog();
+            playlistRuleDialog.setTitle("New smart playlist");
+            playlistRuleDialog.setContentText(
+                "Please enter the rule, e.g. genre:rock year:1990..1999 has:cover");
+
+            playlistRuleDialog.showAndWait().ifPresent(playlistRule ->
+                addSmartPlaylist(playlistName, playlistRule));
+        });
+    }
+
+    /**
+     * Adds a smart playlist with the given name and rule to the
+     * {@link SmartPlaylistsManager}.
+     * <p>
+     * This method doesn't directly update the UI, it will be updated
+     * by the callback we receive from the {@link SmartPlaylistsManager}.
+     * @param playlistName name of the smart playlist
+     * @param playlistRule rule of the smart playlist, as a query
+     *                     (see {@link org.docheinstein.mp3doctor.song.filter.SongQueryParser})
+     */
+    private void addSmartPlaylist(String playlistName, String playlistRule) {
+        if (!SmartPlaylist.isValidRule(playlistRule)) {
+            L.warn("Can't add a smart playlist with an invalid rule");
+            AlertInstance.AddSmartPlaylistInvalidRule.show();
+            return;
+        }
+
+        L.info("Adding smart playlist with name: " + playlistName +
+            " and rule: " + playlistRule);
+
+        SmartPlaylistsManager.instance().getList().add(
+            new SmartPlaylist(playlistName, playlistRule));
+
+        AlertInstance.PlaylistAdded.show(playlistName);
+    }
 }
\ No newline at end of file
@@ -60,8 +60,12 @@ public class AddSelectionToPlaylistMenuItemAction extends MenuItemAction {
                     List<Song> selectedSongs = songSelectable.getProvidedSongSelection();
                     L.verbose("Selectable: " + songSelectable.hashCode());
                     L.debug("Going to add " + selectedSongs.size() + " songs to playlist");
-                    pl.getList().addAll(selectedSongs);
-                    AlertInstance.SongsAdded.show(selectedSongs.size(), pl.getName());
+                    int addedSongCount = pl.addSongs(selectedSongs);
+                    AlertInstance.SongsAdded.show(addedSongCount, pl.getName());
+
+                    int duplicatedSongCount = selectedSongs.size() - addedSongCount;
+                    if (duplicatedSongCount > 0)
+                        AlertInstance.DuplicatedSongs.show(duplicatedSongCount);
                 });
             },
             !accelerator ? null :
@@ -0,0 +1,107 @@
+package org.docheinstein.mp3doctor.ui.menu;
+
+import javafx.application.Platform;
+import javafx.stage.FileChooser;
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.commons.utils.Asserts;
+import org.docheinstein.mp3doctor.commons.utils.ThreadUtil;
+import org.docheinstein.mp3doctor.playlist.Playlist;
+import org.docheinstein.mp3doctor.playlist.format.PlaylistExporter;
+import org.docheinstein.mp3doctor.playlist.format.PlaylistFormat;
+import org.docheinstein.mp3doctor.playlist.provider.PlaylistProvider;
+import org.docheinstein.mp3doctor.song.Song;
+import org.docheinstein.mp3doctor.ui.commons.alert.AlertInstance;
+import org.docheinstein.mp3doctor.ui.commons.controller.base.StageAware;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link MenuItemAction} that performs the action of export a playlist
+ * provided by {@link PlaylistProvider} to a playlist file (M3U, M3U8 or PLS).
+ */
+public class ExportPlaylistMenuItemAction extends MenuItemAction {
+
+    private static final Logger L =
+        Logger.createForClass(ExportPlaylistMenuItemAction.class);
+
+    /**
+     * Creates a new menu item for export the provided playlist without shortcut.
+     * @param controller the {@link StageAware} controller responsible for
+     *                   show the file chooser
+     * @param playlistProvider the {@link PlaylistProvider} entity responsible
+     *                         for provide the playlist to export
+     */
+    public ExportPlaylistMenuItemAction(StageAware controller,
+                                        PlaylistProvider playlistProvider) {
+        super(
+            "_Export playlist...",
+            event -> {
+                Playlist pl = playlistProvider.getProvidedPlaylist();
+
+                L.debug("Showing save playlist file window");
+                FileChooser fileChooser = new FileChooser();
+                fileChooser.setTitle("Export playlist");
+                fileChooser.setInitialFileName(pl.getName());
+
+                for (PlaylistFormat format : PlaylistFormat.values()) {
+                    fileChooser.getExtensionFilters().add(
+                        new FileChooser.ExtensionFilter(
+                            format.name() + " file", "*." + format.getExtension()));
+                }
+
+                File selectedFile = fileChooser.showSaveDialog(controller.getStage());
+
+                if (selectedFile == null) {
+                    L.warn("No file to save has been specified; doing nothing");
+                    return;
+                }
+
+                PlaylistFormat format = PlaylistFormat.of(selectedFile);
+
+                if (format == null) {
+                    // The extension of the chosen filter is not added on every
+                    // platform, and not every platform reports the chosen filter
+                    int filterIndex = fileChooser.getExtensionFilters().indexOf(
+                        fileChooser.getSelectedExtensionFilter());
+                    format = filterIndex >= 0 ?
+                        PlaylistFormat.values()[filterIndex] :
+                        PlaylistFormat.M3U8;
+                    selectedFile = new File(
+                        selectedFile.getPath() + "." + format.getExtension());
+                }
+
+                exportPlaylist(pl, selectedFile, format);
+            },
+            null // No shortcut allowed
+        );
+
+        Asserts.assertNotNull(controller,
+            "A valid StageAware controller must be provided, found a null one");
+        Asserts.assertNotNull(playlistProvider,
+            "A valid PlaylistProvider must be provided, found a null one");
+    }
+
+    /**
+     * Exports the given playlist, in background, to the given file.
+     * @param playlist the playlist
+     * @param target the playlist file
+     * @param format the format of the playlist file
+     */
+    private static void exportPlaylist(Playlist playlist, File target, PlaylistFormat format) {
+        // The list can't be accessed from the exporter thread
+        List<Song> songs = new ArrayList<>(playlist.getList());
+
+        ThreadUtil.daemonThreadFactory("playlist-exporter").newThread(() -> {
+            boolean exported = new PlaylistExporter(target, format).export(songs);
+
+            Platform.runLater(() -> {
+                if (exported)
+                    AlertInstance.PlaylistExported.show(playlist.getName(), target.getName());
+                else
+                    AlertInstance.PlaylistExportFailed.show(playlist.getName());
+            });
+        }).start();
+    }
+}
@@ -5,9 +5,7 @@ import javafx.scene.input.KeyCodeCombination;
 import javafx.stage.DirectoryChooser;
 import org.docheinstein.mp3doctor.commons.logger.Logger;
 import org.docheinstein.mp3doctor.commons.utils.Asserts;
-import org.docheinstein.mp3doctor.commons.utils.CollectionsUtil;
 import org.docheinstein.mp3doctor.song.SongsManager;
-import org.docheinstein.mp3doctor.ui.commons.alert.AlertInstance;
 import org.docheinstein.mp3doctor.ui.commons.controller.base.StageAware;
 
 import java.io.File;
@@ -60,12 +58,10 @@ public class ImportDirectoryMenuItemAction extends MenuItemAction {
                     "System DirectoryChooser returned a non-directory file. " +
                     "This should not happen");
 
-                File[] fs = selectedDir.listFiles();
-
-                if (CollectionsUtil.isFilled(fs)) {
-                    SongsManager.instance().addFromFiles(fs);
-                    AlertInstance.SongsAdded.show(fs.length, "library");
-                }
+                // The directory is walked asynchronously; the manager
+                // notifies the user about the added songs when their tags
+                // have been loaded
+                SongsManager.instance().addFromFile(selectedDir);
             },
             !accelerator ? null :
             new KeyCodeCombination(
@@ -7,7 +7,6 @@ import org.docheinstein.mp3doctor.commons.logger.Logger;
 import org.docheinstein.mp3doctor.commons.utils.Asserts;
 import org.docheinstein.mp3doctor.commons.utils.CollectionsUtil;
 import org.docheinstein.mp3doctor.song.SongsManager;
-import org.docheinstein.mp3doctor.ui.commons.alert.AlertInstance;
 import org.docheinstein.mp3doctor.ui.commons.controller.base.StageAware;
 
 import java.io.File;
@@ -60,10 +59,10 @@ public class ImportFilesMenuItemAction extends MenuItemAction {
                     return;
                 }
 
-                if (CollectionsUtil.isFilled(selectedFiles)) {
+                // The manager notifies the user about the added songs
+                // when the tags of those have been loaded
+                if (CollectionsUtil.isFilled(selectedFiles))
                     SongsManager.instance().addFromFiles(selectedFiles);
-                    AlertInstance.SongsAdded.show(selectedFiles.size(), "library");
-                }
             },
             !accelerator ? null :
             new KeyCodeCombination(
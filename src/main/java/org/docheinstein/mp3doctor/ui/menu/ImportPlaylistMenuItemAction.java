@@ -0,0 +1,128 @@
+package org.docheinstein.mp3doctor.ui.menu;
+
+import javafx.application.Platform;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.stage.FileChooser;
+import org.docheinstein.mp3doctor.cache.CacheHierarchy;
+import org.docheinstein.mp3doctor.commons.hierarchy.FEntry;
+import org.docheinstein.mp3doctor.commons.logger.Logger;
+import org.docheinstein.mp3doctor.commons.utils.Asserts;
+import org.docheinstein.mp3doctor.commons.utils.CollectionsUtil;
+import org.docheinstein.mp3doctor.commons.utils.FileUtil;
+import org.docheinstein.mp3doctor.commons.utils.ThreadUtil;
+import org.docheinstein.mp3doctor.playlist.Playlist;
+import org.docheinstein.mp3doctor.playlist.PlaylistsManager;
+import org.docheinstein.mp3doctor.playlist.format.PlaylistFormat;
+import org.docheinstein.mp3doctor.playlist.format.PlaylistImporter;
+import org.docheinstein.mp3doctor.ui.commons.alert.AlertInstance;
+import org.docheinstein.mp3doctor.ui.commons.controller.base.StageAware;
+
+import java.io.File;
+
+/**
+ * {@link MenuItemAction} that performs the action of import a playlist file
+ * (M3U, M3U8 or PLS) as a new playlist of {@link PlaylistsManager}.
+ * <p>
+ * The playlist is named after the file and contains the songs of the
+ * file that are in the library.
+ */
+public class ImportPlaylistMenuItemAction extends MenuItemAction {
+
+    private static final Logger L =
+        Logger.createForClass(ImportPlaylistMenuItemAction.class);
+
+    /**
+     * Creates a new menu item for import a playlist file.
+     * @param controller the {@link StageAware} controller responsible for
+     *                   show the file chooser
+     * @param accelerator whether this menu item can be used with its shortcut
+     */
+    public ImportPlaylistMenuItemAction(StageAware controller, boolean accelerator) {
+        super(
+            "Import _playlist...",
+            event -> {
+                L.debug("Showing open playlist file window");
+                FileChooser fileChooser = new FileChooser();
+                fileChooser.setTitle("Import playlist");
+
+                fileChooser.getExtensionFilters().add(
+                    new FileChooser.ExtensionFilter(
+                        "Playlist file", "*.m3u", "*.m3u8", "*.pls"));
+
+                File selectedFile = fileChooser.showOpenDialog(controller.getStage());
+
+                if (selectedFile == null) {
+                    L.warn("No file to open has been specified; doing nothing");
+                    return;
+                }
+
+                importPlaylist(selectedFile);
+            },
+            !accelerator ? null :
+            new KeyCodeCombination(
+                KeyCode.P,
+                KeyCodeCombination.CONTROL_DOWN,
+                KeyCodeCombination.SHIFT_DOWN
+            )
+        );
+
+        Asserts.assertNotNull(controller,
+            "A valid StageAware controller must be provided, found a null one");
+    }
+
+    /**
+     * Imports the given playlist file, in background, as a new playlist.
+     * @param source the playlist file
+     */
+    private static void importPlaylist(File source) {
+        PlaylistFormat format = PlaylistFormat.of(source);
+
+        if (format == null) {
+            L.warn("Unknown playlist format for file: " + source);
+            AlertInstance.PlaylistImportFailed.show(source.getName());
+            return;
+        }
+
+        String playlistName = FileUtil.getFileNameWithoutExtension(source);
+
+        if (CollectionsUtil.find(
+            PlaylistsManager.instance().getList(),
+            playlist -> playlist.getName().equals(playlistName)) != null) {
+            L.warn("Playlist with name: " + playlistName + " already exists" +
+                ": can't be imported");
+            AlertInstance.AddPlaylistAlreadyExist.show(playlistName);
+            return;
+        }
+
+        FEntry playlistEntry = new FEntry(playlistName);
+        CacheHierarchy.instance().getPlaylistsEntry().addEntry(playlistEntry);
+
+        if (!playlistEntry.create()) {
+            L.warn("Playlist file creation has failed");
+            AlertInstance.PlaylistImportFailed.show(source.getName());
+            return;
+        }
+
+        File playlistFile = playlistEntry.getWrappedFile();
+        PlaylistImporter importer = new PlaylistImporter(source, format);
+
+        ThreadUtil.daemonThreadFactory("playlist-importer").newThread(() -> {
+            boolean imported = importer.importTo(playlistFile);
+
+            Platform.runLater(() -> {
+                if (!imported) {
+                    if (!playlistFile.delete())
+                        L.warn("Can't delete the file of the playlist not imported");
+                    AlertInstance.PlaylistImportFailed.show(source.getName());
+                    return;
+                }
+
+                PlaylistsManager.instance().getList().add(new Playlist(playlistFile));
+
+                AlertInstance.PlaylistImported.show(
+                    importer.getImportedCount(), importer.getEntryCount(), playlistName);
+            });
+        }).start();
+    }
+}
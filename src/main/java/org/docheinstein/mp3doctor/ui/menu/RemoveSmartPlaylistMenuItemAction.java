@@ -0,0 +1,32 @@
+package org.docheinstein.mp3doctor.ui.menu;
+
+import org.docheinstein.mp3doctor.commons.utils.Asserts;
+import org.docheinstein.mp3doctor.playlist.SmartPlaylist;
+import org.docheinstein.mp3doctor.playlist.SmartPlaylistsManager;
+import org.docheinstein.mp3doctor.ui.commons.alert.AlertInstance;
+
+/**
+ * {@link MenuItemAction} that performs the action of remove a smart playlist
+ * from the smart playlists of {@link SmartPlaylistsManager}.
+ */
+public class RemoveSmartPlaylistMenuItemAction extends MenuItemAction {
+
+    /**
+     * Creates a new menu item for remove the given smart playlist from the
+     * smart playlists of {@link SmartPlaylistsManager} without shortcut.
+     * @param playlist the smart playlist to remove
+     */
+    public RemoveSmartPlaylistMenuItemAction(SmartPlaylist playlist) {
+        super(
+            "_Remove smart playlist",
+            event -> {
+                SmartPlaylistsManager.instance().getList().remove(playlist);
+                AlertInstance.PlaylistRemoved.show(playlist.getName());
+            },
+            null // No shortcut allowed
+        );
+
+        Asserts.assertNotNull(playlist,
+            "A valid smart playlist must be provided, found a null one");
+    }
+}
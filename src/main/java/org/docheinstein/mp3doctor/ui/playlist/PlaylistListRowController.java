@@ -1,23 +1,63 @@
 package org.docheinstein.mp3doctor.ui.playlist;
 
+import javafx.beans.Observable;
 import javafx.fxml.FXML;
 import javafx.scene.control.Label;
+import org.docheinstein.mp3doctor.playlist.Playlist;
+import org.docheinstein.mp3doctor.playlist.SmartPlaylist;
 import org.docheinstein.mp3doctor.ui.commons.controller.base.InstantiableControllerView;
 
-/** Represents a playlist row which contains just the name of the playlist. */
+import java.util.function.IntSupplier;
+
+/**
+ * Represents a playlist row which contains the name of the playlist and
+ * the number of its songs.
+ * <p>
+ * The number of songs is taken from the playlist without loading it.
+ */
 public class PlaylistListRowController implements InstantiableControllerView {
 
     @FXML
     private Label uiName;
 
-    private String mName;
+    @FXML
+    private Label uiSongCount;
+
+    /** Name of the playlist. */
+    private final String mName;
+
+    /** Provider of the number of songs of the playlist. */
+    private final IntSupplier mSongCount;
+
+    /** Playlist, which notifies when its number of songs might change. */
+    private final Observable mPlaylist;
 
     /**
      * Creates a new playlist row controller
-     * @param playlistName the name of the playlist
+     * @param playlist the playlist
+     */
+    public PlaylistListRowController(Playlist playlist) {
+        this(playlist.getName(), playlist::getSongCount, playlist);
+    }
+
+    /**
+     * Creates a new playlist row controller for a smart playlist
+     * @param playlist the smart playlist
      */
-    public PlaylistListRowController(String playlistName) {
-        mName = playlistName;
+    public PlaylistListRowController(SmartPlaylist playlist) {
+        this(playlist.getName(), () -> playlist.getList().size(), playlist);
+    }
+
+    /**
+     * Creates a new playlist row controller
+     * @param name the name of the playlist
+     * @param songCount the provider of the number of songs of the playlist
+     * @param playlist the playlist
+     */
+    private PlaylistListRowController(String name, IntSupplier songCount, Observable playlist) {
+        mName = name;
+        mSongCount = songCount;
+        mPlaylist = playlist;
     }
 
     @Override
@@ -28,5 +68,13 @@ public class PlaylistListRowController implements InstantiableControllerView {
     @FXML
     private void initialize() {
         uiName.setText(mName);
+        updateSongCount();
+
+        mPlaylist.addListener(observable -> updateSongCount());
+    }
+
+    /** Shows the current number of songs of the playlist. */
+    private void updateSongCount() {
+        uiSongCount.setText(String.valueOf(mSongCount.getAsInt()));
     }
 }
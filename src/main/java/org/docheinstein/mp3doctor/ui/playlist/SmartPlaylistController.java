@@ -0,0 +1,55 @@
+package org.docheinstein.mp3doctor.ui.playlist;
+
+import javafx.scene.control.TableRow;
+import org.docheinstein.mp3doctor.playlist.SmartPlaylist;
+import org.docheinstein.mp3doctor.song.Song;
+import org.docheinstein.mp3doctor.ui.songs.SongsController;
+
+import java.util.List;
+
+/**
+ * A custom type of {@link SongsController} that shows the songs of a
+ * {@link SmartPlaylist} and, as the {@link PlaylistController}, plays a song
+ * when its row is double clicked instead of view it.
+ */
+public class SmartPlaylistController extends SongsController {
+
+    /** Shown smart playlist. */
+    private final SmartPlaylist mPlaylist;
+
+    /** Delegate that will be notified {@link #onRowDoubleClicked(TableRow)}. */
+    protected SongPlayerHandler mPlayerDelegate;
+
+    /**
+     * Creates a new controller for the given smart playlist.
+     * @param playlist the smart playlist to show
+     */
+    public SmartPlaylistController(SmartPlaylist playlist) {
+        super(playlist.getList());
+        mPlaylist = playlist;
+    }
+
+    /**
+     * Sets the delegate that will be asked to play a song via
+     * {@link SongPlayerHandler#playSong(List, Song)}
+     * @param delegate the delegate that is able to play a given song
+     */
+    public void setPlayerDelegate(SongPlayerHandler delegate) {
+        mPlayerDelegate = delegate;
+    }
+
+    /**
+     * Returns the shown smart playlist.
+     * @return the smart playlist
+     */
+    public SmartPlaylist getPlaylist() {
+        return mPlaylist;
+    }
+
+    @Override
+    protected void onRowDoubleClicked(TableRow<Song> row) {
+        // Notifies song play / pause action
+        if (mPlayerDelegate != null)
+            mPlayerDelegate.playSong(uiSongsTable.getItems(), row.getItem());
+    }
+}
@@ -1,5 +1,6 @@
 package org.docheinstein.mp3doctor.ui.song;
 
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.fxml.FXML;
 import javafx.scene.Node;
@@ -11,6 +12,7 @@ import org.docheinstein.mp3doctor.commons.logger.Logger;
 import org.docheinstein.mp3doctor.commons.constants.Config;
 import org.docheinstein.mp3doctor.commons.utils.FXUtil;
 import org.docheinstein.mp3doctor.commons.utils.StringUtil;
+import org.docheinstein.mp3doctor.commons.utils.ThreadUtil;
 import org.docheinstein.mp3doctor.song.Song;
 import org.docheinstein.mp3doctor.ui.commons.alert.AlertInstance;
 import org.docheinstein.mp3doctor.ui.commons.controller.base.InstantiableReinitializableControllerView;
@@ -22,14 +24,27 @@ import org.jaudiotagger.tag.images.ArtworkFactory;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
-
-/** Controller responsible for view and edit the tags of a song and its cover. */
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Controller responsible for view and edit the tags of a song and its cover.
+ * <p>
+ * The lyrics, the cover and the header tags of the song might be read from
+ * its file, thus those are loaded in background; the song can't be saved
+ * till those are shown.
+ */
 public class SongController
     implements InstantiableReinitializableControllerView, RootController {
 
     private static final Logger L =
         Logger.createForClass(SongController.class);
 
+    /** Thread that loads the tags read from the files, shared by every controller. */
+    private static final ExecutorService DETAILS_LOADER =
+        Executors.newSingleThreadExecutor(
+            ThreadUtil.daemonThreadFactory("song-details-loader"));
+
     @FXML
     private Node uiRoot;
 
@@ -93,6 +108,24 @@ public class SongController
     /** File chosen by the user of the new cover. */
     private File mNewCoverFile = null;
 
+    /**
+     * Whether the lyrics, the cover and the header tags of the song are
+     * shown; the song can't be saved before, or its lyrics would be lost.
+     */
+    // Accessed only from the JavaFX thread
+    private boolean mDetailsLoaded = false;
+
+    /** Whether the user has edited the tags shown since the last save. */
+    // Accessed only from the JavaFX thread
+    private boolean mTagsEdited = false;
+
+    /**
+     * Number of the latest load of the details of the song; a load is
+     * shown only if no other one has been requested meanwhile.
+     */
+    // Accessed only from the JavaFX thread
+    private long mDetailsGeneration = 0;
+
     /** Song currently handled by this controller. */
     private Song mSong;
 
@@ -138,7 +171,10 @@ public class SongController
     private void initialize() {
         // Detect the change of the text for enable the save button
         ChangeListener<String> songTagChangeHandler =
-            (observable, oldValue, newValue) -> enableSaveSongButton(true);
+            (observable, oldValue, newValue) -> {
+                mTagsEdited = true;
+                enableSaveSongButton(mDetailsLoaded);
+            };
 
         uiArtist.textProperty().addListener(songTagChangeHandler);
         uiTitle.textProperty().addListener(songTagChangeHandler);
@@ -170,22 +206,83 @@ public class SongController
         uiYear.setText(mSong.getYear());
         uiTrackNumber.setText(mSong.getTrackNumber());
         uiGenre.setText(mSong.getGenre());
-        uiLyrics.setText(mSong.getLyrics());
-
-        Image cover = mSong.getCoverAsImage();
 
+        // Shown once loaded
+        uiLyrics.setText(null);
+        uiLyrics.setDisable(true);
+        uiCover.setImage(Config.UI.DEFAULT_COVER_IMAGE);
+        uiSelectCoverButton.setDisable(true);
+        uiBitRate.setText(null);
+        uiSampleRate.setText(null);
+        uiChannels.setText(null);
 
-        uiCover.setImage(cover != null ? cover : Config.UI.DEFAULT_COVER_IMAGE);
-
-        uiBitRate.setText(mSong.getBitRate());
-        uiSampleRate.setText(mSong.getSampleRate());
-        uiChannels.setText(mSong.getChannels());
+        mDetailsLoaded = false;
+        mTagsEdited = false;
+        mCoverChanged = false;
+        mNewCoverFile = null;
 
         // Disable the save song button if nothing is modified
         enableSaveSongButton(false);
 
         // Must be done after the set of the texts
-        enableDeleteCoverButton(cover != null);
+        enableDeleteCoverButton(false);
+
+        loadDetails(false);
+    }
+
+    /**
+     * Loads in background the lyrics, the cover and the header tags of the
+     * song, and shows those once loaded.
+     * @param reloadTags whether every tag of the song has to be loaded
+     *                   again from its file first
+     */
+    private void loadDetails(boolean reloadTags) {
+        Song song = mSong;
+        long generation = ++mDetailsGeneration;
+
+        DETAILS_LOADER.execute(() -> {
+            if (reloadTags)
+                song.loadTags();
+
+            song.loadAudioHeader();
+
+            String lyrics = song.getLyrics();
+            Image cover = song.getCoverAsImage();
+            String bitRate = song.getBitRate();
+            String sampleRate = song.getSampleRate();
+            String channels = song.getChannels();
+
+            Platform.runLater(() -> {
+                // Another song has been shown meanwhile
+                if (generation != mDetailsGeneration)
+                    return;
+
+                if (reloadTags) {
+                    reinit();
+                    return;
+                }
+
+                L.verbose("Showing details of song: " + song);
+
+                // Setting the lyrics is not an edit of the user
+                boolean tagsEdited = mTagsEdited;
+                uiLyrics.setText(lyrics);
+                uiLyrics.setDisable(false);
+                mTagsEdited = tagsEdited;
+
+                uiCover.setImage(cover != null ? cover : Config.UI.DEFAULT_COVER_IMAGE);
+                uiSelectCoverButton.setDisable(false);
+
+                uiBitRate.setText(bitRate);
+                uiSampleRate.setText(sampleRate);
+                uiChannels.setText(channels);
+
+                mDetailsLoaded = true;
+
+                enableSaveSongButton(mTagsEdited);
+                enableDeleteCoverButton(cover != null);
+            });
+        });
     }
 
 
@@ -236,6 +333,11 @@ public class SongController
     private void saveSong() {
         L.debug("Saving songs tag");
 
+        if (!mDetailsLoaded) {
+            L.warn("Can't save a song whose details are still loading");
+            return;
+        }
+
         // Check that numeric fields actually contain numbers
 
         try {
@@ -294,7 +396,17 @@ public class SongController
         if (saveOutcome) {
             AlertInstance.SongSaved.show(mSong.toString());
             // Disable since there is nothing to commit at this point
+            mTagsEdited = false;
+            mCoverChanged = false;
+            enableSaveSongButton(false);
+        }
+        else if (mSong.hasChangedOnDisk()) {
+            L.warn("Can't save tags of a song modified by another application");
+            AlertInstance.SongModifiedExternally.show(mSong);
+            // Show the current tags, the user can edit those again
+            mDetailsLoaded = false;
             enableSaveSongButton(false);
+            loadDetails(true);
         }
         else {
             L.error("Can't save tags a non existing song");
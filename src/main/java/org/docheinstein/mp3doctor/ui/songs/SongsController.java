@@ -1,19 +1,30 @@
 package org.docheinstein.mp3doctor.ui.songs;
 
+import javafx.application.Platform;
+import javafx.beans.binding.Bindings;
+import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.collections.WeakListChangeListener;
 import javafx.collections.transformation.FilteredList;
 import javafx.collections.transformation.SortedList;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.layout.AnchorPane;
 import javafx.util.Callback;
+import org.docheinstein.mp3doctor.commons.constants.Config;
 import org.docheinstein.mp3doctor.commons.logger.Logger;
 
 import org.docheinstein.mp3doctor.commons.utils.Asserts;
 import org.docheinstein.mp3doctor.commons.utils.CollectionsUtil;
+import org.docheinstein.mp3doctor.commons.utils.ThreadUtil;
 import org.docheinstein.mp3doctor.song.player.PlayableSongQueueProvider;
+import org.docheinstein.mp3doctor.song.filter.SongQuery;
+import org.docheinstein.mp3doctor.song.filter.SongSearchFilter;
 import org.docheinstein.mp3doctor.song.filter.SongSearchFilters;
+import org.docheinstein.mp3doctor.song.loader.SongTagsLoader;
 import org.docheinstein.mp3doctor.song.provider.SongProvider;
 import org.docheinstein.mp3doctor.song.viewer.SongViewer;
 import org.docheinstein.mp3doctor.song.provider.SongSelectionProvider;
@@ -26,9 +37,18 @@ import org.docheinstein.mp3doctor.ui.menu.ViewSongMenuItemAction;
 import org.docheinstein.mp3doctor.ui.menu.PlaySongMenuItemAction;
 import org.docheinstein.mp3doctor.ui.menu.RemoveSelectedSongsFromLibraryMenuItemAction;
 import org.docheinstein.mp3doctor.song.Song;
+import org.docheinstein.mp3doctor.song.SongsSearchIndex;
 import org.docheinstein.mp3doctor.ui.song.SongController;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Controller that shows a list of songs, allows to filter those and is able
@@ -48,6 +68,11 @@ public class SongsController
     private static final Logger L =
         Logger.createForClass(SongsController.class);
 
+    /** Thread that searches the songs, shared by every controller. */
+    private static final ScheduledExecutorService SEARCHER =
+        Executors.newSingleThreadScheduledExecutor(
+            ThreadUtil.daemonThreadFactory("songs-search"));
+
     @FXML
     protected TableView<Song> uiSongsTable;
 
@@ -100,6 +125,15 @@ public class SongsController
     @FXML
     private CheckMenuItem uiFilterGenreCheckMenuItem;
 
+    @FXML
+    private CheckMenuItem uiFilterFilenameCheckMenuItem;
+
+    @FXML
+    private CheckMenuItem uiFilterPathCheckMenuItem;
+
+    @FXML
+    private CheckMenuItem uiTypoTolerantCheckMenuItem;
+
     @FXML
     private CheckMenuItem uiFilterWithLyricsCheckMenuItem;
 
@@ -129,6 +163,40 @@ public class SongsController
     /** Current controller that shows the song's tag. */
     private SongController mSongController;
 
+    /** Whether the songs are currently filtered by the query of the search bar. */
+    // Accessed only from the JavaFX thread
+    private boolean mSearching = false;
+
+    /**
+     * Number of the latest filtering of the songs; the result of a search
+     * is published only if no filtering has been requested meanwhile.
+     */
+    // Accessed only from the JavaFX thread
+    private long mFilterGeneration = 0;
+
+    /** Search whose result has not been published yet, or null if none. */
+    // Accessed only from the JavaFX thread
+    private Future<?> mPendingSearch = null;
+
+    /**
+     * Order of the songs by relevance for the current search, used while
+     * the table is not sorted by a column; null if there is no search
+     * or if every song is as relevant.
+     */
+    private final ObjectProperty<Comparator<Song>> mRelevanceComparator =
+        new SimpleObjectProperty<>();
+
+    /** Whether the list has changed while the pending search was running. */
+    // Accessed only from the JavaFX thread
+    private boolean mSongsChangedWhileSearching = false;
+
+    /**
+     * Listener of the changes of the underlying list, which filters the songs
+     * again while searching; kept here since it is registered weakly.
+     */
+    private final ListChangeListener<Song> mSongsChangeListener =
+        change -> onSongsChanged();
+
     @Override
     public String getFXMLAsset() {
         return "songs.fxml";
@@ -238,19 +306,31 @@ public class SongsController
         //  ---- SEARCH BAR ----
         uiSearchBar.textProperty().addListener((observable, oldValue, newValue) -> {
             L.verbose("Search bar text changed: " + newValue);
-            filterSongs();
+            // Wait for the user to stop typing before searching
+            filterSongs(Config.UI.SEARCH_DEBOUNCE_MILLIS);
         });
 
         //  ---- SONGS TABLE ----
         mCurrentSongList = new FilteredList<>(mSongs);
 
+        // The songs that match the search are computed at filtering time by
+        // the search index; the added songs and the songs whose tags change
+        // have to be checked again, thus filter again when the list changes.
+        // The listener is weak since the list might outlive the controller
+        mSongs.addListener(new WeakListChangeListener<>(mSongsChangeListener));
+
         // For use both filter and sorting the original list should be wrapped
         // in a FilteredList and then in a SortedList
         // http://code.makery.ch/blog/javafx-8-tableview-sorting-filtering/
 
         SortedList<Song> sortedList = new SortedList<>(mCurrentSongList);
 
-        sortedList.comparatorProperty().bind(uiSongsTable.comparatorProperty());
+        // The songs are sorted by the columns chosen by the user, if any,
+        // or by relevance for the search otherwise
+        sortedList.comparatorProperty().bind(Bindings.createObjectBinding(
+            () -> uiSongsTable.getComparator() != null ?
+                uiSongsTable.getComparator() : mRelevanceComparator.get(),
+            uiSongsTable.comparatorProperty(), mRelevanceComparator));
 
         uiSongsTable.setItems(sortedList);
 
@@ -325,6 +405,12 @@ public class SongsController
         // Double click on the row
         uiSongsTable.setRowFactory(tableView -> {
             TableRow<Song> row = new TableRow<>();
+
+            // The rows are recycled while scrolling, thus the item of the row
+            // changes each time a song becomes visible: load its tags first
+            row.itemProperty().addListener((observable, oldSong, newSong) ->
+                SongTagsLoader.instance().prioritize(newSong));
+
             row.setOnMouseClicked(event -> {
                 if (event.getClickCount() == 2 && !row.isEmpty()) {
                     onRowDoubleClicked(row);
@@ -340,6 +426,9 @@ public class SongsController
         uiFilterAlbumCheckMenuItem.setOnAction(event -> filterSongs());
         uiFilterGenreCheckMenuItem.setOnAction(event -> filterSongs());
         uiFilterYearCheckMenuItem.setOnAction(event -> filterSongs());
+        uiFilterFilenameCheckMenuItem.setOnAction(event -> filterSongs());
+        uiFilterPathCheckMenuItem.setOnAction(event -> filterSongs());
+        uiTypoTolerantCheckMenuItem.setOnAction(event -> filterSongs());
 
         // Binary advanced filters: deselect the opposite filter before filter
         // the songs
@@ -379,73 +468,160 @@ public class SongsController
     }
 
     /**
-     * Filters the song list using the current text of the search bar
+     * Called when the underlying list changes: if the songs are being
+     * searched, searches those again so that the added songs and the songs
+     * whose tags have changed are checked against the index.
+     * <p>
+     * If a search is already pending the songs are searched again only once
+     * it completes, so that a burst of changes doesn't keep cancelling the
+     * searches before one can be published.
+     */
+    private void onSongsChanged() {
+        if (!mSearching)
+            return;
+
+        if (mPendingSearch != null)
+            mSongsChangedWhileSearching = true;
+        else
+            filterSongs();
+    }
+
+    /**
+     * Filters the song list using the current query of the search bar
      * and the selected filters.
+     * <p>
+     * The query is parsed and executed as a {@link SongQuery}; its texts
+     * without a field are searched in the selected fields. Unless the
+     * table is sorted by a column, the songs found are ranked by relevance,
+     * so that the ones matched through the typo tolerance come last.
      */
     protected void filterSongs() {
+        filterSongs(0);
+    }
+
+    /**
+     * Filters the song list using the current query of the search bar
+     * and the selected filters, after the given delay.
+     * <p>
+     * The search runs on the {@link #SEARCHER} thread; a filtering requested
+     * while the previous one is still pending cancels it, thus only the
+     * result of the latest one is published to the filtered list.
+     * @param delayMillis the time to wait before searching
+     */
+    private void filterSongs(long delayMillis) {
         String filterString = uiSearchBar.getText();
 
-        mCurrentSongList.setPredicate(song -> {
-            // The song is accepted if at least one among the filters is satisfied
-            boolean basicFiltering = false;
-            boolean basicFiltersCheck = false;
+        List<SongsSearchIndex.Field> fields = new ArrayList<>();
+
+        if (uiFilterTitleCheckMenuItem.isSelected())
+            fields.add(SongsSearchIndex.Field.Title);
+        if (uiFilterArtistCheckMenuItem.isSelected())
+            fields.add(SongsSearchIndex.Field.Artist);
+        if (uiFilterAlbumCheckMenuItem.isSelected())
+            fields.add(SongsSearchIndex.Field.Album);
+        if (uiFilterYearCheckMenuItem.isSelected())
+            fields.add(SongsSearchIndex.Field.Year);
+        if (uiFilterGenreCheckMenuItem.isSelected())
+            fields.add(SongsSearchIndex.Field.Genre);
+        if (uiFilterFilenameCheckMenuItem.isSelected())
+            fields.add(SongsSearchIndex.Field.Filename);
+        if (uiFilterPathCheckMenuItem.isSelected())
+            fields.add(SongsSearchIndex.Field.Path);
+
+        // Every advanced filter must be satisfied
+        List<SongSearchFilter> advancedFilters = new ArrayList<>();
+
+        if (uiFilterWithLyricsCheckMenuItem.isSelected() ||
+            uiFilterWithoutLyricsCheckMenuItem.isSelected())
+            advancedFilters.add(new SongSearchFilters.Lyrics(
+                uiFilterWithLyricsCheckMenuItem.isSelected()));
+
+        if (uiFilterWithCoverCheckMenuItem.isSelected() ||
+            uiFilterWithoutCoverCheckMenuItem.isSelected())
+            advancedFilters.add(new SongSearchFilters.Cover(
+                uiFilterWithCoverCheckMenuItem.isSelected()));
+
+        long generation = ++mFilterGeneration;
+
+        if (mPendingSearch != null) {
+            L.verbose("Cancelling stale search");
+            mPendingSearch.cancel(true);
+            mPendingSearch = null;
+        }
 
-            // If the filter is specified and the song satisfies the searched
-            // value, the basic filtering is satisfied
+        mSongsChangedWhileSearching = false;
+        SongQuery query = SongQuery.parse(filterString, fields,
+            uiTypoTolerantCheckMenuItem.isSelected());
 
-            if (uiFilterTitleCheckMenuItem.isSelected()) {
-                basicFiltersCheck |=
-                    new SongSearchFilters.Title(filterString).check(song);
-                basicFiltering = true;
-            }
-            if (uiFilterArtistCheckMenuItem.isSelected()) {
-                basicFiltersCheck |=
-                    new SongSearchFilters.Artist(filterString).check(song);
-                basicFiltering = true;
-            }
-            if (uiFilterAlbumCheckMenuItem.isSelected()) {
-                basicFiltersCheck |=
-                    new SongSearchFilters.Album(filterString).check(song);
-                basicFiltering = true;
-            }
-            if (uiFilterYearCheckMenuItem.isSelected()) {
-                basicFiltersCheck |=
-                    new SongSearchFilters.Year(filterString).check(song);
-                basicFiltering = true;
-            }
-            if (uiFilterGenreCheckMenuItem.isSelected()) {
-                basicFiltersCheck |=
-                    new SongSearchFilters.Genre(filterString).check(song);
-                basicFiltering = true;
-            }
+        mSearching = !query.isEmpty();
+
+        if (!mSearching) {
+            // Nothing to search, every song passes the search
+            publishFilter(generation, null, false, advancedFilters);
+            return;
+        }
 
-            boolean advancedFiltering = false;
-            boolean advancedFiltersCheck = true;
+        mPendingSearch = SEARCHER.schedule(() -> {
+            SongsSearchIndex.Matches matches = query.execute();
 
-            // If the filter is specified and the song satisfies the searched
-            // value, the advanced filtering is satisfied, BUT, every advanced
-            // filter must be satisfied.
+            // The search has been cancelled and its result might be partial
+            if (Thread.currentThread().isInterrupted())
+                return;
 
-            if (uiFilterWithLyricsCheckMenuItem.isSelected() ||
-                uiFilterWithoutLyricsCheckMenuItem.isSelected()) {
-                advancedFiltersCheck &= new SongSearchFilters.Lyrics(
-                    uiFilterWithLyricsCheckMenuItem.isSelected()).check(song);
-                advancedFiltering = true;
+            Map<Song, Integer> matchingSongs = new IdentityHashMap<>(matches.getSongs().size());
+            boolean ranked = false;
+
+            for (int i = 0; i < matches.getSongs().size(); i++) {
+                matchingSongs.put(matches.getSongs().get(i), matches.getCost(i));
+                ranked |= matches.getCost(i) != matches.getCost(0);
             }
 
-            if (uiFilterWithCoverCheckMenuItem.isSelected() ||
-                uiFilterWithoutCoverCheckMenuItem.isSelected()) {
-                advancedFiltersCheck &= new SongSearchFilters.Cover(
-                    uiFilterWithCoverCheckMenuItem.isSelected()).check(song);
-                advancedFiltering = true;
+            boolean relevanceOrder = ranked;
+
+            Platform.runLater(() ->
+                publishFilter(generation, matchingSongs, relevanceOrder, advancedFilters));
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Filters the song list with the result of the given filtering, unless
+     * a newer filtering has been requested meanwhile.
+     * @param generation the number of the filtering
+     * @param matchingSongs the songs that match the search with their cost,
+     *                      or null if every song does
+     * @param relevanceOrder whether the songs have to be ranked by their cost
+     * @param advancedFilters the filters every song must satisfy
+     */
+    private void publishFilter(long generation,
+                               Map<Song, Integer> matchingSongs,
+                               boolean relevanceOrder,
+                               List<SongSearchFilter> advancedFilters) {
+        if (generation != mFilterGeneration) {
+            L.verbose("Discarding result of stale search");
+            return;
+        }
+
+        mPendingSearch = null;
+
+        mCurrentSongList.setPredicate(song -> {
+            if (matchingSongs != null && !matchingSongs.containsKey(song))
+                return false;
+
+            for (SongSearchFilter filter : advancedFilters) {
+                if (!filter.check(song))
+                    return false;
             }
 
-            // The song is accepted if it passes both the filters (and they
-            // are used => there is at least a filter for the category
-            // (which are basic and advanced))).
-            return
-                (!basicFiltering || basicFiltersCheck) &&
-                (!advancedFiltering || advancedFiltersCheck);
+            return true;
         });
+
+        // The songs without a cost are filtered out anyway
+        mRelevanceComparator.set(relevanceOrder ?
+            Comparator.comparingInt(song ->
+                matchingSongs.getOrDefault(song, Integer.MAX_VALUE)) :
+            null);
+
+        if (mSongsChangedWhileSearching)
+            filterSongs();
     }
 }